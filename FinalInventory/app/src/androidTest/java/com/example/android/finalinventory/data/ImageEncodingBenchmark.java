@@ -0,0 +1,100 @@
+package com.example.android.finalinventory.data;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import java.util.Random;
+
+/**
+ * Measures encode time, decode time and encoded size of each ImageEncoding on the device, to
+ * choose ImageEncoding.DEFAULT. Results are written to logcat under the ImageEncodingBenchmark tag.
+ */
+public class ImageEncodingBenchmark extends AndroidTestCase {
+
+    private static final String LOG_TAG = ImageEncodingBenchmark.class.getSimpleName();
+
+    //Runs that are thrown away so the JIT and the codecs are warmed up
+    private static final int WARMUP_RUNS = 3;
+
+    //Runs that are measured
+    private static final int MEASURED_RUNS = 10;
+
+    //Encodings compared by the benchmark
+    private static final ImageEncoding[] ENCODINGS = {
+            ImageEncoding.PNG,
+            new ImageEncoding(Bitmap.CompressFormat.JPEG, 70, 1024),
+            ImageEncoding.JPEG,
+            new ImageEncoding(Bitmap.CompressFormat.JPEG, 95, 1024),
+            new ImageEncoding(Bitmap.CompressFormat.WEBP, 60, 1024),
+            ImageEncoding.WEBP,
+            new ImageEncoding(Bitmap.CompressFormat.WEBP, 95, 1024)};
+
+    //The thumbnail size returned by the camera intent, and a full camera photo
+    public void testCameraThumbnail() {
+        benchmark(createPhotoLikeBitmap(320, 240));
+    }
+
+    public void testCameraPhoto() {
+        benchmark(createPhotoLikeBitmap(2048, 1536));
+    }
+
+    private void benchmark(Bitmap source) {
+        Log.i(LOG_TAG, "Image " + source.getWidth() + "x" + source.getHeight());
+        Log.i(LOG_TAG, "encoding, encode ms, decode ms, bytes");
+
+        for (ImageEncoding encoding : ENCODINGS) {
+            byte[] encoded = null;
+            long encodeNanos = 0;
+            long decodeNanos = 0;
+
+            for (int run = 0; run < WARMUP_RUNS + MEASURED_RUNS; run++) {
+                long start = System.nanoTime();
+                encoded = DbBitmapUtility.getBytes(source, encoding);
+                long encodedAt = System.nanoTime();
+                Bitmap decoded = DbBitmapUtility.getImage(encoded);
+                long end = System.nanoTime();
+
+                assertNotNull("Could not decode " + encoding, decoded);
+                decoded.recycle();
+
+                if (run >= WARMUP_RUNS) {
+                    encodeNanos += encodedAt - start;
+                    decodeNanos += end - encodedAt;
+                }
+            }
+
+            Log.i(LOG_TAG, String.format("%s, %.2f, %.2f, %d", encoding,
+                    encodeNanos / 1e6 / MEASURED_RUNS, decodeNanos / 1e6 / MEASURED_RUNS, encoded.length));
+
+            //The scaled image must stay within the encoding's maximum dimension
+            BitmapFactory.Options bounds = new BitmapFactory.Options();
+            bounds.inJustDecodeBounds = true;
+            BitmapFactory.decodeByteArray(encoded, 0, encoded.length, bounds);
+            assertTrue(bounds.outWidth <= encoding.getMaxDimension());
+            assertTrue(bounds.outHeight <= encoding.getMaxDimension());
+        }
+        source.recycle();
+    }
+
+    //Smooth gradients with a little noise compress much more like a photo than flat colors or pure noise
+    private static Bitmap createPhotoLikeBitmap(int width, int height) {
+        Random random = new Random(42);
+        int[] pixels = new int[width * height];
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int noise = random.nextInt(16) - 8;
+                int red = clamp(x * 255 / width + noise);
+                int green = clamp(y * 255 / height + noise);
+                int blue = clamp((x + y) * 128 / (width + height) + 64 + noise);
+                pixels[y * width + x] = 0xff000000 | (red << 16) | (green << 8) | blue;
+            }
+        }
+        return Bitmap.createBitmap(pixels, width, height, Bitmap.Config.ARGB_8888);
+    }
+
+    private static int clamp(int value) {
+        return Math.max(0, Math.min(255, value));
+    }
+}
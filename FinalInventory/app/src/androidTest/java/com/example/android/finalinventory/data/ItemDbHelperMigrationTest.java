@@ -0,0 +1,149 @@
+package com.example.android.finalinventory.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.test.AndroidTestCase;
+import android.test.RenamingDelegatingContext;
+
+import com.example.android.finalinventory.data.ItemContract.ItemEntry;
+
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Upgrades a version 1 database with ItemDbHelper and checks it ends up with the same schema as a
+ * new one, and that the background migrations it queues migrate every row.
+ */
+public class ItemDbHelperMigrationTest extends AndroidTestCase {
+
+    private static final String DATABASE_NAME = "inventory.db";
+
+    //Enough items for the backfill to take several chunks
+    private static final int ITEM_COUNT = 1200;
+
+    private RenamingDelegatingContext mContext;
+    private ItemDbHelper mDbHelper;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mContext = new RenamingDelegatingContext(getContext(), "migration_test_");
+        mContext.deleteDatabase(DATABASE_NAME);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        if (mDbHelper != null) {
+            mDbHelper.close();
+        }
+        mContext.deleteDatabase(DATABASE_NAME);
+        super.tearDown();
+    }
+
+    public void testUpgradeFromVersion1MatchesNewSchema() {
+        Set<String> newSchema = readSchema(createNewDatabase());
+
+        createVersion1Database();
+        mDbHelper = new ItemDbHelper(mContext);
+        SQLiteDatabase database = mDbHelper.getWritableDatabase();
+
+        assertEquals(newSchema, readSchema(database));
+        assertEquals(ITEM_COUNT, DatabaseUtils.queryNumEntries(database, ItemEntry.TABLE_NAME));
+    }
+
+    public void testBackgroundMigrationIndexesEveryItemOnce() {
+        createVersion1Database();
+        mDbHelper = new ItemDbHelper(mContext);
+        SQLiteDatabase database = mDbHelper.getWritableDatabase();
+        MigrationRunner runner = new MigrationRunner(mDbHelper,
+                new ChangeNotifier(mContext.getContentResolver()), new ItemRowCache());
+
+        //The upgrade only queues the backfill
+        assertEquals(0, DatabaseUtils.queryNumEntries(database, ItemDbHelper.FTS_TABLE_NAME));
+        assertTrue(runner.migrateNextChunk(database));
+
+        //Writes between chunks, to rows before and after the backfill has reached them
+        ContentValues values = new ContentValues();
+        values.put(ItemEntry.COLUMN_ITEM_NAME, "Added during migration");
+        values.put(ItemEntry.COLUMN_ITEM_COST, 1);
+        database.insert(ItemEntry.TABLE_NAME, null, values);
+        values.clear();
+        values.put(ItemEntry.COLUMN_ITEM_NAME, "Renamed during migration");
+        database.update(ItemEntry.TABLE_NAME, values, ItemEntry._ID + "=?", new String[]{String.valueOf(ITEM_COUNT)});
+        database.delete(ItemEntry.TABLE_NAME, ItemEntry._ID + "=?", new String[]{"1"});
+        database.delete(ItemEntry.TABLE_NAME, ItemEntry._ID + "=?", new String[]{String.valueOf(ITEM_COUNT - 1)});
+
+        int chunks = 1;
+        while (runner.migrateNextChunk(database)) {
+            chunks++;
+        }
+        assertTrue("Backfill ran in " + chunks + " chunks", chunks > 2);
+        assertEquals(0, DatabaseUtils.queryNumEntries(database, ItemDbHelper.BACKGROUND_MIGRATIONS_TABLE_NAME));
+
+        //Every item is indexed once, under its current name
+        assertEquals(DatabaseUtils.queryNumEntries(database, ItemEntry.TABLE_NAME),
+                DatabaseUtils.queryNumEntries(database, ItemDbHelper.FTS_TABLE_NAME));
+        assertEquals(0, DatabaseUtils.longForQuery(database, "SELECT COUNT(*) FROM " + ItemEntry.TABLE_NAME
+                + " JOIN " + ItemDbHelper.FTS_TABLE_NAME + " ON docid = " + ItemEntry.TABLE_NAME + "." + ItemEntry._ID
+                + " WHERE " + ItemEntry.TABLE_NAME + "." + ItemEntry.COLUMN_ITEM_NAME + " != "
+                + ItemDbHelper.FTS_TABLE_NAME + "." + ItemEntry.COLUMN_ITEM_NAME, null));
+        assertEquals(1, DatabaseUtils.longForQuery(database, "SELECT COUNT(*) FROM " + ItemDbHelper.FTS_TABLE_NAME
+                + " WHERE " + ItemDbHelper.FTS_TABLE_NAME + " MATCH 'renamed'", null));
+    }
+
+    private SQLiteDatabase createNewDatabase() {
+        mDbHelper = new ItemDbHelper(mContext);
+        return mDbHelper.getWritableDatabase();
+    }
+
+    //The items table as the first release of the app created it, with images as BLOBs. The items
+    //have no image, moving images is covered by the image store.
+    private void createVersion1Database() {
+        if (mDbHelper != null) {
+            mDbHelper.close();
+            mDbHelper = null;
+        }
+        mContext.deleteDatabase(DATABASE_NAME);
+        SQLiteDatabase database = mContext.openOrCreateDatabase(DATABASE_NAME, 0, null);
+        try {
+            database.execSQL("CREATE TABLE " + ItemEntry.TABLE_NAME + " ("
+                    + ItemEntry._ID + " INTEGER PRIMARY KEY AUTOINCREMENT, "
+                    + ItemEntry.COLUMN_ITEM_NAME + " TEXT NOT NULL, "
+                    + ItemEntry.COLUMN_ITEM_COST + " REAL NOT NULL, "
+                    + ItemEntry.COLUMN_ITEM_QUANTITY + " INTEGER NOT NULL DEFAULT 0, "
+                    + ItemEntry.COLUMN_ITEM_IMAGE + " BLOB);");
+            database.beginTransaction();
+            try {
+                ContentValues values = new ContentValues();
+                for (int i = 1; i <= ITEM_COUNT; i++) {
+                    values.put(ItemEntry.COLUMN_ITEM_NAME, "Item " + i);
+                    values.put(ItemEntry.COLUMN_ITEM_COST, i / 100f);
+                    values.put(ItemEntry.COLUMN_ITEM_QUANTITY, i % 10);
+                    database.insert(ItemEntry.TABLE_NAME, null, values);
+                }
+                database.setTransactionSuccessful();
+            } finally {
+                database.endTransaction();
+            }
+            database.setVersion(1);
+        } finally {
+            database.close();
+        }
+    }
+
+    //Type and name of every table, index and trigger
+    private static Set<String> readSchema(SQLiteDatabase database) {
+        Set<String> schema = new HashSet<>();
+        Cursor cursor = database.rawQuery("SELECT type, name FROM sqlite_master", null);
+        try {
+            while (cursor.moveToNext()) {
+                schema.add(cursor.getString(0) + " " + cursor.getString(1));
+            }
+        } finally {
+            cursor.close();
+        }
+        return schema;
+    }
+}
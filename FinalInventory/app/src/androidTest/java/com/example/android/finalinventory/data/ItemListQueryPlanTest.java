@@ -0,0 +1,111 @@
+package com.example.android.finalinventory.data;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.net.Uri;
+import android.test.AndroidTestCase;
+import android.test.RenamingDelegatingContext;
+
+import com.example.android.finalinventory.data.ItemContract.ItemEntry;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Checks with EXPLAIN QUERY PLAN that every sort and filter of the list is answered from an
+ * index, that pages sorted by a key come out of its index already in order, and that an item is
+ * found by SKU in its index.
+ */
+public class ItemListQueryPlanTest extends AndroidTestCase {
+
+    private static final String[] PROJECTION = {
+            ItemEntry._ID,
+            ItemEntry.COLUMN_ITEM_NAME,
+            ItemEntry.COLUMN_ITEM_COST,
+            ItemEntry.COLUMN_ITEM_QUANTITY,
+            ItemEntry.COLUMN_ITEM_THUMBNAIL};
+
+    private ItemDbHelper mDbHelper;
+    private SQLiteDatabase mDatabase;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        RenamingDelegatingContext context = new RenamingDelegatingContext(getContext(), "plan_test_");
+        context.deleteDatabase("inventory.db");
+        mDbHelper = new ItemDbHelper(context);
+        mDatabase = mDbHelper.getReadableDatabase();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mDbHelper.close();
+        super.tearDown();
+    }
+
+    public void testSortedPagesReadTheirIndexInOrder() {
+        String[] sorts = {ItemContract.SORT_NAME, ItemContract.SORT_QUANTITY, ItemContract.SORT_COST};
+        for (String sort : sorts) {
+            Uri listUri = ItemEntry.buildListUri(sort, null, null, null);
+            List<String> plan = explain(ItemEntry.buildPageUri(listUri, "1", 1, 50));
+            assertUsesIndex(sort, plan);
+            assertFalse(sort + " sorts its rows again: " + plan, plan.toString().contains("TEMP B-TREE"));
+        }
+    }
+
+    public void testListSortedByIdSeeksToThePage() {
+        List<String> plan = explain(ItemEntry.buildPageUri(ItemEntry.CONTENT_URI, null, 1, 50));
+        assertUsesIndex(ItemContract.SORT_ID, plan);
+    }
+
+    public void testFiltersUseAnIndex() {
+        Uri[] lists = {
+                ItemEntry.buildListUri(ItemContract.SORT_QUANTITY, 5, null, null),
+                ItemEntry.buildListUri(ItemContract.SORT_COST, null, 1f, 20f),
+                ItemEntry.buildListUri(ItemContract.SORT_QUANTITY, 5, 1f, 20f),
+                ItemEntry.buildListUri(ItemContract.SORT_NAME, null, 1f, 20f)};
+        for (Uri listUri : lists) {
+            assertUsesIndex(listUri.toString(), explain(ItemEntry.buildOffsetPageUri(listUri, 0, 50)));
+            assertUsesIndex(listUri.toString(), explainCount(ItemEntry.buildCountUri(listUri)));
+        }
+    }
+
+    public void testSkuLookupSeeksInItsIndex() {
+        List<String> plan = explain("SELECT * FROM " + ItemEntry.TABLE_NAME + " WHERE "
+                + ItemEntry.COLUMN_ITEM_SKU + "=?", new String[]{"0123456789012"});
+        assertTrue("SKU lookup doesn't use its index: " + plan, plan.toString().contains("items_sku_idx"));
+    }
+
+    //Every step reading the items table must seek in the table or one of its indexes
+    private static void assertUsesIndex(String query, List<String> plan) {
+        for (String step : plan) {
+            if (step.contains(ItemEntry.TABLE_NAME) && !step.contains("INDEX") && !step.contains("PRIMARY KEY")) {
+                fail(query + " scans the table: " + plan);
+            }
+        }
+    }
+
+    private List<String> explain(Uri uri) {
+        ItemListQuery query = new ItemListQuery(uri);
+        return explain(query.buildSql(PROJECTION, null), query.buildArgs(null));
+    }
+
+    private List<String> explainCount(Uri uri) {
+        ItemListQuery query = new ItemListQuery(uri);
+        return explain(query.buildCountSql(null), query.buildArgs(null));
+    }
+
+    private List<String> explain(String sql, String[] args) {
+        List<String> plan = new ArrayList<>();
+        Cursor cursor = mDatabase.rawQuery("EXPLAIN QUERY PLAN " + sql, args);
+        try {
+            int detailColumnIndex = cursor.getColumnIndexOrThrow("detail");
+            while (cursor.moveToNext()) {
+                plan.add(cursor.getString(detailColumnIndex));
+            }
+        } finally {
+            cursor.close();
+        }
+        return plan;
+    }
+}
@@ -0,0 +1,74 @@
+package com.example.android.finalinventory.data;
+
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.MatrixCursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.test.AndroidTestCase;
+import android.test.RenamingDelegatingContext;
+
+import com.example.android.finalinventory.data.ItemContract.ItemEntry;
+
+/**
+ * Checks that items written with ItemValues are stored with the types of their columns, and read
+ * back the same through an ItemMapper.
+ */
+public class ItemMapperTest extends AndroidTestCase {
+
+    private ItemDbHelper mDbHelper;
+    private SQLiteDatabase mDatabase;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        RenamingDelegatingContext context = new RenamingDelegatingContext(getContext(), "mapper_test_");
+        context.deleteDatabase("inventory.db");
+        mDbHelper = new ItemDbHelper(context);
+        mDatabase = mDbHelper.getWritableDatabase();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mDbHelper.close();
+        super.tearDown();
+    }
+
+    public void testValuesAreStoredAsNumbers() {
+        long id = mDatabase.insert(ItemEntry.TABLE_NAME, null,
+                new ItemValues().putName("Bolt").putCost(2.5f).putQuantity(12).toContentValues());
+
+        String[] args = {String.valueOf(id)};
+        assertEquals("real", DatabaseUtils.stringForQuery(mDatabase,
+                "SELECT typeof(" + ItemEntry.COLUMN_ITEM_COST + ") FROM " + ItemEntry.TABLE_NAME
+                        + " WHERE " + ItemEntry._ID + " = ?", args));
+        assertEquals("integer", DatabaseUtils.stringForQuery(mDatabase,
+                "SELECT typeof(" + ItemEntry.COLUMN_ITEM_QUANTITY + ") FROM " + ItemEntry.TABLE_NAME
+                        + " WHERE " + ItemEntry._ID + " = ?", args));
+
+        Cursor cursor = mDatabase.query(ItemEntry.TABLE_NAME, null, ItemEntry._ID + " = ?", args, null, null, null);
+        try {
+            assertTrue(cursor.moveToFirst());
+            Item item = new ItemMapper(cursor).read(cursor);
+            assertEquals(id, item.getId());
+            assertEquals("Bolt", item.getName());
+            assertEquals(2.5, item.getCost());
+            assertEquals(12, item.getQuantity());
+            assertNull(item.getImage());
+        } finally {
+            cursor.close();
+        }
+    }
+
+    public void testMissingColumnsReadAsDefaults() {
+        MatrixCursor cursor = new MatrixCursor(new String[]{ItemEntry.COLUMN_ITEM_NAME});
+        cursor.addRow(new Object[]{"Nut"});
+        assertTrue(cursor.moveToFirst());
+
+        Item item = new ItemMapper(cursor).read(cursor);
+        assertEquals(-1, item.getId());
+        assertEquals("Nut", item.getName());
+        assertEquals(0.0, item.getCost());
+        assertEquals(0, item.getQuantity());
+        assertNull(item.getThumbnail());
+    }
+}
@@ -0,0 +1,82 @@
+package com.example.android.finalinventory.data;
+
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.test.AndroidTestCase;
+
+import com.example.android.finalinventory.data.ItemContract.ItemEntry;
+
+/**
+ * Checks that cached item rows are served for their plain columns, and never once a write to
+ * their item has committed since they were read.
+ */
+public class ItemRowCacheTest extends AndroidTestCase {
+
+    private ItemRowCache mCache;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mCache = new ItemRowCache();
+    }
+
+    public void testServesProjectionOfCachedRow() {
+        mCache.put(1, readRow(1, "Bolt", 2.5), mCache.getVersion());
+
+        Cursor cursor = mCache.query(1, new String[]{ItemEntry.COLUMN_ITEM_COST, ItemEntry.COLUMN_ITEM_NAME});
+        assertNotNull(cursor);
+        assertTrue(cursor.moveToFirst());
+        assertEquals(2.5, cursor.getDouble(0));
+        assertEquals("Bolt", cursor.getString(1));
+        cursor.close();
+
+        //Anything but a plain column has to be queried
+        assertNull(mCache.query(1, new String[]{"count(*)"}));
+        assertNull(mCache.query(2, null));
+    }
+
+    public void testWriteToOneItemKeepsTheOthers() {
+        long version = mCache.getVersion();
+        mCache.put(1, readRow(1, "Bolt", 2.5), version);
+        mCache.put(2, readRow(2, "Nut", 0.5), version);
+
+        mCache.invalidate(1);
+        assertNull(mCache.query(1, null));
+        assertNotNull(mCache.query(2, null));
+
+        mCache.invalidateAll();
+        assertNull(mCache.query(2, null));
+    }
+
+    public void testRowReadBeforeItsWriteCommittedIsNotCached() {
+        //Read before the write to item 1 committed, put after
+        long version = mCache.getVersion();
+        mCache.invalidate(1);
+        mCache.put(1, readRow(1, "Bolt", 2.5), version);
+        mCache.put(2, readRow(2, "Nut", 0.5), version);
+        assertNull(mCache.query(1, null));
+        assertNotNull(mCache.query(2, null));
+
+        //Read after it committed
+        mCache.put(1, readRow(1, "Bolt", 2.5), mCache.getVersion());
+        assertNotNull(mCache.query(1, null));
+    }
+
+    public void testLongWriteBypassesCache() {
+        mCache.put(1, readRow(1, "Bolt", 2.5), mCache.getVersion());
+        mCache.beginWrite();
+        assertNull(mCache.query(1, null));
+        mCache.put(2, readRow(2, "Nut", 0.5), mCache.getVersion());
+        mCache.endWrite();
+        assertNull(mCache.query(1, null));
+        assertNull(mCache.query(2, null));
+    }
+
+    private static ItemRowCache.Row readRow(long id, String name, double cost) {
+        MatrixCursor cursor = new MatrixCursor(new String[]{
+                ItemEntry._ID, ItemEntry.COLUMN_ITEM_NAME, ItemEntry.COLUMN_ITEM_COST});
+        cursor.addRow(new Object[]{id, name, cost});
+        cursor.moveToFirst();
+        return new ItemRowCache.Row(cursor);
+    }
+}
@@ -0,0 +1,84 @@
+package com.example.android.finalinventory.data;
+
+import android.content.ContentValues;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.test.AndroidTestCase;
+import android.test.RenamingDelegatingContext;
+
+import com.example.android.finalinventory.data.ItemContract.MovementEntry;
+
+/**
+ * Checks that compacting the stock movement ledger folds old movements into snapshots without
+ * changing what the movements of each item add up to.
+ */
+public class LedgerCompactorTest extends AndroidTestCase {
+
+    private ItemDbHelper mDbHelper;
+    private SQLiteDatabase mDatabase;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        RenamingDelegatingContext context = new RenamingDelegatingContext(getContext(), "ledger_test_");
+        context.deleteDatabase("inventory.db");
+        mDbHelper = new ItemDbHelper(context);
+        mDatabase = mDbHelper.getWritableDatabase();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mDbHelper.close();
+        super.tearDown();
+    }
+
+    public void testFoldsOldMovementsPerItem() {
+        append(1, 10, MovementEntry.REASON_COUNT, 100);
+        append(1, -3, MovementEntry.REASON_SALE, 200);
+        append(1, 5, MovementEntry.REASON_RECEIPT, 300);
+        append(1, -1, MovementEntry.REASON_SALE, 1000);
+        append(2, 4, MovementEntry.REASON_COUNT, 100);
+        append(2, -4, MovementEntry.REASON_SALE, 1000);
+
+        assertEquals(3, LedgerCompactor.compact(mDatabase, 500));
+
+        //Item 1 keeps a snapshot of its three old movements and its newer sale. Item 2 only has
+        //one old movement, so nothing is folded.
+        assertEquals(2, count(1));
+        assertEquals(12, sum(1));
+        assertEquals(1, DatabaseUtils.longForQuery(mDatabase, "SELECT COUNT(*) FROM " + MovementEntry.TABLE_NAME
+                + " WHERE " + MovementEntry.COLUMN_MOVEMENT_REASON + " = '" + MovementEntry.REASON_SNAPSHOT
+                + "' AND " + MovementEntry.COLUMN_MOVEMENT_DELTA + " = 12 AND "
+                + MovementEntry.COLUMN_MOVEMENT_TIMESTAMP + " = 300", null));
+        assertEquals(2, count(2));
+        assertEquals(0, sum(2));
+
+        //A snapshot on its own isn't folded again, but is folded with movements that grew old since
+        assertEquals(0, LedgerCompactor.compact(mDatabase, 500));
+        assertEquals(4, LedgerCompactor.compact(mDatabase, 2000));
+        assertEquals(1, count(1));
+        assertEquals(11, sum(1));
+        assertEquals(1, count(2));
+        assertEquals(0, sum(2));
+    }
+
+    private void append(long itemId, int delta, String reason, long timestamp) {
+        ContentValues values = new ContentValues();
+        values.put(MovementEntry.COLUMN_MOVEMENT_ITEM_ID, itemId);
+        values.put(MovementEntry.COLUMN_MOVEMENT_DELTA, delta);
+        values.put(MovementEntry.COLUMN_MOVEMENT_REASON, reason);
+        values.put(MovementEntry.COLUMN_MOVEMENT_TIMESTAMP, timestamp);
+        mDatabase.insert(MovementEntry.TABLE_NAME, null, values);
+    }
+
+    private long count(long itemId) {
+        return DatabaseUtils.queryNumEntries(mDatabase, MovementEntry.TABLE_NAME,
+                MovementEntry.COLUMN_MOVEMENT_ITEM_ID + "=?", new String[]{String.valueOf(itemId)});
+    }
+
+    private long sum(long itemId) {
+        return DatabaseUtils.longForQuery(mDatabase, "SELECT SUM(" + MovementEntry.COLUMN_MOVEMENT_DELTA + ") FROM "
+                + MovementEntry.TABLE_NAME + " WHERE " + MovementEntry.COLUMN_MOVEMENT_ITEM_ID + "=?",
+                new String[]{String.valueOf(itemId)});
+    }
+}
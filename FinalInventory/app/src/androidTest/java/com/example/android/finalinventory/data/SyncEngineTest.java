@@ -0,0 +1,184 @@
+package com.example.android.finalinventory.data;
+
+import android.content.ContentValues;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.test.AndroidTestCase;
+import android.test.RenamingDelegatingContext;
+
+import com.example.android.finalinventory.data.ItemContract.ItemEntry;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.util.zip.GZIPInputStream;
+
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+
+/**
+ * Checks that a sync pushes only the changes made since the last one, and that changes pulled
+ * from the server are applied without being pushed back.
+ */
+public class SyncEngineTest extends AndroidTestCase {
+
+    private static final String EMPTY_PULL = "{\"changes\": [], \"token\": \"t1\", \"more\": false}";
+
+    private ItemDbHelper mDbHelper;
+    private SQLiteDatabase mDatabase;
+    private MockWebServer mServer;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        RenamingDelegatingContext context = new RenamingDelegatingContext(getContext(), "sync_test_");
+        context.deleteDatabase("inventory.db");
+        mDbHelper = new ItemDbHelper(context);
+        mDatabase = mDbHelper.getWritableDatabase();
+        mServer = new MockWebServer();
+        mServer.start();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mServer.shutdown();
+        mDbHelper.close();
+        super.tearDown();
+    }
+
+    public void testPushesOnlyChangesSinceLastSync() throws Exception {
+        long tea = insert("Tea", 2);
+        insert("Coffee", 5);
+
+        mServer.enqueue(new MockResponse());
+        mServer.enqueue(new MockResponse().setBody(EMPTY_PULL));
+        SyncEngine.Result result = new SyncEngine.Result();
+        newEngine().sync(result);
+        assertEquals(2, result.mPushed);
+
+        RecordedRequest push = mServer.takeRequest();
+        assertEquals("POST", push.getMethod());
+        assertEquals("gzip", push.getHeader("Content-Encoding"));
+        assertEquals(2, readChanges(push).length());
+        mServer.takeRequest();
+
+        //Only the item changed since is pushed, and a deleted item as a tombstone
+        ContentValues values = new ContentValues();
+        values.put(ItemEntry.COLUMN_ITEM_QUANTITY, 7);
+        mDatabase.update(ItemEntry.TABLE_NAME, values, ItemEntry._ID + "=" + tea, null);
+        mDatabase.delete(ItemEntry.TABLE_NAME, ItemEntry.COLUMN_ITEM_NAME + "='Coffee'", null);
+
+        mServer.enqueue(new MockResponse());
+        mServer.enqueue(new MockResponse().setBody(EMPTY_PULL));
+        result = new SyncEngine.Result();
+        newEngine().sync(result);
+        assertEquals(2, result.mPushed);
+
+        JSONArray changes = readChanges(mServer.takeRequest());
+        assertEquals(2, changes.length());
+        assertEquals(7, changes.getJSONObject(0).getInt(SyncEngine.KEY_QUANTITY));
+        assertTrue(changes.getJSONObject(1).getBoolean(SyncEngine.KEY_DELETED));
+        assertEquals(0, DatabaseUtils.queryNumEntries(mDatabase, ItemDbHelper.TOMBSTONES_TABLE_NAME));
+    }
+
+    public void testPulledChangesAreNotPushedBack() throws Exception {
+        JSONObject change = new JSONObject();
+        change.put(SyncEngine.KEY_ID, "remote-1");
+        change.put(SyncEngine.KEY_VERSION, 3);
+        change.put(SyncEngine.KEY_MODIFIED_AT, 1000);
+        change.put(SyncEngine.KEY_NAME, "Sugar");
+        change.put(SyncEngine.KEY_COST, 1.5);
+        change.put(SyncEngine.KEY_QUANTITY, 4);
+        JSONObject pull = new JSONObject();
+        pull.put(SyncEngine.KEY_CHANGES, new JSONArray().put(change));
+        pull.put(SyncEngine.KEY_TOKEN, "t2");
+        pull.put(SyncEngine.KEY_MORE, false);
+
+        mServer.enqueue(new MockResponse().setBody(pull.toString()));
+        SyncEngine.Result result = new SyncEngine.Result();
+        newEngine().sync(result);
+        assertEquals(0, result.mPushed);
+        assertEquals(1, result.mPulled);
+        assertTrue(result.mInserted);
+        assertEquals(4, DatabaseUtils.longForQuery(mDatabase, "SELECT " + ItemEntry.COLUMN_ITEM_QUANTITY
+                + " FROM " + ItemEntry.TABLE_NAME + " WHERE " + ItemEntry.COLUMN_ITEM_SYNC_ID + "='remote-1'", null));
+
+        //The next sync has nothing to push and asks for the changes after the stored token
+        mServer.takeRequest();
+        mServer.enqueue(new MockResponse().setBody(EMPTY_PULL));
+        result = new SyncEngine.Result();
+        newEngine().sync(result);
+        assertEquals(0, result.mPushed);
+
+        RecordedRequest next = mServer.takeRequest();
+        assertEquals("GET", next.getMethod());
+        assertTrue(next.getPath(), next.getPath().contains("since=t2"));
+    }
+
+    public void testSkusAreSyncedWithoutBreakingTheUniqueIndex() throws Exception {
+        long tea = insert("Tea", 2);
+        mServer.enqueue(new MockResponse());
+        mServer.enqueue(new MockResponse().setBody(EMPTY_PULL));
+        newEngine().sync(new SyncEngine.Result());
+        mServer.takeRequest();
+        mServer.takeRequest();
+
+        //Giving an item a SKU is a change to push
+        ContentValues values = new ContentValues();
+        values.put(ItemEntry.COLUMN_ITEM_SKU, "TEA-1");
+        mDatabase.update(ItemEntry.TABLE_NAME, values, ItemEntry._ID + "=" + tea, null);
+
+        //The server moved the SKU to a new item, so the pushed item loses it here too
+        JSONObject change = new JSONObject();
+        change.put(SyncEngine.KEY_ID, "remote-2");
+        change.put(SyncEngine.KEY_VERSION, 4);
+        change.put(SyncEngine.KEY_NAME, "Green tea");
+        change.put(SyncEngine.KEY_COST, 2.5);
+        change.put(SyncEngine.KEY_QUANTITY, 1);
+        change.put(SyncEngine.KEY_SKU, "TEA-1");
+        JSONObject pull = new JSONObject();
+        pull.put(SyncEngine.KEY_CHANGES, new JSONArray().put(change));
+        pull.put(SyncEngine.KEY_TOKEN, "t3");
+        pull.put(SyncEngine.KEY_MORE, false);
+
+        mServer.enqueue(new MockResponse());
+        mServer.enqueue(new MockResponse().setBody(pull.toString()));
+        SyncEngine.Result result = new SyncEngine.Result();
+        newEngine().sync(result);
+        assertEquals(1, result.mPushed);
+        assertEquals(1, result.mPulled);
+
+        JSONArray changes = readChanges(mServer.takeRequest());
+        assertEquals("TEA-1", changes.getJSONObject(0).getString(SyncEngine.KEY_SKU));
+        assertEquals("remote-2", DatabaseUtils.stringForQuery(mDatabase, "SELECT " + ItemEntry.COLUMN_ITEM_SYNC_ID
+                + " FROM " + ItemEntry.TABLE_NAME + " WHERE " + ItemEntry.COLUMN_ITEM_SKU + "='TEA-1'", null));
+        assertEquals(1, DatabaseUtils.queryNumEntries(mDatabase, ItemEntry.TABLE_NAME,
+                ItemEntry.COLUMN_ITEM_SKU + " IS NULL"));
+    }
+
+    private SyncEngine newEngine() {
+        return new SyncEngine(mDatabase, mServer.url("/inventory").toString());
+    }
+
+    private long insert(String name, int quantity) {
+        ContentValues values = new ContentValues();
+        values.put(ItemEntry.COLUMN_ITEM_NAME, name);
+        values.put(ItemEntry.COLUMN_ITEM_COST, 1f);
+        values.put(ItemEntry.COLUMN_ITEM_QUANTITY, quantity);
+        return mDatabase.insert(ItemEntry.TABLE_NAME, null, values);
+    }
+
+    private static JSONArray readChanges(RecordedRequest request) throws Exception {
+        InputStream in = new GZIPInputStream(request.getBody().inputStream());
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        int count;
+        while ((count = in.read(buffer)) != -1) {
+            out.write(buffer, 0, count);
+        }
+        return new JSONObject(out.toString("UTF-8")).getJSONArray(SyncEngine.KEY_CHANGES);
+    }
+}
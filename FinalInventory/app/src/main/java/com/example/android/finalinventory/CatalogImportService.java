@@ -0,0 +1,297 @@
+package com.example.android.finalinventory;
+
+import android.app.IntentService;
+import android.app.NotificationManager;
+import android.content.ContentProviderOperation;
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.content.Context;
+import android.content.Intent;
+import android.content.OperationApplicationException;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.RemoteException;
+import android.provider.OpenableColumns;
+import android.support.v4.app.NotificationCompat;
+import android.util.Log;
+
+import com.example.android.finalinventory.core.CatalogItem;
+import com.example.android.finalinventory.core.CatalogParser;
+import com.example.android.finalinventory.core.CsvReader;
+import com.example.android.finalinventory.data.ItemContract;
+import com.example.android.finalinventory.data.ItemContract.ImportEntry;
+import com.example.android.finalinventory.data.ItemContract.ItemEntry;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Imports items from a CSV file with a header row naming the "name", "cost" (or "price"),
+ * "quantity" and "sku" (or "barcode") columns. The file is read as a stream and written in
+ * chunks, each committed in one transaction together with the position in the file it reached,
+ * so memory use doesn't grow with the file and an import that was interrupted continues after
+ * its last committed chunk.
+ */
+public class CatalogImportService extends IntentService {
+
+    //Tag for log messages
+    private static final String LOG_TAG = CatalogImportService.class.getSimpleName();
+
+    //Import the CSV file given as the intent data
+    public static final String ACTION_IMPORT = "com.example.android.finalinventory.action.IMPORT_CATALOG";
+
+    //Continue imports that didn't finish
+    public static final String ACTION_RESUME = "com.example.android.finalinventory.action.RESUME_IMPORTS";
+
+    //Items committed in each transaction
+    private static final int CHUNK_SIZE = 500;
+
+    //ID of the progress notification, which goes away with the service
+    private static final int NOTIFICATION_ID = 1;
+
+    //ID of the notification telling how an import ended
+    private static final int RESULT_NOTIFICATION_ID = 2;
+
+    private static final String[] IMPORT_PROJECTION = {
+            ImportEntry._ID,
+            ImportEntry.COLUMN_IMPORT_SOURCE,
+            ImportEntry.COLUMN_IMPORT_BYTE_OFFSET,
+            ImportEntry.COLUMN_IMPORT_ROWS_IMPORTED,
+            ImportEntry.COLUMN_IMPORT_ROWS_SKIPPED};
+
+    private NotificationManager mNotificationManager;
+
+    //Start importing a CSV file. The caller must be able to grant read access to the file.
+    public static void startImport(Context context, Uri source) {
+        Intent intent = new Intent(context, CatalogImportService.class);
+        intent.setAction(ACTION_IMPORT);
+        intent.setData(source);
+        intent.addFlags(Intent.FLAG_GRANT_READ_URI_PERMISSION);
+        context.startService(intent);
+    }
+
+    //Continue any import that was interrupted, for example by the process being killed
+    public static void resumeImports(Context context) {
+        Intent intent = new Intent(context, CatalogImportService.class);
+        intent.setAction(ACTION_RESUME);
+        context.startService(intent);
+    }
+
+    public CatalogImportService() {
+        super(LOG_TAG);
+    }
+
+    @Override
+    public void onCreate() {
+        super.onCreate();
+        mNotificationManager = (NotificationManager) getSystemService(Context.NOTIFICATION_SERVICE);
+    }
+
+    @Override
+    protected void onHandleIntent(Intent intent) {
+        if (intent == null) {
+            return;
+        }
+
+        if (ACTION_IMPORT.equals(intent.getAction()) && intent.getData() != null) {
+            Uri importUri = startTracking(intent.getData());
+            if (importUri != null) {
+                resume(importUri);
+            }
+        } else if (ACTION_RESUME.equals(intent.getAction())) {
+            Cursor cursor = getContentResolver().query(ImportEntry.CONTENT_URI,
+                    new String[]{ImportEntry._ID}, null, null, ImportEntry._ID);
+            if (cursor == null) {
+                return;
+            }
+            List<Uri> imports = new ArrayList<>();
+            try {
+                while (cursor.moveToNext()) {
+                    imports.add(ContentUris.withAppendedId(ImportEntry.CONTENT_URI, cursor.getLong(0)));
+                }
+            } finally {
+                cursor.close();
+            }
+            for (Uri importUri : imports) {
+                resume(importUri);
+            }
+        }
+    }
+
+    //Add a progress row for the source, or find the one left by an earlier attempt
+    private Uri startTracking(Uri source) {
+        ContentResolver resolver = getContentResolver();
+        Cursor cursor = resolver.query(ImportEntry.CONTENT_URI, new String[]{ImportEntry._ID},
+                ImportEntry.COLUMN_IMPORT_SOURCE + "=?", new String[]{source.toString()}, null);
+        if (cursor != null) {
+            try {
+                if (cursor.moveToFirst()) {
+                    return ContentUris.withAppendedId(ImportEntry.CONTENT_URI, cursor.getLong(0));
+                }
+            } finally {
+                cursor.close();
+            }
+        }
+
+        ContentValues values = new ContentValues();
+        values.put(ImportEntry.COLUMN_IMPORT_SOURCE, source.toString());
+        return resolver.insert(ImportEntry.CONTENT_URI, values);
+    }
+
+    //Run an import from its last committed position to the end of the file
+    private void resume(Uri importUri) {
+        ContentResolver resolver = getContentResolver();
+
+        Uri source;
+        long offset;
+        int imported;
+        int skipped;
+        Cursor cursor = resolver.query(importUri, IMPORT_PROJECTION, null, null, null);
+        if (cursor == null) {
+            return;
+        }
+        try {
+            if (!cursor.moveToFirst()) {
+                return;
+            }
+            source = Uri.parse(cursor.getString(cursor.getColumnIndexOrThrow(ImportEntry.COLUMN_IMPORT_SOURCE)));
+            offset = cursor.getLong(cursor.getColumnIndexOrThrow(ImportEntry.COLUMN_IMPORT_BYTE_OFFSET));
+            imported = cursor.getInt(cursor.getColumnIndexOrThrow(ImportEntry.COLUMN_IMPORT_ROWS_IMPORTED));
+            skipped = cursor.getInt(cursor.getColumnIndexOrThrow(ImportEntry.COLUMN_IMPORT_ROWS_SKIPPED));
+        } finally {
+            cursor.close();
+        }
+
+        long size = querySize(source);
+        startForeground(NOTIFICATION_ID, buildProgressNotification(imported, offset, size).build());
+
+        CsvReader reader = null;
+        try {
+            InputStream in = resolver.openInputStream(source);
+            if (in == null) {
+                throw new IOException("Could not open " + source);
+            }
+            reader = new CsvReader(in);
+
+            //The header is read again on every attempt, it tells where each column is
+            List<String> header = reader.readRecord();
+            if (header == null) {
+                throw new IOException("The file is empty");
+            }
+            CatalogParser parser = CatalogParser.forHeader(header);
+            if (parser == null) {
+                throw new IOException("The header must name a name and a cost column");
+            }
+            if (offset > reader.getPosition()) {
+                reader.skipTo(offset);
+            }
+
+            ArrayList<ContentProviderOperation> operations = new ArrayList<>(CHUNK_SIZE + 1);
+            List<String> record;
+            while ((record = reader.readRecord()) != null) {
+                CatalogItem item = parser.parse(record);
+                if (item == null) {
+                    skipped++;
+                } else {
+                    //Items with a SKU update the item that has it, so importing a catalog again
+                    //doesn't duplicate them
+                    ContentProviderOperation.Builder insert = ContentProviderOperation.newInsert(ItemEntry.CONTENT_URI)
+                            .withValue(ItemEntry.COLUMN_ITEM_NAME, item.getName())
+                            .withValue(ItemEntry.COLUMN_ITEM_COST, item.getCost())
+                            .withValue(ItemEntry.COLUMN_ITEM_QUANTITY, item.getQuantity());
+                    if (item.getSku() != null) {
+                        insert.withValue(ItemEntry.COLUMN_ITEM_SKU, item.getSku());
+                    }
+                    operations.add(insert.build());
+                    imported++;
+                }
+
+                if (operations.size() == CHUNK_SIZE) {
+                    commitChunk(operations, importUri, reader.getPosition(), imported, skipped);
+                    mNotificationManager.notify(NOTIFICATION_ID,
+                            buildProgressNotification(imported, reader.getPosition(), size).build());
+                }
+            }
+            commitChunk(operations, importUri, reader.getPosition(), imported, skipped);
+
+            //Done, the progress row is no longer needed
+            resolver.delete(importUri, null, null);
+            showResult(getString(R.string.import_finished, imported, skipped));
+        } catch (IOException | SecurityException e) {
+            //The file can't be read, or is no longer readable, so the import can't ever finish
+            Log.e(LOG_TAG, "Import of " + source + " failed", e);
+            resolver.delete(importUri, null, null);
+            showResult(getString(R.string.import_failed, imported));
+        } catch (RemoteException | OperationApplicationException e) {
+            //The progress row is kept, so the import is tried again from its last chunk
+            Log.e(LOG_TAG, "Could not write chunk of " + source, e);
+            showResult(getString(R.string.import_interrupted, imported));
+        } finally {
+            if (reader != null) {
+                try {
+                    reader.close();
+                } catch (IOException e) {
+                    Log.w(LOG_TAG, "Could not close " + source, e);
+                }
+            }
+            stopForeground(true);
+        }
+    }
+
+    //Insert the chunk's items and record how far the import got, in one transaction
+    private void commitChunk(ArrayList<ContentProviderOperation> operations, Uri importUri,
+                             long offset, int imported, int skipped)
+            throws RemoteException, OperationApplicationException {
+        operations.add(ContentProviderOperation.newUpdate(importUri)
+                .withValue(ImportEntry.COLUMN_IMPORT_BYTE_OFFSET, offset)
+                .withValue(ImportEntry.COLUMN_IMPORT_ROWS_IMPORTED, imported)
+                .withValue(ImportEntry.COLUMN_IMPORT_ROWS_SKIPPED, skipped)
+                .build());
+        getContentResolver().applyBatch(ItemContract.CONTENT_AUTHORITY, operations);
+        operations.clear();
+    }
+
+    //Size of the file in bytes, or -1 if the provider doesn't know it
+    private long querySize(Uri source) {
+        Cursor cursor = null;
+        try {
+            cursor = getContentResolver().query(source, new String[]{OpenableColumns.SIZE}, null, null, null);
+            if (cursor != null && cursor.moveToFirst() && !cursor.isNull(0)) {
+                return cursor.getLong(0);
+            }
+        } catch (RuntimeException e) {
+            //Not every provider supports the query, the progress is then indeterminate
+            Log.w(LOG_TAG, "Could not query the size of " + source, e);
+        } finally {
+            if (cursor != null) {
+                cursor.close();
+            }
+        }
+        return -1;
+    }
+
+    private NotificationCompat.Builder buildProgressNotification(int imported, long offset, long size) {
+        NotificationCompat.Builder builder = new NotificationCompat.Builder(this)
+                .setSmallIcon(android.R.drawable.stat_sys_download)
+                .setContentTitle(getString(R.string.import_title))
+                .setContentText(getString(R.string.import_progress, imported))
+                .setOngoing(true);
+        if (size > 0) {
+            builder.setProgress(100, (int) Math.min(100, offset * 100 / size), false);
+        } else {
+            builder.setProgress(0, 0, true);
+        }
+        return builder;
+    }
+
+    private void showResult(String text) {
+        mNotificationManager.notify(RESULT_NOTIFICATION_ID, new NotificationCompat.Builder(this)
+                .setSmallIcon(android.R.drawable.stat_sys_download_done)
+                .setContentTitle(getString(R.string.import_title))
+                .setContentText(text)
+                .build());
+    }
+}
@@ -9,27 +9,58 @@ import android.content.Intent;
 import android.content.Loader;
 import android.database.Cursor;
 import android.net.Uri;
+import android.os.Build;
 import android.support.design.widget.FloatingActionButton;
+import android.support.v7.app.ActionBar;
 import android.support.v7.app.AlertDialog;
 import android.support.v7.app.AppCompatActivity;
+import android.support.v7.widget.SearchView;
+import android.support.v7.widget.LinearLayoutManager;
+import android.support.v7.widget.RecyclerView;
 import android.os.Bundle;
 import android.util.Log;
 import android.view.Menu;
 import android.view.MenuItem;
+import android.text.TextUtils;
 import android.view.View;
-import android.widget.AdapterView;
-import android.widget.ListView;
+import android.widget.EditText;
+import android.widget.Toast;
 
+import com.example.android.finalinventory.data.ItemContract;
 import com.example.android.finalinventory.data.ItemContract.ItemEntry;
+import com.example.android.finalinventory.data.ItemContract.TotalsEntry;
 
 public class InventoryActivity extends AppCompatActivity implements LoaderManager.LoaderCallbacks<Cursor> {
 
     //Identifier for the item data loader
     private static final int ITEM_LOADER = 0;
 
-    //Adapter for the ListView
+    //Identifier for the loader of the inventory totals shown in the app bar
+    private static final int TOTALS_LOADER = 1;
+
+    //Request code for picking a catalog to import
+    private static final int REQUEST_IMPORT_CATALOG = 1;
+
+    //Adapter for the RecyclerView
     ItemCursorAdapter mCursorAdapter;
 
+    //Keys of the sort order and filters in the saved instance state
+    private static final String STATE_SORT = "sort";
+    private static final String STATE_QUANTITY_BELOW = "quantity_below";
+    private static final String STATE_MIN_COST = "min_cost";
+    private static final String STATE_MAX_COST = "max_cost";
+
+    //Shown instead of the list while there are no items
+    private View mEmptyView;
+
+    //Sort order of the list, one of the ItemContract.SORT_ values
+    private String mSort = ItemContract.SORT_ID;
+
+    //Filters of the list, null when not set
+    private Integer mQuantityBelow;
+    private Float mMinCost;
+    private Float mMaxCost;
+
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
@@ -45,22 +76,18 @@ public class InventoryActivity extends AppCompatActivity implements LoaderManage
             }
         });
 
-        //Find the ListView that will be populated with the item data
-        ListView itemListView = (ListView) findViewById(R.id.list);
-
-        //Find and set empty view on the ListView, so that it only shows when the list has 0 items
-        View emptyView = findViewById(R.id.empty_view);
-        itemListView.setEmptyView(emptyView);
+        //Find the RecyclerView that will be populated with the item data
+        RecyclerView itemRecyclerView = (RecyclerView) findViewById(R.id.list);
+        itemRecyclerView.setLayoutManager(new LinearLayoutManager(this));
 
-        //Set up an adapter to create a list item for each row of item data in the Cursor
-        //There is no data yet (until the loader finishes) so pass in null for the Cursor
-        mCursorAdapter = new ItemCursorAdapter(this, null, getContentResolver());
-        itemListView.setAdapter(mCursorAdapter);
+        //Find the empty view, which is only shown when the list has 0 items
+        mEmptyView = findViewById(R.id.empty_view);
 
-        //Setup the item click listener
-        itemListView.setOnItemClickListener(new AdapterView.OnItemClickListener() {
+        //Set up an adapter to create a list item for each row of item data.
+        //There is no data yet (until the loader finishes), so it starts out empty
+        mCursorAdapter = new ItemCursorAdapter(this, getContentResolver(), new ItemCursorAdapter.OnItemClickListener() {
             @Override
-            public void onItemClick(AdapterView<?> parent, View view, int position, long id) {
+            public void onItemClick(long id) {
                 //Create new intent to go to {@link ItemEditor}
                 Intent intent = new Intent(InventoryActivity.this, ItemEditor.class);
 
@@ -76,9 +103,122 @@ public class InventoryActivity extends AppCompatActivity implements LoaderManage
                 startActivity(intent);
             }
         });
+        itemRecyclerView.setAdapter(mCursorAdapter);
+
+        //Keep the sort order and filters the user chose before the activity was recreated
+        if (savedInstanceState != null) {
+            mSort = savedInstanceState.getString(STATE_SORT, ItemContract.SORT_ID);
+            mQuantityBelow = (Integer) savedInstanceState.getSerializable(STATE_QUANTITY_BELOW);
+            mMinCost = (Float) savedInstanceState.getSerializable(STATE_MIN_COST);
+            mMaxCost = (Float) savedInstanceState.getSerializable(STATE_MAX_COST);
+        }
+        mCursorAdapter.setListUri(getListUri());
 
-        //Kick off loader
+        //Kick off loaders
         getLoaderManager().initLoader(ITEM_LOADER, null, this);
+        getLoaderManager().initLoader(TOTALS_LOADER, null, this);
+
+        //Finish any catalog import that was interrupted
+        if (savedInstanceState == null) {
+            CatalogImportService.resumeImports(this);
+        }
+    }
+
+    @Override
+    protected void onSaveInstanceState(Bundle outState) {
+        super.onSaveInstanceState(outState);
+        outState.putString(STATE_SORT, mSort);
+        outState.putSerializable(STATE_QUANTITY_BELOW, mQuantityBelow);
+        outState.putSerializable(STATE_MIN_COST, mMinCost);
+        outState.putSerializable(STATE_MAX_COST, mMaxCost);
+    }
+
+    //Content URI of the items in the chosen order with the chosen filters
+    private Uri getListUri() {
+        return ItemEntry.buildListUri(mSort, mQuantityBelow, mMinCost, mMaxCost);
+    }
+
+    //Show the list in its current order and filters, and count it again
+    private void reloadList() {
+        mCursorAdapter.setListUri(getListUri());
+        getLoaderManager().restartLoader(ITEM_LOADER, null, this);
+    }
+
+    //Let the user limit the list to a quantity below a number and a range of costs. Empty
+    //fields leave that filter out.
+    private void showFilterDialog() {
+        final View dialogView = getLayoutInflater().inflate(R.layout.dialog_filter, null);
+        final EditText quantityBelowEditText = (EditText) dialogView.findViewById(R.id.filter_quantity_below);
+        final EditText minCostEditText = (EditText) dialogView.findViewById(R.id.filter_min_cost);
+        final EditText maxCostEditText = (EditText) dialogView.findViewById(R.id.filter_max_cost);
+        if (mQuantityBelow != null) {
+            quantityBelowEditText.setText(String.valueOf(mQuantityBelow));
+        }
+        if (mMinCost != null) {
+            minCostEditText.setText(String.valueOf(mMinCost));
+        }
+        if (mMaxCost != null) {
+            maxCostEditText.setText(String.valueOf(mMaxCost));
+        }
+
+        AlertDialog.Builder builder = new AlertDialog.Builder(this);
+        builder.setTitle(R.string.filter_items);
+        builder.setView(dialogView);
+        builder.setPositiveButton(R.string.apply_filter, new DialogInterface.OnClickListener() {
+            public void onClick(DialogInterface dialog, int id) {
+                try {
+                    String quantityBelow = quantityBelowEditText.getText().toString().trim();
+                    String minCost = minCostEditText.getText().toString().trim();
+                    String maxCost = maxCostEditText.getText().toString().trim();
+                    mQuantityBelow = TextUtils.isEmpty(quantityBelow) ? null : Integer.valueOf(quantityBelow);
+                    mMinCost = TextUtils.isEmpty(minCost) ? null : Float.valueOf(minCost);
+                    mMaxCost = TextUtils.isEmpty(maxCost) ? null : Float.valueOf(maxCost);
+                } catch (NumberFormatException e) {
+                    Toast.makeText(InventoryActivity.this, R.string.filter_invalid, Toast.LENGTH_SHORT).show();
+                    return;
+                }
+                reloadList();
+            }
+        });
+        builder.setNeutralButton(R.string.clear_filter, new DialogInterface.OnClickListener() {
+            public void onClick(DialogInterface dialog, int id) {
+                mQuantityBelow = null;
+                mMinCost = null;
+                mMaxCost = null;
+                reloadList();
+            }
+        });
+        builder.setNegativeButton(R.string.cancel, null);
+        builder.create().show();
+    }
+
+    //Let the user pick a CSV file to import
+    private void pickCatalog() {
+        Intent intent;
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
+            //A document keeps its permission across restarts, so an interrupted import can resume
+            intent = new Intent(Intent.ACTION_OPEN_DOCUMENT);
+        } else {
+            intent = new Intent(Intent.ACTION_GET_CONTENT);
+        }
+        intent.addCategory(Intent.CATEGORY_OPENABLE);
+        intent.setType("text/*");
+        startActivityForResult(intent, REQUEST_IMPORT_CATALOG);
+    }
+
+    @Override
+    protected void onActivityResult(int requestCode, int resultCode, Intent data) {
+        super.onActivityResult(requestCode, resultCode, data);
+        if (requestCode != REQUEST_IMPORT_CATALOG || resultCode != RESULT_OK || data == null
+                || data.getData() == null) {
+            return;
+        }
+
+        Uri catalogUri = data.getData();
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
+            getContentResolver().takePersistableUriPermission(catalogUri, Intent.FLAG_GRANT_READ_URI_PERMISSION);
+        }
+        CatalogImportService.startImport(this, catalogUri);
     }
 
     //Helper Method to delete all items in the database
@@ -93,6 +233,38 @@ public class InventoryActivity extends AppCompatActivity implements LoaderManage
         //This adds menu items to the app bar.
         getMenuInflater().inflate(R.menu.menu_inventory, menu);
 
+        //Filter the list by name as the user types
+        SearchView searchView = (SearchView) menu.findItem(R.id.item_search).getActionView();
+        searchView.setQueryHint(getString(R.string.search_hint));
+        //Check the current sort order
+        switch (mSort) {
+            case ItemContract.SORT_NAME:
+                menu.findItem(R.id.item_sort_name).setChecked(true);
+                break;
+            case ItemContract.SORT_QUANTITY:
+                menu.findItem(R.id.item_sort_quantity).setChecked(true);
+                break;
+            case ItemContract.SORT_COST:
+                menu.findItem(R.id.item_sort_cost).setChecked(true);
+                break;
+            default:
+                menu.findItem(R.id.item_sort_added).setChecked(true);
+        }
+
+        searchView.setOnQueryTextListener(new SearchView.OnQueryTextListener() {
+            @Override
+            public boolean onQueryTextSubmit(String query) {
+                mCursorAdapter.setSearchText(query);
+                return true;
+            }
+
+            @Override
+            public boolean onQueryTextChange(String newText) {
+                mCursorAdapter.setSearchText(newText);
+                return true;
+            }
+        });
+
         return true;
     }
 
@@ -100,6 +272,34 @@ public class InventoryActivity extends AppCompatActivity implements LoaderManage
     public boolean onOptionsItemSelected(MenuItem item) {
         //User clicked on a menu option in the app bar overflow menu
         switch (item.getItemId()) {
+            //Respond to a click on one of the sort orders
+            case R.id.item_sort_added:
+            case R.id.item_sort_name:
+            case R.id.item_sort_quantity:
+            case R.id.item_sort_cost:
+                item.setChecked(true);
+                if (item.getItemId() == R.id.item_sort_name) {
+                    mSort = ItemContract.SORT_NAME;
+                } else if (item.getItemId() == R.id.item_sort_quantity) {
+                    mSort = ItemContract.SORT_QUANTITY;
+                } else if (item.getItemId() == R.id.item_sort_cost) {
+                    mSort = ItemContract.SORT_COST;
+                } else {
+                    mSort = ItemContract.SORT_ID;
+                }
+                reloadList();
+                return true;
+            //Respond to a click on the "Filter" menu option
+            case R.id.item_filter:
+                showFilterDialog();
+                return true;
+            //Respond to a click on the "Import Catalog" menu option
+            case R.id.item_import_catalog:
+                pickCatalog();
+                return true;
+            case R.id.item_sync:
+                SyncService.startSync(this);
+                return true;
             //Respond to a click on the "Delete all entries" menu option
             case R.id.item_delete_all_records:
                 showDeleteConfirmationDialog();
@@ -136,20 +336,28 @@ public class InventoryActivity extends AppCompatActivity implements LoaderManage
         alertDialog.show();
     }
 
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        //Stop watching for changes and drop the pages of item data held by the adapter
+        mCursorAdapter.close();
+    }
+
     @Override
     public Loader<Cursor> onCreateLoader(int i, Bundle bundle) {
-        //Define a projection that specifies the columns from the table we care about
-        String[] projection = {
-                ItemEntry._ID,
-                ItemEntry.COLUMN_ITEM_NAME,
-                ItemEntry.COLUMN_ITEM_COST,
-                ItemEntry.COLUMN_ITEM_QUANTITY,
-                ItemEntry.COLUMN_ITEM_IMAGE};
+        if (i == TOTALS_LOADER) {
+            //A single row the provider keeps up to date, reloaded whenever items change
+            return new CursorLoader(this, TotalsEntry.CONTENT_URI, null, null, null, null);
+        }
+
+        //Only count the items here, the adapter loads the rows themselves one page at a time
+        //as the list is scrolled. The count is reloaded when items are added or removed, and
+        //for a filtered list when they are updated. The adapter itself reloads updated rows.
 
         //This loader will execute the ContentProvider's query method on a background thread
         return new CursorLoader(this, //Parent activity context
-                ItemEntry.CONTENT_URI, //Provider content URI to query
-                projection,            //Columns to include in the resulting Cursor
+                ItemEntry.buildCountUri(getListUri()), //Provider content URI to query
+                null,                  //The count is the only column
                 null,                  //No selection clause
                 null,                  //No selection arguments
                 null);                 //Default sort order
@@ -157,13 +365,45 @@ public class InventoryActivity extends AppCompatActivity implements LoaderManage
 
     @Override
     public void onLoadFinished(Loader<Cursor> loader, Cursor data) {
-        //Update {@link ItemCursorAdapter} with this new cursor containing updated item data
-        mCursorAdapter.swapCursor(data);
+        if (loader.getId() == TOTALS_LOADER) {
+            showTotals(data);
+            return;
+        }
+
+        //Tell {@link ItemCursorAdapter} how many items there are now, which also makes it
+        //reload the pages it is displaying
+        int count = 0;
+        if (data != null && data.moveToFirst()) {
+            count = data.getInt(0);
+        }
+        mCursorAdapter.swapCount(count);
+        mEmptyView.setVisibility(count == 0 ? View.VISIBLE : View.GONE);
     }
 
     @Override
     public void onLoaderReset(Loader<Cursor> loader) {
+        if (loader.getId() == TOTALS_LOADER) {
+            showTotals(null);
+            return;
+        }
+
         //Callback called when the data needs to be deleted
-        mCursorAdapter.swapCursor(null);
+        mCursorAdapter.swapCount(0);
+    }
+
+    //Show the number of items, units and the stock value of the whole inventory in the app bar
+    private void showTotals(Cursor totals) {
+        ActionBar actionBar = getSupportActionBar();
+        if (actionBar == null) {
+            return;
+        }
+        if (totals == null || !totals.moveToFirst()) {
+            actionBar.setSubtitle(null);
+            return;
+        }
+        actionBar.setSubtitle(getString(R.string.inventory_totals,
+                totals.getInt(totals.getColumnIndexOrThrow(TotalsEntry.COLUMN_TOTALS_ITEM_COUNT)),
+                totals.getInt(totals.getColumnIndexOrThrow(TotalsEntry.COLUMN_TOTALS_UNITS)),
+                totals.getDouble(totals.getColumnIndexOrThrow(TotalsEntry.COLUMN_TOTALS_VALUE))));
     }
 }
\ No newline at end of file
@@ -0,0 +1,178 @@
+package com.example.android.finalinventory;
+
+import android.app.ActivityManager;
+import android.content.ComponentCallbacks2;
+import android.content.ContentUris;
+import android.content.Context;
+import android.content.res.Configuration;
+import android.database.ContentObserver;
+import android.graphics.Bitmap;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.support.v4.util.LruCache;
+
+import com.example.android.finalinventory.data.ItemContract;
+import com.example.android.finalinventory.data.ItemContract.ItemEntry;
+
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Set;
+
+/**
+ * Process wide cache of decoded item images, so rows that are rebound while scrolling don't
+ * decode the same image again. Entries are keyed by item _ID and only returned for the image
+ * reference they were decoded from, which changes whenever the item's image does.
+ */
+public class ItemBitmapCache implements ComponentCallbacks2 {
+
+    //Fraction of the app's memory class the cache may use
+    private static final int MEMORY_CLASS_DIVISOR = 8;
+
+    private static ItemBitmapCache sInstance;
+
+    //Cached images by item _ID, sized in kilobytes
+    private final LruCache<Long, Entry> mCache;
+
+    //The cached bitmaps themselves, to answer contains() without walking the cache
+    private final Set<Bitmap> mBitmaps = Collections.newSetFromMap(new IdentityHashMap<Bitmap, Boolean>());
+
+    //Told about images leaving the cache, so they can be reused if nothing displays them
+    private OnBitmapRemovedListener mRemovedListener;
+
+    //Set while trimming, when removed images should be freed rather than reused
+    private boolean mTrimming;
+
+    //Callback for images that are removed from the cache
+    public interface OnBitmapRemovedListener {
+        void onBitmapRemoved(Bitmap bitmap);
+    }
+
+    //Returns the cache shared by the whole app
+    public static synchronized ItemBitmapCache getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new ItemBitmapCache(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    private ItemBitmapCache(Context context) {
+        ActivityManager activityManager = (ActivityManager) context.getSystemService(Context.ACTIVITY_SERVICE);
+        int maxKilobytes = activityManager.getMemoryClass() * 1024 / MEMORY_CLASS_DIVISOR;
+
+        mCache = new LruCache<Long, Entry>(maxKilobytes) {
+            @Override
+            protected int sizeOf(Long id, Entry entry) {
+                return Math.max(1, entry.mBitmap.getByteCount() / 1024);
+            }
+
+            @Override
+            protected void entryRemoved(boolean evicted, Long id, Entry oldEntry, Entry newEntry) {
+                boolean replacedByItself = newEntry != null && newEntry.mBitmap == oldEntry.mBitmap;
+                if (!replacedByItself) {
+                    mBitmaps.remove(oldEntry.mBitmap);
+                }
+                if (mRemovedListener != null && !mTrimming && !replacedByItself) {
+                    mRemovedListener.onBitmapRemoved(oldEntry.mBitmap);
+                }
+            }
+        };
+
+        //Give memory back when the system asks for it
+        context.registerComponentCallbacks(this);
+
+        //Drop an item's image as soon as the provider reports that the item changed
+        ContentObserver observer = new ContentObserver(new Handler(Looper.getMainLooper())) {
+            @Override
+            public void onChange(boolean selfChange) {
+                onChange(selfChange, null);
+            }
+
+            @Override
+            public void onChange(boolean selfChange, Uri uri) {
+                invalidate(uri);
+            }
+        };
+        context.getContentResolver().registerContentObserver(ItemEntry.CONTENT_URI, true, observer);
+    }
+
+    //Returns the cached image of the item, or null if it isn't cached for this image reference
+    public Bitmap get(long id, String reference) {
+        Entry entry = mCache.get(id);
+        if (entry == null) {
+            return null;
+        }
+        if (!entry.mReference.equals(reference)) {
+            //The item has a different image now
+            mCache.remove(id);
+            return null;
+        }
+        return entry.mBitmap;
+    }
+
+    //Cache the image decoded from the given reference for the item
+    public void put(long id, String reference, Bitmap bitmap) {
+        mBitmaps.add(bitmap);
+        mCache.put(id, new Entry(reference, bitmap));
+    }
+
+    //Returns whether the bitmap is one of the cached images
+    public boolean contains(Bitmap bitmap) {
+        return mBitmaps.contains(bitmap);
+    }
+
+    //Set the listener told about images that leave the cache, other than when memory is trimmed
+    public void setOnBitmapRemovedListener(OnBitmapRemovedListener listener) {
+        mRemovedListener = listener;
+    }
+
+    //Called with the URI the provider notified. A single item URI drops that item. Changes to the
+    //whole table can't be pinned to an item, those entries are caught by the reference check in get()
+    private void invalidate(Uri uri) {
+        if (uri == null || uri.getPathSegments().size() != 2
+                || !ItemContract.PATH_ITEMS.equals(uri.getPathSegments().get(0))) {
+            return;
+        }
+        try {
+            mCache.remove(ContentUris.parseId(uri));
+        } catch (NumberFormatException e) {
+            //Not a single item URI
+        }
+    }
+
+    @Override
+    public void onTrimMemory(int level) {
+        mTrimming = true;
+        if (level >= TRIM_MEMORY_MODERATE) {
+            //The app is in the background and likely to be killed, give everything back
+            mCache.evictAll();
+        } else if (level >= TRIM_MEMORY_RUNNING_LOW) {
+            //The device is short on memory or the list isn't visible anymore, keep the most recent half
+            mCache.trimToSize(mCache.maxSize() / 2);
+        }
+        mTrimming = false;
+    }
+
+    @Override
+    public void onLowMemory() {
+        mTrimming = true;
+        mCache.evictAll();
+        mTrimming = false;
+    }
+
+    @Override
+    public void onConfigurationChanged(Configuration newConfig) {
+        //Cached images don't depend on the configuration
+    }
+
+    //An image together with the reference it was decoded from
+    private static final class Entry {
+        final String mReference;
+        final Bitmap mBitmap;
+
+        Entry(String reference, Bitmap bitmap) {
+            mReference = reference;
+            mBitmap = bitmap;
+        }
+    }
+}
@@ -1,125 +1,758 @@
 package com.example.android.finalinventory;
 
 import android.content.ContentResolver;
-import android.content.ContentValues;
+import android.content.ContentUris;
 import android.content.Context;
+import android.database.ContentObserver;
 import android.database.Cursor;
-import android.database.sqlite.SQLiteDatabase;
+import android.net.Uri;
+import android.os.AsyncTask;
+import android.os.Handler;
+import android.os.Looper;
+import android.support.v4.os.TraceCompat;
+import android.support.v7.util.DiffUtil;
+import android.support.v7.util.ListUpdateCallback;
+import android.support.v7.widget.RecyclerView;
+import android.text.TextUtils;
+import android.util.SparseArray;
+import android.util.SparseIntArray;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
 import android.widget.Button;
-import android.widget.CursorAdapter;
 import android.widget.ImageView;
 import android.widget.TextView;
 
-import com.example.android.finalinventory.data.DbBitmapUtility;
+import com.example.android.finalinventory.data.ItemContract;
 import com.example.android.finalinventory.data.ItemContract.ItemEntry;
-import com.example.android.finalinventory.data.ItemDbHelper;
+import com.example.android.finalinventory.data.ItemMapper;
+import com.example.android.finalinventory.data.ItemRepository;
 
 /**
- * An adapter for a list or grid view
- * Uses a Cursor of item data as its data source
+ * An adapter for the RecyclerView of items
+ * Loads item data from the ItemProvider one page at a time in the background as the list
+ * is scrolled, and drops pages that are far away from what is on screen. When an item is
+ * updated only the page holding it is reloaded, and a reloaded page is compared with the rows
+ * displayed before in the background, so only the rows that changed are rebound.
  */
-public class ItemCursorAdapter extends CursorAdapter {
+public class ItemCursorAdapter extends RecyclerView.Adapter<ItemCursorAdapter.ViewHolder> {
 
-    //This will be used to get a database
-    ItemDbHelper mDbHelper;
+    //Number of rows requested from the ItemProvider for each page
+    private static final int PAGE_SIZE = 50;
 
-    //This button will be used to sell individual items from
-    //the list view
-    Button sellButton;
+    //Pages further than this from the page being displayed are dropped to free their memory
+    private static final int PAGES_KEPT_AROUND_VISIBLE = 2;
+
+    //The next page is requested when a row this close to the end of a page is displayed
+    private static final int PREFETCH_DISTANCE = 10;
+
+    //Columns of the items table that are needed to bind a list item. Rows show the thumbnail,
+    //which the sort indexes hold, never the full image.
+    private static final String[] PROJECTION = {
+            ItemEntry._ID,
+            ItemEntry.COLUMN_ITEM_NAME,
+            ItemEntry.COLUMN_ITEM_COST,
+            ItemEntry.COLUMN_ITEM_QUANTITY,
+            ItemEntry.COLUMN_ITEM_THUMBNAIL};
+
+    //Called when a loaded row is clicked
+    public interface OnItemClickListener {
+        void onItemClick(long id);
+    }
 
     //Used when constructing an ItemCursorAdapter
     ContentResolver mContentResolver;
 
+    //Runs the writes made by the Sell buttons off the main thread
+    private final ItemRepository mRepository;
+
+    //Context used to inflate list items
+    private final Context mContext;
+
+    //Decodes item images in the background and caches them, so rows rebound while scrolling
+    //don't decode them again
+    private final ItemImageLoader mImageLoader;
+
+    private final OnItemClickListener mOnItemClickListener;
+
+    //Number of rows in the list: the items in the table, or the search results while searching
+    private int mCount;
+
+    //Number of items in the list, as reported by the count loader
+    private int mTableCount;
+
+    //Text the list is filtered by, or null to show every item. Search results are ranked, and
+    //read a page at a time by row offset, with their number read from the provider separately.
+    private String mSearchText;
+
+    //Number of the latest request for the number of search results. Older results are ignored.
+    private int mSearchCountRequest;
+
+    //Loaded pages of item data, keyed by page number
+    private final SparseArray<Page> mPages = new SparseArray<>();
+
+    //Generation each loaded page was loaded in. Pages from an older generation are still
+    //displayed, but are reloaded the next time they are needed
+    private final SparseIntArray mPageGenerations = new SparseIntArray();
+
+    //Pages that are currently being loaded in the background, with the number of their latest
+    //request. A page load that isn't the latest request for its page is ignored.
+    private final SparseIntArray mPendingPages = new SparseIntArray();
+
+    //Number of the latest page request
+    private int mRequestCount;
+
+    //Last _ID of each loaded page, used to request the page after it by keyset
+    private final SparseArray<Long> mPageEndIds = new SparseArray<>();
+
+    //Sort key of the last row of each loaded page, needed with its _ID unless sorted by _ID
+    private final SparseArray<String> mPageEndValues = new SparseArray<>();
+
+    //Content URI of the items in the chosen order and filters, see ItemEntry.buildListUri()
+    private Uri mListUri = ItemEntry.CONTENT_URI;
+    private String mSort = ItemContract.SORT_ID;
+
+    //Incremented whenever the number of items changes, or an update may have moved rows between
+    //pages, which makes every page out of date
+    private int mGeneration;
+
+    //Reloads the page of an item when the provider reports that the item was updated, or every
+    //page of a sorted or filtered list. Inserts and deletes change the count, which arrives
+    //through swapCount().
+    private final ContentObserver mItemObserver = new ContentObserver(new Handler(Looper.getMainLooper())) {
+        @Override
+        public void onChange(boolean selfChange) {
+            onChange(selfChange, null);
+        }
+
+        @Override
+        public void onChange(boolean selfChange, Uri uri) {
+            onItemChanged(uri);
+        }
+    };
+
     //Constructs a new ItemCursorAdapter
-    public ItemCursorAdapter(Context context, Cursor c, ContentResolver contentResolver) {
-        super(context, c, 0);
+    public ItemCursorAdapter(Context context, ContentResolver contentResolver, OnItemClickListener listener) {
+        mContext = context;
         mContentResolver = contentResolver;
+        mOnItemClickListener = listener;
+        mImageLoader = ItemImageLoader.getInstance(context);
+        mRepository = ItemRepository.getInstance(context);
+        mContentResolver.registerContentObserver(ItemEntry.CONTENT_URI, true, mItemObserver);
+    }
+
+    //Called with the number of rows in the items table whenever the table changes.
+    //Pages that are already loaded keep being displayed until their reloads arrive, and are
+    //then compared with what they showed before.
+    public void swapCount(int count) {
+        mTableCount = count;
+
+        //Items that were added or removed may change the search results
+        if (mSearchText != null) {
+            reloadSearch();
+            return;
+        }
+
+        boolean countChanged = count != mCount;
+        mCount = count;
+
+        //With no rows left there is nothing worth displaying
+        if (count == 0) {
+            closePages();
+        }
+
+        //Rows may have moved between pages, so every position has to be bound again. Otherwise
+        //the rows stay where they are and the page reloads tell which of them changed.
+        if (countChanged) {
+            notifyDataSetChanged();
+        }
+        reloadPages();
+    }
+
+    //Make every loaded page out of date and reload them. They keep being displayed until their
+    //reloads arrive, and are then compared with what they showed before.
+    private void reloadPages() {
+        mGeneration++;
+        mPendingPages.clear();
+        mPageEndIds.clear();
+        mPageEndValues.clear();
+        for (int i = 0; i < mPages.size(); i++) {
+            loadPage(mPages.keyAt(i));
+        }
+    }
+
+    //Show only the items whose names match the text, or every item again if it is empty.
+    //What is displayed stays until the results have been loaded.
+    public void setSearchText(String text) {
+        if (TextUtils.isEmpty(text)) {
+            text = null;
+        }
+        if (TextUtils.equals(text, mSearchText)) {
+            return;
+        }
+        mSearchText = text;
+        mGeneration++;
+        mPendingPages.clear();
+        mPageEndIds.clear();
+        mPageEndValues.clear();
+
+        if (text != null) {
+            //The first page stays until its results arrive, the rest are loaded as they are shown
+            for (int i = mPages.size() - 1; i >= 0; i--) {
+                if (mPages.keyAt(i) != 0) {
+                    mPages.removeAt(i);
+                }
+            }
+            requestPage(0);
+            requestSearchCount();
+        } else {
+            //Back to the list, read again from the start
+            mSearchCountRequest++;
+            closePages();
+            mCount = mTableCount;
+            notifyDataSetChanged();
+        }
+    }
+
+    //Show the items of a list URI built with ItemEntry.buildListUri(), or of the whole table
+    //for ItemEntry.CONTENT_URI. The count of the new list arrives through swapCount().
+    public void setListUri(Uri listUri) {
+        mListUri = listUri;
+        mSort = listUri.getQueryParameter(ItemContract.QUERY_PARAMETER_SORT);
+        if (mSort == null) {
+            mSort = ItemContract.SORT_ID;
+        }
+
+        //Search results keep their own order, the list is read again once the search is closed
+        if (mSearchText != null) {
+            return;
+        }
+        mGeneration++;
+        mPendingPages.clear();
+        mPageEndIds.clear();
+        mPageEndValues.clear();
+        closePages();
+        notifyDataSetChanged();
+    }
+
+    //Stop watching the items and drop every loaded page, called when the list goes away
+    public void close() {
+        mContentResolver.unregisterContentObserver(mItemObserver);
+        closePages();
+    }
+
+    //Drop every loaded page
+    private void closePages() {
+        mPages.clear();
+        mPageGenerations.clear();
+    }
+
+    //Called with the URI the provider notified. Only updates of single items are handled here,
+    //every other change reaches swapCount() through the count.
+    private void onItemChanged(Uri uri) {
+        if (uri == null) {
+            //Older platforms don't say what changed, so reload everything that is displayed
+            for (int i = 0; i < mPages.size(); i++) {
+                requestPage(mPages.keyAt(i));
+            }
+            if (mSearchText != null) {
+                requestSearchCount();
+            }
+            return;
+        }
+        if (!ItemContract.CHANGE_UPDATE.equals(ItemContract.getChange(uri))
+                || uri.getPathSegments().size() != 2) {
+            return;
+        }
+
+        //A renamed item may have moved within the search results, or into or out of them
+        if (mSearchText != null) {
+            reloadSearch();
+            return;
+        }
+
+        //In a sorted or filtered list the update may have moved the item to another page, or
+        //into or out of the list, so every page may have changed. A filtered list also gets
+        //its new count through swapCount().
+        if (!ItemContract.SORT_ID.equals(mSort) || ItemEntry.isFiltered(mListUri)) {
+            reloadPages();
+            return;
+        }
+
+        long id;
+        try {
+            id = ContentUris.parseId(uri);
+        } catch (NumberFormatException e) {
+            return;
+        }
+
+        for (int i = 0; i < mPages.size(); i++) {
+            if (mPages.valueAt(i).indexOf(id) >= 0) {
+                requestPage(mPages.keyAt(i));
+                return;
+            }
+        }
+    }
+
+    @Override
+    public int getItemCount() {
+        return mCount;
+    }
+
+    //Returns the _ID of the given row, or -1 if its page isn't loaded yet
+    @Override
+    public long getItemId(int position) {
+        Page page = mPages.get(position / PAGE_SIZE);
+        if (page == null || position % PAGE_SIZE >= page.size()) {
+            return RecyclerView.NO_ID;
+        }
+        return page.mIds[position % PAGE_SIZE];
     }
 
-    //Makes a new blank list item view. No data is set (or bound) to the views yet
     @Override
-    public View newView(Context context, Cursor cursor, ViewGroup parent) {
+    public ViewHolder onCreateViewHolder(ViewGroup parent, int viewType) {
         //Inflate a list item view using the layout specified in list_item.xml
-        return LayoutInflater.from(context).inflate(R.layout.list_item, parent, false);
+        View view = LayoutInflater.from(mContext).inflate(R.layout.list_item, parent, false);
+        return new ViewHolder(view);
+    }
+
+    @Override
+    public void onBindViewHolder(ViewHolder holder, int position) {
+        //Shows up in systrace next to the provider's sections, to tell binding apart from loading
+        TraceCompat.beginSection("ItemCursorAdapter.bindView");
+        try {
+            int pageNumber = position / PAGE_SIZE;
+            closeDistantPages(pageNumber);
+            loadPage(pageNumber);
+
+            //Start loading the next page before the user reaches it
+            if (position % PAGE_SIZE >= PAGE_SIZE - PREFETCH_DISTANCE && (pageNumber + 1) * PAGE_SIZE < mCount) {
+                loadPage(pageNumber + 1);
+            }
+
+            Page page = mPages.get(pageNumber);
+            if (page == null || position % PAGE_SIZE >= page.size()) {
+                holder.bindPlaceholder();
+            } else {
+                holder.bind(page, position % PAGE_SIZE);
+            }
+        } finally {
+            TraceCompat.endSection();
+        }
     }
 
-    //This method binds the item data (in the current row pointed to by cursor) to the given
-    //list item layout. For example, the name for the current item can be set on the name TextView
-    //in the list item layout.
     @Override
-    public void bindView(View view, final Context context, final Cursor cursor) {
-
-        //Find the individual views that we want to modify in the list item layout
-        ImageView imageImageView = (ImageView) view.findViewById(R.id.list_image);
-        TextView nameTextView = (TextView) view.findViewById(R.id.list_name);
-        TextView priceTextView = (TextView) view.findViewById(R.id.list_price);
-        final TextView quantityTextView = (TextView) view.findViewById(R.id.list_quantity);
-        sellButton = (Button) view.findViewById(R.id.list_item_sell_button);
-
-        //Find the columns of item attributes that we're interested in
-        String name = cursor.getString(cursor.getColumnIndex(ItemEntry.COLUMN_ITEM_NAME));
-        String price = cursor.getString(cursor.getColumnIndex(ItemEntry.COLUMN_ITEM_COST));
-        String quantity = cursor.getString(cursor.getColumnIndex(ItemEntry.COLUMN_ITEM_QUANTITY));
-        quantityTextView.setTag(cursor.getString(cursor.getColumnIndex(ItemEntry._ID)));
-        byte[] image = cursor.getBlob(cursor.getColumnIndex(ItemEntry.COLUMN_ITEM_IMAGE));
-
-        //Update the TextViews with the attributes for the current item
-        nameTextView.setText(name);
-        priceTextView.setText("$" + price);
-        quantityTextView.setText(quantity);
-
-        //If no image has been provided, set the imageImageView to View.INVISIBLE so that
-        //an error is not thrown
-        if (image == null) {
-            imageImageView.setVisibility(View.INVISIBLE);
+    public void onViewRecycled(ViewHolder holder) {
+        //Stop decoding an image for a row that is no longer shown
+        mImageLoader.cancel(holder.mImageView);
+    }
+
+    //Start loading a page in the background unless it is already loaded for the current
+    //generation or already on its way
+    private void loadPage(int page) {
+        boolean loaded = mPages.get(page) != null && mPageGenerations.get(page) == mGeneration;
+        if (loaded || mPendingPages.indexOfKey(page) >= 0) {
+            return;
+        }
+        requestPage(page);
+    }
+
+    //Load a page in the background, replacing any load of it that is already running
+    private void requestPage(int page) {
+        int request = ++mRequestCount;
+        mPendingPages.put(page, request);
+
+        //Page 0 starts after _ID 0. Other pages start after the end of the previous page if it
+        //has been loaded, otherwise fall back to a row offset
+        //When sorted by anything else, the keyset also needs the sort key of that row
+        boolean sortedById = ItemContract.SORT_ID.equals(mSort);
+        Long afterId = page == 0 && sortedById ? Long.valueOf(0) : mPageEndIds.get(page - 1);
+        String afterValue = sortedById ? null : mPageEndValues.get(page - 1);
+        Uri pageUri;
+        if (mSearchText != null) {
+            //Results are ranked by expressions no index holds, so they are paged by offset
+            pageUri = ItemEntry.buildSearchPageUri(mSearchText, page * PAGE_SIZE, PAGE_SIZE);
+        } else if (afterId != null && (sortedById || afterValue != null)) {
+            pageUri = ItemEntry.buildPageUri(mListUri, afterValue, afterId, PAGE_SIZE);
+        } else {
+            pageUri = ItemEntry.buildOffsetPageUri(mListUri, page * PAGE_SIZE, PAGE_SIZE);
+        }
+
+        new PageLoadTask(page, request, pageUri, mPages.get(page)).execute();
+    }
+
+    //Called on the main thread once a page has been read. diff compares it to previous, the
+    //page that was displayed when the load started, and is null if there was none.
+    private void onPageLoaded(int pageNumber, int request, Page page, Page previous, DiffUtil.DiffResult diff) {
+        //The data changed while this page was loading, a newer load will replace it
+        if (mPendingPages.get(pageNumber, -1) != request) {
+            return;
+        }
+        mPendingPages.delete(pageNumber);
+        if (page == null) {
+            return;
+        }
+
+        Page displayed = mPages.get(pageNumber);
+        mPages.put(pageNumber, page);
+        mPageGenerations.put(pageNumber, mGeneration);
+
+        //Remember where this page ends so the next page can be requested by keyset
+        if (page.size() > 0) {
+            mPageEndIds.put(pageNumber, page.mIds[page.size() - 1]);
+            mPageEndValues.put(pageNumber, page.getSortValue(page.size() - 1, mSort));
+        }
+
+        int start = pageNumber * PAGE_SIZE;
+        if (diff != null && displayed == previous && page.size() == previous.size()) {
+            //Only rebind the rows that changed. The page has as many rows as before, so the
+            //changes can't move rows of the pages around it.
+            diff.dispatchUpdatesTo(new PageUpdateCallback(start));
         } else {
-            //Use getImage() method from DbBitmapUtility to return a Bitmap
-            //image from a byte[]
-            imageImageView.setImageBitmap(DbBitmapUtility.getImage(image));
+            int size = Math.min(Math.max(page.size(), displayed == null ? 0 : displayed.size()), mCount - start);
+            if (size > 0) {
+                notifyItemRangeChanged(start, size);
+            }
         }
+    }
 
-        //Thrown when the Sell button is clicked
-        sellButton.setOnClickListener(new View.OnClickListener() {
-            @Override
-            public void onClick(View view) {
+    //Reload every loaded page of search results and their number
+    private void reloadSearch() {
+        reloadPages();
+        requestSearchCount();
+    }
 
-                //Get the Tag location so that we know which position we are at in the ListView
-                long rowId = Long.valueOf(quantityTextView.getTag().toString());
-                String filter = "_ID=" + rowId;
+    //Read the number of search results in the background
+    private void requestSearchCount() {
+        new SearchCountTask(++mSearchCountRequest, ItemEntry.buildSearchCountUri(mSearchText)).execute();
+    }
 
-                //Set a variable initialQuantity to reflect the current ITEM_COLUMN_QUANTITY
-                //In that row of the database
-                int initialQuantity = Integer.valueOf(quantityTextView.getText().toString());
-                if (initialQuantity > 0) {
-                    //Only if the quantity is greater than 0 so that we do not insert
-                    //negative values into the database
+    //Called on the main thread with the number of search results, or -1 if it couldn't be read
+    private void onSearchCountLoaded(int request, int count) {
+        if (request != mSearchCountRequest || count == -1 || count == mCount) {
+            return;
+        }
+        mCount = count;
+        notifyDataSetChanged();
+    }
 
-                    //Create a ItemDbHelper mDbHelper in order to get a writable database
-                    mDbHelper = new ItemDbHelper(context);
-                    SQLiteDatabase db = mDbHelper.getWritableDatabase();
+    //Drop the pages that are too far from the page being displayed
+    private void closeDistantPages(int visiblePage) {
+        for (int i = mPages.size() - 1; i >= 0; i--) {
+            int page = mPages.keyAt(i);
+            if (Math.abs(page - visiblePage) > PAGES_KEPT_AROUND_VISIBLE) {
+                mPages.removeAt(i);
+                mPageGenerations.delete(page);
+            }
+        }
+    }
 
-                    //Determines the quantity, decrements by 1
-                    int updatedQuantity = initialQuantity - 1;
+    /**
+     * The rows of one page, copied out of the Cursor so the Cursor can be closed right after it
+     * is read, and so the page can be compared with another one on a background thread.
+     * A page never changes after it has been read.
+     */
+    static class Page {
+        final long[] mIds;
+        final String[] mNames;
+        final double[] mCosts;
+        final int[] mQuantities;
+        final String[] mImages;
 
-                    //New ContentValues object values for updating the database
-                    ContentValues values = new ContentValues();
+        //Copy every row of the cursor, looking its columns up once
+        Page(Cursor cursor) {
+            int count = cursor.getCount();
+            mIds = new long[count];
+            mNames = new String[count];
+            mCosts = new double[count];
+            mQuantities = new int[count];
+            mImages = new String[count];
 
-                    //Key, value pair being inserted into the database
-                    values.put(ItemEntry.COLUMN_ITEM_QUANTITY, updatedQuantity);
-                    db.update(ItemEntry.TABLE_NAME, values, filter, null);
+            ItemMapper mapper = new ItemMapper(cursor);
+            cursor.moveToPosition(-1);
+            for (int i = 0; cursor.moveToNext(); i++) {
+                mIds[i] = mapper.getId(cursor);
+                mNames[i] = mapper.getName(cursor);
+                mCosts[i] = mapper.getCost(cursor);
+                mQuantities[i] = mapper.getQuantity(cursor);
+                mImages[i] = mapper.getThumbnail(cursor);
+            }
+        }
+
+        int size() {
+            return mIds.length;
+        }
 
-                    //After the database is updated, update the quantityTextView
-                    //to reflect the changes
-                    quantityTextView.setText(String.valueOf(updatedQuantity));
+        //Sort key of row i, as the provider compares it for the given sort
+        String getSortValue(int i, String sort) {
+            if (ItemContract.SORT_NAME.equals(sort)) {
+                return mNames[i];
+            } else if (ItemContract.SORT_QUANTITY.equals(sort)) {
+                return String.valueOf(mQuantities[i]);
+            } else if (ItemContract.SORT_COST.equals(sort)) {
+                //The cost as stored, a rounded one could skip or repeat rows at the page break
+                return String.valueOf(mCosts[i]);
+            }
+            return String.valueOf(mIds[i]);
+        }
 
-                    //Don't forget to close the database
-                    db.close();
+        //Row of the item with the given _ID, or -1 if the page doesn't hold it
+        int indexOf(long id) {
+            for (int i = 0; i < mIds.length; i++) {
+                if (mIds[i] == id) {
+                    return i;
                 }
             }
-        });
+            return -1;
+        }
+
+        //Whether row i of this page shows the same as row j of other
+        boolean sameContents(int i, Page other, int j) {
+            return mQuantities[i] == other.mQuantities[j]
+                    && TextUtils.equals(mNames[i], other.mNames[j])
+                    && mCosts[i] == other.mCosts[j]
+                    && TextUtils.equals(mImages[i], other.mImages[j]);
+        }
     }
 
-}
\ No newline at end of file
+    //Compares the rows of a page before and after a reload
+    private static class PageDiffCallback extends DiffUtil.Callback {
+
+        private final Page mOldPage;
+        private final Page mNewPage;
+
+        PageDiffCallback(Page oldPage, Page newPage) {
+            mOldPage = oldPage;
+            mNewPage = newPage;
+        }
+
+        @Override
+        public int getOldListSize() {
+            return mOldPage.size();
+        }
+
+        @Override
+        public int getNewListSize() {
+            return mNewPage.size();
+        }
+
+        @Override
+        public boolean areItemsTheSame(int oldItemPosition, int newItemPosition) {
+            return mOldPage.mIds[oldItemPosition] == mNewPage.mIds[newItemPosition];
+        }
+
+        @Override
+        public boolean areContentsTheSame(int oldItemPosition, int newItemPosition) {
+            return mOldPage.sameContents(oldItemPosition, mNewPage, newItemPosition);
+        }
+    }
+
+    //Passes the changes within a page on to the adapter, at the page's position in the list
+    private class PageUpdateCallback implements ListUpdateCallback {
+
+        private final int mStart;
+
+        PageUpdateCallback(int start) {
+            mStart = start;
+        }
+
+        @Override
+        public void onInserted(int position, int count) {
+            notifyItemRangeInserted(mStart + position, count);
+        }
+
+        @Override
+        public void onRemoved(int position, int count) {
+            notifyItemRangeRemoved(mStart + position, count);
+        }
+
+        @Override
+        public void onMoved(int fromPosition, int toPosition) {
+            notifyItemMoved(mStart + fromPosition, mStart + toPosition);
+        }
+
+        @Override
+        public void onChanged(int position, int count, Object payload) {
+            notifyItemRangeChanged(mStart + position, count, payload);
+        }
+    }
+
+    //Holds the views of one list item, so they are only looked up when the item is created
+    class ViewHolder extends RecyclerView.ViewHolder implements View.OnClickListener {
+
+        final ImageView mImageView;
+        final TextView mNameTextView;
+        final TextView mPriceTextView;
+        final TextView mQuantityTextView;
+        final Button mSellButton;
+
+        //_ID of the item this row shows, or -1 while its page is loading
+        long mItemId = -1;
+
+        //Quantity of the item as last read or written, without the sales still being written
+        int mQuantity;
+
+        ViewHolder(View view) {
+            super(view);
+            mImageView = (ImageView) view.findViewById(R.id.list_image);
+            mNameTextView = (TextView) view.findViewById(R.id.list_name);
+            mPriceTextView = (TextView) view.findViewById(R.id.list_price);
+            mQuantityTextView = (TextView) view.findViewById(R.id.list_quantity);
+            mSellButton = (Button) view.findViewById(R.id.list_item_sell_button);
+
+            view.setOnClickListener(this);
+            mSellButton.setOnClickListener(this);
+        }
+
+        //Clears a list item whose page is still loading
+        void bindPlaceholder() {
+            mItemId = -1;
+            mImageLoader.cancel(mImageView);
+            mImageView.setVisibility(View.INVISIBLE);
+            mNameTextView.setText("");
+            mPriceTextView.setText("");
+            mQuantityTextView.setText("");
+            mSellButton.setEnabled(false);
+        }
+
+        //This method binds the item data in row i of the page to the list item layout
+        void bind(Page page, int i) {
+            mItemId = page.mIds[i];
+            mSellButton.setEnabled(true);
+
+            //Update the TextViews with the attributes for the current item
+            mNameTextView.setText(page.mNames[i]);
+            mPriceTextView.setText(mContext.getString(R.string.list_item_price, page.mCosts[i]));
+            mQuantity = page.mQuantities[i];
+            showQuantity();
+
+            //If no image has been provided, set the image view to View.INVISIBLE so that
+            //an error is not thrown
+            String image = page.mImages[i];
+            if (image == null) {
+                mImageLoader.cancel(mImageView);
+                mImageView.setVisibility(View.INVISIBLE);
+            } else {
+                //Decode the image in the background, or use the cached Bitmap if it was decoded before.
+                //A decode still running for the item this row showed before is cancelled.
+                mImageView.setVisibility(View.VISIBLE);
+                mImageLoader.load(mItemId, image, mImageView);
+            }
+        }
+
+        @Override
+        public void onClick(View view) {
+            //The row may have been cleared while its page loads
+            if (mItemId == -1) {
+                return;
+            }
+
+            if (view != mSellButton) {
+                mOnItemClickListener.onItemClick(mItemId);
+                return;
+            }
+
+            //Decrement the quantity by 1 in the background, through the provider which
+            //refuses to take it below 0 so that we do not insert negative values. Quick taps
+            //are written together, and the row shows the sale right away.
+            mRepository.adjustQuantity(mItemId, -1, new ItemRepository.QuantityCallback() {
+                @Override
+                public void onQuantityAdjusted(long id, boolean adjusted, int quantity) {
+                    //After the database is updated, show the quantity it holds with any sales
+                    //still being written, unless the row shows another item by now. The reload
+                    //of its page will find this row changed and rebind it too.
+                    if (quantity >= 0 && id == mItemId) {
+                        mQuantity = quantity;
+                        showQuantity();
+                    }
+                }
+            });
+            showQuantity();
+        }
+
+        //Show the quantity with the changes that haven't been written yet, as it will be once
+        //they are. The provider never takes it below 0.
+        private void showQuantity() {
+            int quantity = Math.max(0, mQuantity + mRepository.getUnconfirmedDelta(mItemId));
+            mQuantityTextView.setText(String.valueOf(quantity));
+        }
+    }
+
+    //Reads one page of items on a background thread, and compares it to the page it replaces
+    private class PageLoadTask extends AsyncTask<Void, Void, Page> {
+
+        private final int mPage;
+        private final int mRequest;
+        private final Uri mPageUri;
+
+        //The page displayed when the load started, or null
+        private final Page mPrevious;
+        private DiffUtil.DiffResult mDiff;
+
+        PageLoadTask(int page, int request, Uri pageUri, Page previous) {
+            mPage = page;
+            mRequest = request;
+            mPageUri = pageUri;
+            mPrevious = previous;
+        }
+
+        @Override
+        protected Page doInBackground(Void... params) {
+            Cursor cursor = mContentResolver.query(mPageUri, PROJECTION, null, null, null);
+            if (cursor == null) {
+                return null;
+            }
+
+            Page page;
+            try {
+                page = new Page(cursor);
+            } finally {
+                cursor.close();
+            }
+
+            //Moves aren't looked for: pages of the table keep their _ID order, and search results
+            //that were reordered are simply rebound
+            if (mPrevious != null) {
+                mDiff = DiffUtil.calculateDiff(new PageDiffCallback(mPrevious, page), false);
+            }
+            return page;
+        }
+
+        @Override
+        protected void onPostExecute(Page page) {
+            onPageLoaded(mPage, mRequest, page, mPrevious, mDiff);
+        }
+    }
+
+    /**
+     * Reads the number of search results in the background
+     */
+    private class SearchCountTask extends AsyncTask<Void, Void, Integer> {
+
+        private final int mRequest;
+        private final Uri mCountUri;
+
+        SearchCountTask(int request, Uri countUri) {
+            mRequest = request;
+            mCountUri = countUri;
+        }
+
+        @Override
+        protected Integer doInBackground(Void... params) {
+            Cursor cursor = mContentResolver.query(mCountUri, null, null, null, null);
+            if (cursor == null) {
+                return -1;
+            }
+            try {
+                return cursor.moveToFirst() ? cursor.getInt(0) : -1;
+            } finally {
+                cursor.close();
+            }
+        }
+
+        @Override
+        protected void onPostExecute(Integer count) {
+            onSearchCountLoaded(mRequest, count);
+        }
+    }
+}
@@ -1,7 +1,8 @@
 package com.example.android.finalinventory;
 
 import android.app.LoaderManager;
-import android.content.ContentValues;
+import android.content.ContentUris;
+import android.content.Context;
 import android.content.CursorLoader;
 import android.content.DialogInterface;
 import android.content.Intent;
@@ -26,8 +27,14 @@ import android.widget.ImageView;
 import android.widget.TextView;
 import android.widget.Toast;
 
+import com.example.android.finalinventory.core.StockKeeper;
 import com.example.android.finalinventory.data.ItemContract.ItemEntry;
 import com.example.android.finalinventory.data.DbBitmapUtility;
+import com.example.android.finalinventory.data.ImageEncoding;
+import com.example.android.finalinventory.data.Item;
+import com.example.android.finalinventory.data.ItemMapper;
+import com.example.android.finalinventory.data.ItemRepository;
+import com.example.android.finalinventory.data.ItemValues;
 
 import java.text.NumberFormat;
 
@@ -164,39 +171,19 @@ public class ItemEditor extends AppCompatActivity implements LoaderManager.Loade
         //it as a String
         //Then parse it as int itemVariance
         String sTextFromEditText = mSellOrderEditText.getText().toString().trim();
-        int itemVariance = 0;
+        int itemVariance;
 
-        //Catch an exception that would be thrown if no number was entered in the EditText
+        //Catch an exception that would be thrown if no whole number of at least 1 was entered in the EditText
         try {
-            itemVariance = Integer.parseInt(sTextFromEditText);
+            itemVariance = StockKeeper.parseAmount(sTextFromEditText);
         } catch (NumberFormatException e) {
             Toast.makeText(this, "Please enter an amount to sell.", Toast.LENGTH_SHORT).show();
-        }
-
-        //Get the quantity that is reflected from the database and save
-        //it as a String
-        //Then parse it as int intInitialQuantity
-        String sInitialQuantity = mQuantityEditText.getText().toString().trim();
-        int intInitialQuantity = Integer.parseInt(sInitialQuantity);
-
-        //Ensure that the quantity being sold isn't higher than what is actually in the database
-        if (itemVariance > intInitialQuantity) {
-            Toast.makeText(this, "Number must be lower than " + intInitialQuantity + ".", Toast.LENGTH_SHORT).show();
             return;
         }
 
-        //Subtract the requested amount from the amount in the database
-        //and save it in int mQuantity
-        mQuantity = intInitialQuantity - itemVariance;
-
-        //Convert this value back to a String so that it can be
-        //inserted into the database using a ContentValues object
-        String mQuantityString = Integer.toString(mQuantity);
-
-        //Create a ContentValues object where column names are the keys and item attributes from the editor are the values
-        ContentValues values = new ContentValues();
-        values.put(ItemEntry.COLUMN_ITEM_QUANTITY, mQuantityString);
-        getContentResolver().update(mCurrentItemUri, values, null, null);
+        //Subtract the requested amount in the provider. It refuses when the quantity being sold
+        //is higher than what is actually in the database
+        adjustQuantity(-itemVariance);
     }
 
     //This method is called whenever the Order button is clicked
@@ -207,32 +194,47 @@ public class ItemEditor extends AppCompatActivity implements LoaderManager.Loade
         //Then parse it into int itemVariance
         String sTextFromEditText = mSellOrderEditText.getText().toString().trim();
         //Initialize itemVariance which will store the amount to add to the total
-        int itemVariance = 0;
+        int itemVariance;
 
-        //Catch an exception that would be thrown if no number was entered in the EditText
+        //Catch an exception that would be thrown if no whole number of at least 1 was entered in the EditText
         try {
-            itemVariance = Integer.parseInt(sTextFromEditText);
+            itemVariance = StockKeeper.parseAmount(sTextFromEditText);
         } catch (NumberFormatException e) {
             Toast.makeText(this, "Please enter how many to receive.", Toast.LENGTH_SHORT).show();
+            return;
         }
 
-        //Get the amount reflected in the database from mQuantityEditText as a String
-        //Then parse it into int intInitialQuantity
-        String sInitialQuantity = mQuantityEditText.getText().toString().trim();
-        int intInitialQuantity = Integer.parseInt(sInitialQuantity);
-
-        //Add itemVariance and intInitialQuantity and save the value into int mQuantity
-        //This will be the updated amount to be saved into the database
-        mQuantity = intInitialQuantity + itemVariance;
+        //Add itemVariance to the amount in the database
+        adjustQuantity(itemVariance);
+    }
 
-        //Parse mQuantity back into a String so that it can be updated in the database
-        //using a ContentValues object
-        String mQuantityString = Integer.toString(mQuantity);
+    //Add delta to the quantity of the current item with a single update in the provider,
+    //rather than writing back a value worked out from what is on screen. The write runs in the
+    //background, together with any other changes to the item still waiting for it, and the
+    //change is shown at once and corrected if the provider refuses it.
+    private void adjustQuantity(int delta) {
+        ItemRepository.getInstance(this).adjustQuantity(ContentUris.parseId(mCurrentItemUri), delta,
+                new ItemRepository.QuantityCallback() {
+                    @Override
+                    public void onQuantityAdjusted(long id, boolean adjusted, int quantity) {
+                        if (quantity >= 0) {
+                            mQuantity = quantity;
+                            showQuantity();
+                        }
+                        if (!adjusted && quantity >= 0 && !isFinishing()) {
+                            Toast.makeText(ItemEditor.this, "Number must be lower than " + quantity + ".",
+                                    Toast.LENGTH_SHORT).show();
+                        }
+                    }
+                });
+        showQuantity();
+    }
 
-        //Create a ContentValues object where column names are the keys and item attributes from the editor are the values
-        ContentValues values = new ContentValues();
-        values.put(ItemEntry.COLUMN_ITEM_QUANTITY, mQuantityString);
-        getContentResolver().update(mCurrentItemUri, values, null, null);
+    //Show the quantity with the changes that haven't been written yet. The provider never takes
+    //it below 0.
+    private void showQuantity() {
+        int unconfirmed = ItemRepository.getInstance(this).getUnconfirmedDelta(ContentUris.parseId(mCurrentItemUri));
+        mQuantityEditText.setText(Integer.toString(Math.max(0, mQuantity + unconfirmed)));
     }
 
     private void orderItem() {
@@ -242,7 +244,7 @@ public class ItemEditor extends AppCompatActivity implements LoaderManager.Loade
         //Initialize orderAmount which will store the amount to add to the total
         int orderAmount = 0;
 
-        //Catch an exception that would be thrown if no number was entered in the EditText
+        //Catch an exception that would be thrown if no whole number of at least 1 was entered in the EditText
         //Not necessary for an email but it does ensure that nobody enters bad data into the email
         try {
             orderAmount = Integer.parseInt(sTextFromEditText);
@@ -286,9 +288,13 @@ public class ItemEditor extends AppCompatActivity implements LoaderManager.Loade
         if (requestCode == REQUEST_IMAGE_CAPTURE && resultCode == RESULT_OK) {
             Bundle extras = data.getExtras();
             Bitmap imageBitmap = (Bitmap) extras.get("data");
+
+            //Don't let a decode of the old image that is still running replace the new one
+            ItemImageLoader.getInstance(this).cancel(mImageView);
+            mImageView.setVisibility(View.VISIBLE);
             mImageView.setImageBitmap(imageBitmap);
 
-            bitmapImage = DbBitmapUtility.getBytes(imageBitmap);
+            bitmapImage = DbBitmapUtility.getBytes(imageBitmap, ImageEncoding.DEFAULT);
         }
     }
 
@@ -314,32 +320,44 @@ public class ItemEditor extends AppCompatActivity implements LoaderManager.Loade
             return false;
         }
 
-        //Create a ContentValues object where column names are the keys and item attributes from the editor are the values
-        ContentValues values = new ContentValues();
-        values.put(ItemEntry.COLUMN_ITEM_NAME, nameString);
-        values.put(ItemEntry.COLUMN_ITEM_COST, priceString);
-        values.put(ItemEntry.COLUMN_ITEM_QUANTITY, quantityString);
+        //Store the price as the number it is, not as the text that was typed
+        float price;
+        try {
+            price = Float.parseFloat(priceString);
+        } catch (NumberFormatException e) {
+            Toast.makeText(this, R.string.new_item_fields_invalid, Toast.LENGTH_SHORT).show();
+            return false;
+        }
+        ItemValues values = new ItemValues()
+                .putName(nameString)
+                .putCost(price);
+        //The quantity isn't saved: it only changes through Sell and Receive, which are written on
+        //their own, and what is on screen may include changes that are still being written
 
         // This determines if there is an image to put into the database or not.
         // If not, no attempt will be made to insert a null reference, but if there
         // is a bitmapImage it will be put into the database
         if (bitmapImage != null) {
-            values.put(ItemEntry.COLUMN_ITEM_IMAGE, bitmapImage);
+            values.putImage(bitmapImage);
         }
 
-        //Insert a new item into the provider, returning the content URI for the new item
-        int rowsAffected = getContentResolver().update(mCurrentItemUri, values, null, null);
-
-        // Show a toast message depending on whether or not the update was successful.
-        if (rowsAffected == 0) {
-            // If no rows were affected, then there was an error with the update.
-            Toast.makeText(this, getString(R.string.item_editor_update_item_failed),
-                    Toast.LENGTH_SHORT).show();
-        } else {
-            // Otherwise, the update was successful and we can display a toast.
-            Toast.makeText(this, getString(R.string.item_editor_update_item_successful),
-                    Toast.LENGTH_SHORT).show();
-        }
+        //Update the item in the background, the image is stored on the way. The toast is shown
+        //once it is done, after this screen has closed.
+        final Context appContext = getApplicationContext();
+        ItemRepository.getInstance(this).updateItem(mCurrentItemUri, values.toContentValues(),
+                new ItemRepository.UpdateCallback() {
+                    @Override
+                    public void onItemUpdated(int rowsAffected) {
+                        //If no rows were affected, then there was an error with the update
+                        if (rowsAffected == 0) {
+                            Toast.makeText(appContext, R.string.item_editor_update_item_failed,
+                                    Toast.LENGTH_SHORT).show();
+                        } else {
+                            Toast.makeText(appContext, R.string.item_editor_update_item_successful,
+                                    Toast.LENGTH_SHORT).show();
+                        }
+                    }
+                });
 
         return true;
     }
@@ -509,7 +527,8 @@ public class ItemEditor extends AppCompatActivity implements LoaderManager.Loade
                 ItemEntry.COLUMN_ITEM_NAME,
                 ItemEntry.COLUMN_ITEM_COST,
                 ItemEntry.COLUMN_ITEM_QUANTITY,
-                ItemEntry.COLUMN_ITEM_IMAGE};
+                ItemEntry.COLUMN_ITEM_IMAGE,
+                ItemEntry.COLUMN_ITEM_MEDIUM_IMAGE};
 
         // This loader will execute the ContentProvider's query method on a background thread
         return new CursorLoader(this,   // Parent activity context
@@ -530,29 +549,29 @@ public class ItemEditor extends AppCompatActivity implements LoaderManager.Loade
         // Proceed with moving to the first row of the cursor and reading data from it
         // (This should be the only row in the cursor)
         if (cursor.moveToFirst()) {
-            // Find the columns of item attributes that we're interested in
-            int nameColumnIndex = cursor.getColumnIndex(ItemEntry.COLUMN_ITEM_NAME);
-            int priceColumnIndex = cursor.getColumnIndex(ItemEntry.COLUMN_ITEM_COST);
-            int quantityColumnIndex = cursor.getColumnIndex(ItemEntry.COLUMN_ITEM_QUANTITY);
-            int imageColumnIndex = cursor.getColumnIndex(ItemEntry.COLUMN_ITEM_IMAGE);
-
-            // Extract out the value from the Cursor for the given column index
-            String name = cursor.getString(nameColumnIndex);
-            Float price = cursor.getFloat(priceColumnIndex);
-            int quantity = cursor.getInt(quantityColumnIndex);
-            byte[] image = cursor.getBlob(imageColumnIndex);
+            Item item = new ItemMapper(cursor).read(cursor);
+            //The medium version is all the editor shows. An image stored before versions were
+            //made may not have one yet.
+            String image = item.getMediumImage();
+            if (image == null) {
+                image = item.getImage();
+            }
 
             // Update the views on the screen with the values from the database
-            mNameEditText.setText(name);
-            mCostEditText.setText(Float.toString(price));
-            mQuantityEditText.setText(Integer.toString(quantity));
+            mNameEditText.setText(item.getName());
+            mCostEditText.setText(Float.toString((float) item.getCost()));
+            mQuantity = item.getQuantity();
+            showQuantity();
 
             //If no image has been provided, set the imageImageView to View.INVISIBLE so that
             //an error is not thrown
             if (image == null) {
+                ItemImageLoader.getInstance(this).cancel(mImageView);
                 mImageView.setVisibility(View.INVISIBLE);
             } else {
-                mImageView.setImageBitmap(DbBitmapUtility.getImage(image));
+                //Decode the image in the background, downsampled to the size of the ImageView
+                mImageView.setVisibility(View.VISIBLE);
+                ItemImageLoader.getInstance(this).load(ContentUris.parseId(mCurrentItemUri), image, mImageView, false);
             }
         }
     }
@@ -0,0 +1,306 @@
+package com.example.android.finalinventory;
+
+import android.content.ComponentCallbacks2;
+import android.content.ContentResolver;
+import android.content.Context;
+import android.content.res.Configuration;
+import android.graphics.Bitmap;
+import android.os.Handler;
+import android.os.Looper;
+import android.support.v4.os.TraceCompat;
+import android.support.v4.view.ViewCompat;
+import android.util.DisplayMetrics;
+import android.view.ViewGroup;
+import android.widget.ImageView;
+
+import com.example.android.finalinventory.data.BitmapPool;
+import com.example.android.finalinventory.data.DbBitmapUtility;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decodes item images on background threads and sets them on ImageViews. Images are downsampled
+ * to the size of the view, decoded into pooled bitmaps when possible, and a decode is cancelled
+ * when its view is given another image before it finishes, e.g. when a list row is recycled.
+ * All public methods must be called on the main thread.
+ */
+public class ItemImageLoader implements ComponentCallbacks2 {
+
+    //Number of threads decoding images
+    private static final int THREAD_COUNT = 2;
+
+    //Most decodes waiting for a thread. When full, a decode whose view has left the screen is
+    //dropped, or else the oldest one is set aside until a thread is free, see mDeferred
+    private static final int MAX_QUEUED_DECODES = 32;
+
+    //Most memory kept in the pool of reusable bitmaps
+    private static final int POOL_BYTES = 4 * 1024 * 1024;
+
+    private static ItemImageLoader sInstance;
+
+    private final ContentResolver mContentResolver;
+    private final DisplayMetrics mDisplayMetrics;
+    private final ItemBitmapCache mCache;
+    private final BitmapPool mPool = new BitmapPool(POOL_BYTES);
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    private final ThreadPoolExecutor mExecutor;
+
+    //Decodes pushed out of the full queue while their views were still on screen, oldest first.
+    //They are queued again as decodes finish. Only used on the main thread.
+    private final Deque<DecodeTask> mDeferred = new ArrayDeque<>();
+
+    //Bitmap each ImageView is currently displaying, so a bitmap is never reused while it is on screen
+    private final Map<ImageView, Bitmap> mDisplayedBitmaps = new WeakHashMap<>();
+
+    //Returns the loader shared by the whole app
+    public static synchronized ItemImageLoader getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new ItemImageLoader(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    private ItemImageLoader(Context context) {
+        mContentResolver = context.getContentResolver();
+        mDisplayMetrics = context.getResources().getDisplayMetrics();
+        mCache = ItemBitmapCache.getInstance(context);
+
+        //Images leaving the cache are reused for later decodes, unless a view still shows them
+        mCache.setOnBitmapRemovedListener(new ItemBitmapCache.OnBitmapRemovedListener() {
+            @Override
+            public void onBitmapRemoved(Bitmap bitmap) {
+                if (!mDisplayedBitmaps.containsValue(bitmap)) {
+                    mPool.put(bitmap);
+                }
+            }
+        });
+
+        //Newest decodes first: the rows that were just bound are the ones on screen
+        BlockingQueue<Runnable> queue = new LinkedBlockingDeque<Runnable>(MAX_QUEUED_DECODES) {
+            @Override
+            public boolean offer(Runnable runnable) {
+                return offerFirst(runnable);
+            }
+        };
+        mExecutor = new ThreadPoolExecutor(THREAD_COUNT, THREAD_COUNT, 0L, TimeUnit.MILLISECONDS, queue,
+                new ThreadFactory() {
+                    @Override
+                    public Thread newThread(Runnable runnable) {
+                        Thread thread = new Thread(runnable, "ItemImageLoader");
+                        thread.setPriority(Thread.MIN_PRIORITY);
+                        return thread;
+                    }
+                },
+                new RejectedExecutionHandler() {
+                    //Called from load(), so on the main thread where the views can be looked at
+                    @Override
+                    public void rejectedExecution(Runnable runnable, ThreadPoolExecutor executor) {
+                        LinkedBlockingDeque<Runnable> waiting = (LinkedBlockingDeque<Runnable>) executor.getQueue();
+                        DecodeTask dropped = removeDetached(waiting);
+                        if (dropped == null) {
+                            dropped = (DecodeTask) waiting.pollLast();
+                        }
+                        waiting.offerFirst(runnable);
+                        if (dropped != null) {
+                            setAside(dropped);
+                        }
+                    }
+                });
+
+        context.registerComponentCallbacks(this);
+    }
+
+    //Show the image of an item in a list row. Images decoded for list rows are cached.
+    public void load(long id, String reference, ImageView imageView) {
+        load(id, reference, imageView, true);
+    }
+
+    //Show the image of an item in imageView, decoding it in the background unless it is cached.
+    //Only small images such as list rows should be cached, the cache is keyed by item, not by size.
+    public void load(long id, String reference, ImageView imageView, boolean cache) {
+        cancel(imageView);
+
+        Bitmap cached = cache ? mCache.get(id, reference) : null;
+        if (cached != null) {
+            display(imageView, cached);
+            return;
+        }
+
+        DecodeTask task = new DecodeTask(id, reference, imageView, cache);
+        imageView.setTag(R.id.image_load_task, task);
+        mExecutor.execute(task);
+    }
+
+    //Stop any decode running for imageView and clear its image
+    public void cancel(ImageView imageView) {
+        DecodeTask task = (DecodeTask) imageView.getTag(R.id.image_load_task);
+        if (task != null) {
+            task.mCancelled = true;
+            mExecutor.remove(task);
+            mDeferred.remove(task);
+            imageView.setTag(R.id.image_load_task, null);
+        }
+        display(imageView, null);
+    }
+
+    //Remove the oldest waiting decode whose view is no longer on screen, if there is one
+    private static DecodeTask removeDetached(LinkedBlockingDeque<Runnable> waiting) {
+        Iterator<Runnable> oldestFirst = waiting.descendingIterator();
+        while (oldestFirst.hasNext()) {
+            DecodeTask task = (DecodeTask) oldestFirst.next();
+            if (!ViewCompat.isAttachedToWindow(task.mImageView)) {
+                oldestFirst.remove();
+                return task;
+            }
+        }
+        return null;
+    }
+
+    //Keep a decode pushed out of the queue for later if its view still wants it, otherwise
+    //cancel it so its view doesn't wait for it
+    private void setAside(DecodeTask task) {
+        if (task.isWanted()) {
+            mDeferred.addLast(task);
+            return;
+        }
+        task.mCancelled = true;
+        if (task.mImageView.getTag(R.id.image_load_task) == task) {
+            task.mImageView.setTag(R.id.image_load_task, null);
+        }
+    }
+
+    //Queue the decodes set aside while there is room, called whenever a decode finishes
+    private void resumeDeferred() {
+        while (!mDeferred.isEmpty() && mExecutor.getQueue().remainingCapacity() > 0) {
+            DecodeTask task = mDeferred.pollFirst();
+            if (task.isWanted()) {
+                mExecutor.execute(task);
+            } else {
+                setAside(task);
+            }
+        }
+    }
+
+    //Set a bitmap on the view, and reuse the one it showed before if nothing else needs it
+    private void display(ImageView imageView, Bitmap bitmap) {
+        imageView.setImageBitmap(bitmap);
+        Bitmap previous = bitmap == null ? mDisplayedBitmaps.remove(imageView) : mDisplayedBitmaps.put(imageView, bitmap);
+        if (previous != null && previous != bitmap && !mCache.contains(previous)
+                && !mDisplayedBitmaps.containsValue(previous)) {
+            mPool.put(previous);
+        }
+    }
+
+    //Size to downsample an image for, taken from the view or its layout and falling back to the screen
+    private int[] getTargetSize(ImageView imageView) {
+        int width = imageView.getWidth();
+        int height = imageView.getHeight();
+        ViewGroup.LayoutParams params = imageView.getLayoutParams();
+        if (width <= 0 && params != null) {
+            width = params.width;
+        }
+        if (height <= 0 && params != null) {
+            height = params.height;
+        }
+        if (width <= 0) {
+            width = mDisplayMetrics.widthPixels;
+        }
+        if (height <= 0) {
+            height = mDisplayMetrics.heightPixels;
+        }
+        return new int[]{width, height};
+    }
+
+    @Override
+    public void onTrimMemory(int level) {
+        if (level >= TRIM_MEMORY_RUNNING_LOW) {
+            mPool.clear();
+        }
+    }
+
+    @Override
+    public void onLowMemory() {
+        mPool.clear();
+    }
+
+    @Override
+    public void onConfigurationChanged(Configuration newConfig) {
+        //Pooled bitmaps don't depend on the configuration
+    }
+
+    //Decodes one image on a decoding thread and hands it to its view on the main thread
+    private class DecodeTask implements Runnable {
+
+        private final long mId;
+        private final String mReference;
+        private final ImageView mImageView;
+        private final boolean mCacheResult;
+        private final int mTargetWidth;
+        private final int mTargetHeight;
+
+        //Set on the main thread when the view no longer wants this image
+        volatile boolean mCancelled;
+
+        //Whether the view is on screen and still waiting for this image. Main thread only.
+        boolean isWanted() {
+            return !mCancelled && mImageView.getTag(R.id.image_load_task) == this
+                    && ViewCompat.isAttachedToWindow(mImageView);
+        }
+
+        DecodeTask(long id, String reference, ImageView imageView, boolean cacheResult) {
+            mId = id;
+            mReference = reference;
+            mImageView = imageView;
+            mCacheResult = cacheResult;
+            int[] size = getTargetSize(imageView);
+            mTargetWidth = size[0];
+            mTargetHeight = size[1];
+        }
+
+        @Override
+        public void run() {
+            if (mCancelled) {
+                return;
+            }
+            final Bitmap bitmap;
+            TraceCompat.beginSection("ItemImageLoader.decode");
+            try {
+                bitmap = DbBitmapUtility.getImage(mContentResolver, mReference, mTargetWidth, mTargetHeight, mPool);
+            } finally {
+                TraceCompat.endSection();
+            }
+
+            mMainHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    //A thread is free for a decode that was set aside
+                    resumeDeferred();
+
+                    //The view was recycled for another row while decoding
+                    if (mCancelled || mImageView.getTag(R.id.image_load_task) != DecodeTask.this) {
+                        mPool.put(bitmap);
+                        return;
+                    }
+                    mImageView.setTag(R.id.image_load_task, null);
+                    if (bitmap == null) {
+                        return;
+                    }
+                    if (mCacheResult) {
+                        mCache.put(mId, mReference, bitmap);
+                    }
+                    display(mImageView, bitmap);
+                }
+            });
+        }
+    }
+}
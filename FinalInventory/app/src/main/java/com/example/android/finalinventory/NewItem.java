@@ -1,6 +1,7 @@
 package com.example.android.finalinventory;
 
 import android.content.ContentValues;
+import android.content.Context;
 import android.content.DialogInterface;
 import android.content.Intent;
 import android.graphics.Bitmap;
@@ -23,7 +24,9 @@ import android.widget.TextView;
 import android.widget.Toast;
 
 import com.example.android.finalinventory.data.DbBitmapUtility;
-import com.example.android.finalinventory.data.ItemContract.ItemEntry;
+import com.example.android.finalinventory.data.ImageEncoding;
+import com.example.android.finalinventory.data.ItemRepository;
+import com.example.android.finalinventory.data.ItemValues;
 
 /**
  * Allow the user to add a new item to the database
@@ -126,7 +129,7 @@ public class NewItem extends AppCompatActivity {
             mImageView.setImageBitmap(imageBitmap);
 
             //Save the Bitmap image as a byte[] bitmapImage
-            bitmapImage = DbBitmapUtility.getBytes(imageBitmap);
+            bitmapImage = DbBitmapUtility.getBytes(imageBitmap, ImageEncoding.DEFAULT);
         }
     }
 
@@ -158,24 +161,37 @@ public class NewItem extends AppCompatActivity {
             return false;
         }
 
-        //Create a ContentValues object where column names are the keys and item attributes from the editor are the values
-        ContentValues values = new ContentValues();
-        values.put(ItemEntry.COLUMN_ITEM_NAME, nameString);
-        values.put(ItemEntry.COLUMN_ITEM_COST, priceString);
-        values.put(ItemEntry.COLUMN_ITEM_QUANTITY, quantityString);
-        values.put(ItemEntry.COLUMN_ITEM_IMAGE, bitmapImage);
-
-        //Insert a new item into the provider, returning the content URI for the new item
-        Uri newUri = getContentResolver().insert(ItemEntry.CONTENT_URI, values);
-
-        //Show a toast message describing whether the insertion was successful or ot
-        if (newUri == null) {
-            //There was an error with insertion
-            Toast.makeText(this, getString(R.string.item_editor_insert_item_failed), Toast.LENGTH_SHORT).show();
-        } else {
-            //insertion was successful
-            Toast.makeText(this, getString(R.string.item_editor_insert_item_successful), Toast.LENGTH_SHORT).show();
+        //Store the price and quantity as the numbers they are, not as the text that was typed
+        float price;
+        int quantity;
+        try {
+            price = Float.parseFloat(priceString);
+            quantity = Integer.parseInt(quantityString);
+        } catch (NumberFormatException e) {
+            Toast.makeText(this, R.string.new_item_fields_invalid, Toast.LENGTH_SHORT).show();
+            return false;
         }
+        ContentValues values = new ItemValues()
+                .putName(nameString)
+                .putCost(price)
+                .putQuantity(quantity)
+                .putImage(bitmapImage)
+                .toContentValues();
+
+        //Insert the new item in the background, the image is stored on the way. The toast is shown
+        //once it is done, after this screen has closed.
+        final Context appContext = getApplicationContext();
+        ItemRepository.getInstance(this).insertItem(values, new ItemRepository.InsertCallback() {
+            @Override
+            public void onItemInserted(Uri newUri) {
+                //Show a toast message describing whether the insertion was successful or not
+                if (newUri == null) {
+                    Toast.makeText(appContext, R.string.item_editor_insert_item_failed, Toast.LENGTH_SHORT).show();
+                } else {
+                    Toast.makeText(appContext, R.string.item_editor_insert_item_successful, Toast.LENGTH_SHORT).show();
+                }
+            }
+        });
 
         return true;
     }
@@ -0,0 +1,61 @@
+package com.example.android.finalinventory;
+
+import android.app.IntentService;
+import android.content.Context;
+import android.content.Intent;
+import android.os.Bundle;
+import android.text.TextUtils;
+import android.util.Log;
+
+import com.example.android.finalinventory.data.ItemContract;
+import com.example.android.finalinventory.data.ItemContract.ItemEntry;
+
+/**
+ * Syncs the items with the server named by the sync_server_url resource, off the main thread.
+ * The provider does the exchange, this only starts it and logs how it went.
+ */
+public class SyncService extends IntentService {
+
+    //Tag for log messages
+    private static final String LOG_TAG = SyncService.class.getSimpleName();
+
+    //Push the local changes and pull the server's
+    public static final String ACTION_SYNC = "com.example.android.finalinventory.action.SYNC";
+
+    public SyncService() {
+        super(LOG_TAG);
+    }
+
+    //Start a sync. Requests made while one runs are queued and find little left to exchange.
+    public static void startSync(Context context) {
+        Intent intent = new Intent(context, SyncService.class);
+        intent.setAction(ACTION_SYNC);
+        context.startService(intent);
+    }
+
+    @Override
+    protected void onHandleIntent(Intent intent) {
+        if (intent == null || !ACTION_SYNC.equals(intent.getAction())) {
+            return;
+        }
+
+        String url = getString(R.string.sync_server_url);
+        if (TextUtils.isEmpty(url)) {
+            Log.i(LOG_TAG, "No sync server is configured");
+            return;
+        }
+
+        Bundle result = getContentResolver().call(ItemEntry.CONTENT_URI, ItemContract.METHOD_SYNC, url, null);
+        if (result == null) {
+            return;
+        }
+        String error = result.getString(ItemContract.EXTRA_ERROR);
+        int pushed = result.getInt(ItemContract.EXTRA_PUSHED);
+        int pulled = result.getInt(ItemContract.EXTRA_PULLED);
+        if (error != null) {
+            Log.w(LOG_TAG, "Sync stopped after pushing " + pushed + " and pulling " + pulled + " changes: " + error);
+        } else {
+            Log.i(LOG_TAG, "Sync pushed " + pushed + " and pulled " + pulled + " changes");
+        }
+    }
+}
@@ -0,0 +1,30 @@
+package com.example.android.finalinventory.data;
+
+import android.database.sqlite.SQLiteDatabase;
+
+/**
+ * Data migration that walks the rows of a table in _ID order, a chunk at a time, after the schema
+ * upgrade that queued it has finished. MigrationRunner commits each chunk in its own transaction
+ * together with how far it got, so the migration resumes where it stopped if the process dies.
+ *
+ * Only rows that existed when the migration was queued are walked. Rows written later must
+ * already be handled by the new schema, for example by a trigger, and a chunk must be harmless
+ * for rows that were updated or deleted since.
+ */
+abstract class BackgroundMigration {
+
+    //Name the progress of the migration is stored under. Never change it once released.
+    final String name;
+
+    //Table whose rows are walked
+    final String table;
+
+    BackgroundMigration(String name, String table) {
+        this.name = name;
+        this.table = table;
+    }
+
+    //Migrate the rows with afterId < _ID <= endId, at most limit of them, starting from the lowest
+    //_ID. Returns the _ID of the last row migrated, or -1 if none was left.
+    abstract long migrateChunk(SQLiteDatabase db, long afterId, long endId, int limit);
+}
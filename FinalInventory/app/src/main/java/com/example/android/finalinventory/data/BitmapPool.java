@@ -0,0 +1,88 @@
+package com.example.android.finalinventory.data;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.os.Build;
+
+import java.util.Iterator;
+import java.util.LinkedList;
+
+/**
+ * Bitmaps that are no longer displayed or cached, kept so that later decodes can draw into
+ * them through BitmapFactory.Options.inBitmap instead of allocating new memory every time.
+ * Only bitmaps nothing else refers to anymore may be put in the pool.
+ */
+public class BitmapPool {
+
+    //Most memory the pooled bitmaps may hold, in bytes
+    private final int mMaxBytes;
+
+    //Pooled bitmaps, oldest first
+    private final LinkedList<Bitmap> mBitmaps = new LinkedList<>();
+
+    //Memory currently held by the pooled bitmaps, in bytes
+    private int mBytes;
+
+    //Constructs a pool holding at most maxBytes of bitmaps
+    public BitmapPool(int maxBytes) {
+        mMaxBytes = maxBytes;
+    }
+
+    //Offer a bitmap for reuse. Bitmaps that can't be decoded into are ignored.
+    public synchronized void put(Bitmap bitmap) {
+        if (bitmap == null || !bitmap.isMutable() || bitmap.isRecycled() || mBitmaps.contains(bitmap)) {
+            return;
+        }
+        mBitmaps.addLast(bitmap);
+        mBytes += getBytes(bitmap);
+
+        //Drop the oldest bitmaps once the pool is full
+        while (mBytes > mMaxBytes && !mBitmaps.isEmpty()) {
+            mBytes -= getBytes(mBitmaps.removeFirst());
+        }
+    }
+
+    //Take a bitmap that the decode described by options (after its bounds have been read and
+    //inSampleSize set) can draw into, or null if there is none
+    public synchronized Bitmap take(BitmapFactory.Options options) {
+        Iterator<Bitmap> iterator = mBitmaps.iterator();
+        while (iterator.hasNext()) {
+            Bitmap candidate = iterator.next();
+            if (canDecodeInto(candidate, options)) {
+                iterator.remove();
+                mBytes -= getBytes(candidate);
+                return candidate;
+            }
+        }
+        return null;
+    }
+
+    //Empty the pool, used when the system is short on memory
+    public synchronized void clear() {
+        mBitmaps.clear();
+        mBytes = 0;
+    }
+
+    //Before KitKat inBitmap needs exactly the same size and no sampling,
+    //after it any bitmap with enough memory behind it will do
+    private static boolean canDecodeInto(Bitmap candidate, BitmapFactory.Options options) {
+        int sampleSize = Math.max(1, options.inSampleSize);
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
+            int width = (options.outWidth + sampleSize - 1) / sampleSize;
+            int height = (options.outHeight + sampleSize - 1) / sampleSize;
+            int bytesPerPixel = candidate.getConfig() == Bitmap.Config.RGB_565 ? 2 : 4;
+            return (long) width * height * bytesPerPixel <= candidate.getAllocationByteCount();
+        }
+        return sampleSize == 1
+                && candidate.getWidth() == options.outWidth
+                && candidate.getHeight() == options.outHeight;
+    }
+
+    //Memory behind a bitmap in bytes
+    private static int getBytes(Bitmap bitmap) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
+            return bitmap.getAllocationByteCount();
+        }
+        return bitmap.getByteCount();
+    }
+}
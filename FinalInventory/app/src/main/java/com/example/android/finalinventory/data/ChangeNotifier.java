@@ -0,0 +1,148 @@
+package com.example.android.finalinventory.data;
+
+import android.content.ContentResolver;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.SystemClock;
+
+import com.example.android.finalinventory.data.ItemContract.ItemEntry;
+import com.example.android.finalinventory.data.ItemContract.TotalsEntry;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Collects the changes ItemProvider makes and notifies observers of them in batches. A batch is
+ * sent once no change has arrived for a short moment, or once its oldest change has waited long
+ * enough. Several changes to one row become one notification, and a table with many changed rows
+ * is notified once on the table URI instead of once per row.
+ */
+class ChangeNotifier {
+
+    //Quiet time after the latest change before a batch is sent
+    private static final long DELAY_MS = 50;
+
+    //Longest a change waits, so a steady stream of changes still gets through
+    private static final long MAX_DELAY_MS = 250;
+
+    //Above this many changed rows, the table is notified as a whole
+    private static final int MAX_ROW_CHANGES = 64;
+
+    //Where counts of items are notified by ItemProvider. A filtered count can change whenever an
+    //item is updated, the count of all items only when items are added or removed. Both are
+    //below COUNT_URI, so notifying it reaches them both.
+    static final Uri ALL_COUNT_URI = Uri.withAppendedPath(ItemEntry.COUNT_URI, "all");
+    static final Uri FILTERED_COUNT_URI = Uri.withAppendedPath(ItemEntry.COUNT_URI, "filtered");
+
+    private final ContentResolver mContentResolver;
+    private final Handler mHandler;
+
+    //Changes not sent yet: the kind of change for each URI, without its query
+    private final Map<Uri, String> mPending = new LinkedHashMap<>();
+
+    //When the oldest pending change arrived
+    private long mFirstPendingAt;
+
+    private final Runnable mFlush = new Runnable() {
+        @Override
+        public void run() {
+            flush();
+        }
+    };
+
+    ChangeNotifier(ContentResolver contentResolver) {
+        mContentResolver = contentResolver;
+        HandlerThread thread = new HandlerThread("ChangeNotifier");
+        thread.start();
+        mHandler = new Handler(thread.getLooper());
+    }
+
+    //Queue a change of the given kind to a row or table URI. May be called from any thread.
+    void add(Uri uri, String change) {
+        uri = uri.buildUpon().clearQuery().build();
+        long now = SystemClock.uptimeMillis();
+        synchronized (mPending) {
+            if (mPending.isEmpty()) {
+                mFirstPendingAt = now;
+            }
+            mPending.put(uri, merge(mPending.get(uri), change));
+
+            mHandler.removeCallbacks(mFlush);
+            mHandler.postAtTime(mFlush, Math.min(now + DELAY_MS, mFirstPendingAt + MAX_DELAY_MS));
+        }
+    }
+
+    //The kind of change left after change follows earlier on the same URI
+    private static String merge(String earlier, String change) {
+        if (earlier == null || ItemContract.CHANGE_DELETE.equals(change)) {
+            return change;
+        }
+        if (ItemContract.CHANGE_INSERT.equals(earlier)) {
+            //Observers haven't been told about the row yet, to them it is still new
+            return earlier;
+        }
+        if (ItemContract.CHANGE_DELETE.equals(earlier)) {
+            return ItemContract.CHANGE_UPDATE;
+        }
+        return change;
+    }
+
+    //Send the pending changes, grouped by table
+    private void flush() {
+        Map<Uri, String> changes;
+        synchronized (mPending) {
+            changes = new LinkedHashMap<>(mPending);
+            mPending.clear();
+        }
+
+        Map<String, List<Uri>> tables = new LinkedHashMap<>();
+        for (Uri uri : changes.keySet()) {
+            String table = uri.getPathSegments().get(0);
+            List<Uri> uris = tables.get(table);
+            if (uris == null) {
+                uris = new ArrayList<>();
+                tables.put(table, uris);
+            }
+            uris.add(uri);
+        }
+
+        for (Map.Entry<String, List<Uri>> table : tables.entrySet()) {
+            Uri tableUri = Uri.withAppendedPath(ItemContract.BASE_CONTENT_URI, table.getKey());
+            List<Uri> uris = table.getValue();
+
+            //The totals follow every change to the items
+            if (tableUri.equals(ItemEntry.CONTENT_URI)) {
+                mContentResolver.notifyChange(TotalsEntry.CONTENT_URI, null);
+            }
+
+            //The table URI reaches the observers of every row, and of the count too
+            if (uris.contains(tableUri) || uris.size() > MAX_ROW_CHANGES) {
+                mContentResolver.notifyChange(tableUri, null);
+                continue;
+            }
+
+            boolean rowsAddedOrRemoved = false;
+            boolean rowsUpdated = false;
+            for (Uri uri : uris) {
+                String change = changes.get(uri);
+                mContentResolver.notifyChange(ItemContract.buildChangeUri(uri, change), null);
+                if (ItemContract.CHANGE_UPDATE.equals(change)) {
+                    rowsUpdated = true;
+                } else {
+                    rowsAddedOrRemoved = true;
+                }
+            }
+            if (tableUri.equals(ItemEntry.CONTENT_URI)) {
+                if (rowsAddedOrRemoved) {
+                    mContentResolver.notifyChange(ItemEntry.COUNT_URI, null);
+                } else if (rowsUpdated) {
+                    //Updated items may have entered or left a filtered list
+                    mContentResolver.notifyChange(FILTERED_COUNT_URI, null);
+                }
+            }
+        }
+    }
+}
@@ -1,22 +1,154 @@
 package com.example.android.finalinventory.data;
 
+import android.content.ContentResolver;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
+import android.util.Log;
+
+import com.example.android.finalinventory.core.ImageReferences;
+import com.example.android.finalinventory.data.ItemContract.ImageEntry;
 
 import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayDeque;
 
 //This class is used to convert images taken from the camera into Bitmap Images or byte[]
 public class DbBitmapUtility {
 
-    // convert from bitmap to byte array
-    public static byte[] getBytes(Bitmap bitmap) {
-        ByteArrayOutputStream stream = new ByteArrayOutputStream();
-        bitmap.compress(Bitmap.CompressFormat.PNG, 0, stream);
-        return stream.toByteArray();
+    //Tag for log messages
+    private static final String LOG_TAG = DbBitmapUtility.class.getSimpleName();
+
+    //Most output buffers kept around for reuse, and the largest buffer worth keeping: one the
+    //size any of the app's encodings expects, so buffers of every encoding can be reused
+    private static final int MAX_POOLED_BUFFERS = 2;
+    private static final int MAX_POOLED_BUFFER_SIZE = ImageEncoding.getLargestEstimate();
+
+    //Output buffers left over from earlier encodes
+    private static final ArrayDeque<EncodeBuffer> sBufferPool = new ArrayDeque<>();
+
+    // convert from bitmap to byte array with the given encoding, scaling the bitmap down first
+    // if it is larger than the encoding allows
+    public static byte[] getBytes(Bitmap bitmap, ImageEncoding encoding) {
+        Bitmap scaled = scaleToFit(bitmap, encoding.getMaxDimension());
+        EncodeBuffer stream = takeBuffer(encoding.estimateSize(scaled.getWidth(), scaled.getHeight()));
+        try {
+            scaled.compress(encoding.getFormat(), encoding.getQuality(), stream);
+            return stream.toByteArray();
+        } finally {
+            releaseBuffer(stream);
+            if (scaled != bitmap) {
+                scaled.recycle();
+            }
+        }
+    }
+
+    // scale the bitmap down so neither side is longer than maxDimension, keeping its aspect ratio
+    public static Bitmap scaleToFit(Bitmap bitmap, int maxDimension) {
+        int width = bitmap.getWidth();
+        int height = bitmap.getHeight();
+        if (width <= maxDimension && height <= maxDimension) {
+            return bitmap;
+        }
+        float scale = Math.min((float) maxDimension / width, (float) maxDimension / height);
+        return Bitmap.createScaledBitmap(bitmap,
+                Math.max(1, Math.round(width * scale)), Math.max(1, Math.round(height * scale)), true);
+    }
+
+    // take the smallest pooled output buffer that holds the expected size, or create one of that
+    // size. A smaller buffer would only have to grow again while compressing.
+    private static EncodeBuffer takeBuffer(int expectedSize) {
+        synchronized (sBufferPool) {
+            EncodeBuffer best = null;
+            for (EncodeBuffer buffer : sBufferPool) {
+                if (buffer.capacity() >= expectedSize && (best == null || buffer.capacity() < best.capacity())) {
+                    best = buffer;
+                }
+            }
+            if (best != null) {
+                sBufferPool.remove(best);
+                best.reset();
+                return best;
+            }
+        }
+        return new EncodeBuffer(Math.max(expectedSize, 32));
+    }
+
+    // give a buffer back to the pool, unless it grew too large to be worth keeping
+    private static void releaseBuffer(EncodeBuffer buffer) {
+        if (buffer.capacity() > MAX_POOLED_BUFFER_SIZE) {
+            return;
+        }
+        synchronized (sBufferPool) {
+            if (sBufferPool.size() < MAX_POOLED_BUFFERS) {
+                sBufferPool.push(buffer);
+            }
+        }
     }
 
     // convert from byte array to bitmap
     public static Bitmap getImage(byte[] image) {
         return BitmapFactory.decodeByteArray(image, 0, image.length);
     }
-}
\ No newline at end of file
+
+    // read the bitmap with the given reference from the image store, downsampled to about the
+    // requested size and decoded into a bitmap from the pool when one fits. Runs off the main thread.
+    public static Bitmap getImage(ContentResolver contentResolver, String reference,
+                                  int reqWidth, int reqHeight, BitmapPool pool) {
+        //Read only the dimensions first to work out how much the image can be downsampled
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        decodeStream(contentResolver, reference, options);
+        if (options.outWidth <= 0 || options.outHeight <= 0) {
+            return null;
+        }
+
+        options.inJustDecodeBounds = false;
+        options.inSampleSize = ImageReferences.calculateInSampleSize(options.outWidth, options.outHeight, reqWidth, reqHeight);
+        options.inMutable = true;
+        if (pool != null) {
+            options.inBitmap = pool.take(options);
+        }
+
+        try {
+            return decodeStream(contentResolver, reference, options);
+        } catch (IllegalArgumentException e) {
+            //The pooled bitmap couldn't be reused after all, decode into a new one
+            if (options.inBitmap == null) {
+                throw e;
+            }
+            options.inBitmap = null;
+            return decodeStream(contentResolver, reference, options);
+        }
+    }
+
+    // decode the image store file with the given options
+    private static Bitmap decodeStream(ContentResolver contentResolver, String reference,
+                                       BitmapFactory.Options options) {
+        try {
+            InputStream in = contentResolver.openInputStream(ImageEntry.buildImageUri(reference));
+            if (in == null) {
+                return null;
+            }
+            try {
+                return BitmapFactory.decodeStream(in, null, options);
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Could not read image " + reference, e);
+            return null;
+        }
+    }
+
+    // output stream whose buffer is kept between encodes
+    private static class EncodeBuffer extends ByteArrayOutputStream {
+        EncodeBuffer(int size) {
+            super(size);
+        }
+
+        int capacity() {
+            return buf.length;
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package com.example.android.finalinventory.data;
+
+import android.graphics.Bitmap;
+
+/**
+ * How item images are encoded before they are stored: the format, its quality setting and the
+ * largest width or height kept. Images bigger than that are scaled down first.
+ */
+public final class ImageEncoding {
+
+    //Lossless, but the slowest to encode and the largest
+    public static final ImageEncoding PNG = new ImageEncoding(Bitmap.CompressFormat.PNG, 100, 1024);
+
+    //Lossy formats at a quality where item photos show no visible artifacts
+    public static final ImageEncoding JPEG = new ImageEncoding(Bitmap.CompressFormat.JPEG, 85, 1024);
+    public static final ImageEncoding WEBP = new ImageEncoding(Bitmap.CompressFormat.WEBP, 80, 1024);
+
+    //Encoding used when items are saved. Item pictures are camera photos, where JPEG is usually
+    //the cheapest to encode and decode at a fraction of the size of PNG. Run ImageEncodingBenchmark
+    //on the target devices before changing it.
+    public static final ImageEncoding DEFAULT = JPEG;
+
+    //Smaller versions the provider makes of every image it stores, see ImageRenditions: a
+    //thumbnail for list rows, which are 80dp high, and a medium image for the editor
+    public static final ImageEncoding THUMBNAIL = new ImageEncoding(Bitmap.CompressFormat.JPEG, 80, 240);
+    public static final ImageEncoding MEDIUM = new ImageEncoding(Bitmap.CompressFormat.JPEG, 85, 640);
+
+    private final Bitmap.CompressFormat mFormat;
+    private final int mQuality;
+    private final int mMaxDimension;
+
+    //Constructs an encoding. quality is 0-100 and ignored by PNG, maxDimension is in pixels.
+    public ImageEncoding(Bitmap.CompressFormat format, int quality, int maxDimension) {
+        if (format == null) {
+            throw new IllegalArgumentException("Encoding requires a format");
+        }
+        if (quality < 0 || quality > 100) {
+            throw new IllegalArgumentException("Quality must be between 0 and 100");
+        }
+        if (maxDimension <= 0) {
+            throw new IllegalArgumentException("Maximum dimension must be greater than 0");
+        }
+        mFormat = format;
+        mQuality = quality;
+        mMaxDimension = maxDimension;
+    }
+
+    public Bitmap.CompressFormat getFormat() {
+        return mFormat;
+    }
+
+    public int getQuality() {
+        return mQuality;
+    }
+
+    public int getMaxDimension() {
+        return mMaxDimension;
+    }
+
+    //Rough size of an encoded image of the given dimensions, used to size the output buffer
+    //so it doesn't have to grow while compressing
+    public int estimateSize(int width, int height) {
+        int pixels = width * height;
+        switch (mFormat) {
+            case PNG:
+                return pixels * 2;
+            case JPEG:
+                return pixels / 4;
+            default:
+                return pixels / 6;
+        }
+    }
+
+    //Largest estimateSize() of the encodings above, for an image as large as each of them keeps
+    public static int getLargestEstimate() {
+        int largest = 0;
+        for (ImageEncoding encoding : new ImageEncoding[]{PNG, JPEG, WEBP, THUMBNAIL, MEDIUM}) {
+            largest = Math.max(largest, encoding.estimateSize(encoding.mMaxDimension, encoding.mMaxDimension));
+        }
+        return largest;
+    }
+
+    @Override
+    public String toString() {
+        return mFormat + "(" + mQuality + ", max " + mMaxDimension + "px)";
+    }
+}
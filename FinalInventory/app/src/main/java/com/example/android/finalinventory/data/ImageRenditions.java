@@ -0,0 +1,74 @@
+package com.example.android.finalinventory.data;
+
+import android.content.ContentValues;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+
+import com.example.android.finalinventory.core.ImageReferences;
+import com.example.android.finalinventory.data.ItemContract.ItemEntry;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Makes the smaller versions of an item image that are stored next to it in the ItemImageStore:
+ * a thumbnail for list rows and a medium image for the editor. They are made once, when the image
+ * is written, so showing an item never decodes more of its image than is on screen.
+ */
+final class ImageRenditions {
+
+    private ImageRenditions() {
+    }
+
+    //Decode image bytes, downsampled as far as the medium size allows. Returns null if the bytes
+    //aren't an image.
+    static Bitmap decode(byte[] image) {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeByteArray(image, 0, image.length, options);
+        if (!prepareDecode(options)) {
+            return null;
+        }
+        return BitmapFactory.decodeByteArray(image, 0, image.length, options);
+    }
+
+    //Decode a stored image file, like decode(byte[])
+    static Bitmap decode(File file) {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeFile(file.getPath(), options);
+        if (!prepareDecode(options)) {
+            return null;
+        }
+        return BitmapFactory.decodeFile(file.getPath(), options);
+    }
+
+    //Set the options read by a bounds-only decode up for the real one
+    private static boolean prepareDecode(BitmapFactory.Options options) {
+        if (options.outWidth <= 0 || options.outHeight <= 0) {
+            return false;
+        }
+        int size = ImageEncoding.MEDIUM.getMaxDimension();
+        options.inSampleSize = ImageReferences.calculateInSampleSize(options.outWidth, options.outHeight, size, size);
+        options.inJustDecodeBounds = false;
+        return true;
+    }
+
+    //Store the thumbnail and the medium image of the stored image with the given reference,
+    //decoded into bitmap, and put their references into values
+    static void put(ItemImageStore store, String reference, Bitmap bitmap, ContentValues values) throws IOException {
+        values.put(ItemEntry.COLUMN_ITEM_THUMBNAIL, put(store, reference, bitmap, ImageEncoding.THUMBNAIL));
+        values.put(ItemEntry.COLUMN_ITEM_MEDIUM_IMAGE, put(store, reference, bitmap, ImageEncoding.MEDIUM));
+    }
+
+    private static String put(ItemImageStore store, String reference, Bitmap bitmap, ImageEncoding encoding)
+            throws IOException {
+        //An image that is already small enough serves as its own smaller version, encoding it
+        //again would only lose quality
+        int maxDimension = encoding.getMaxDimension();
+        if (bitmap.getWidth() <= maxDimension && bitmap.getHeight() <= maxDimension) {
+            return reference;
+        }
+        return store.put(DbBitmapUtility.getBytes(bitmap, encoding));
+    }
+}
@@ -0,0 +1,64 @@
+package com.example.android.finalinventory.data;
+
+/**
+ * One row of the items table, read through an ItemMapper. Columns that weren't in the projection
+ * of the cursor it was read from hold their defaults: -1 for the _ID, 0 for numbers and null for
+ * everything else.
+ */
+public final class Item {
+
+    private final long mId;
+    private final String mName;
+    private final double mCost;
+    private final int mQuantity;
+    private final String mSku;
+    private final String mImage;
+    private final String mThumbnail;
+    private final String mMediumImage;
+
+    Item(long id, String name, double cost, int quantity, String sku, String image, String thumbnail,
+         String mediumImage) {
+        mId = id;
+        mName = name;
+        mCost = cost;
+        mQuantity = quantity;
+        mSku = sku;
+        mImage = image;
+        mThumbnail = thumbnail;
+        mMediumImage = mediumImage;
+    }
+
+    public long getId() {
+        return mId;
+    }
+
+    public String getName() {
+        return mName;
+    }
+
+    //The cost exactly as stored, which is what the provider sorts and filters by
+    public double getCost() {
+        return mCost;
+    }
+
+    public int getQuantity() {
+        return mQuantity;
+    }
+
+    public String getSku() {
+        return mSku;
+    }
+
+    //References into the image store, see ItemEntry
+    public String getImage() {
+        return mImage;
+    }
+
+    public String getThumbnail() {
+        return mThumbnail;
+    }
+
+    public String getMediumImage() {
+        return mMediumImage;
+    }
+}
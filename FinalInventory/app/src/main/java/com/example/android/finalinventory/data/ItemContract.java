@@ -4,6 +4,9 @@ import android.content.ContentResolver;
 import android.net.Uri;
 import android.provider.BaseColumns;
 
+import com.example.android.finalinventory.core.InventorySchema;
+import com.example.android.finalinventory.core.StockStore;
+
 //API contract for the Final Inventory app
 public class ItemContract {
 
@@ -20,6 +23,93 @@ public class ItemContract {
     //Possible path
     public final static String PATH_ITEMS = "items";
 
+    //Path under the items path for the number of items
+    public final static String PATH_COUNT = "count";
+
+    //Path under the items path for searching items by name
+    public final static String PATH_SEARCH = "search";
+
+    //Path under the items path for finding an item by its SKU
+    public final static String PATH_SKU = "sku";
+
+    //Path for item images, which are served as files rather than through cursors
+    public final static String PATH_IMAGES = "images";
+
+    //Path for the progress of catalog imports
+    public final static String PATH_IMPORTS = "imports";
+
+    //Path for the ledger of stock movements
+    public final static String PATH_MOVEMENTS = "stock_movements";
+
+    //Path for the totals of the whole inventory
+    public final static String PATH_TOTALS = "totals";
+
+    //Path for the provider's own metrics
+    public final static String PATH_DIAGNOSTICS = "diagnostics";
+
+    //Query parameters accepted on the items URI so the table can be read one page at a time.
+    //"after" is the _ID that ended the previous page, "offset" is a row offset used instead
+    //when that _ID isn't known, and "limit" is the number of rows in the page
+    public final static String QUERY_PARAMETER_AFTER = "after";
+    public final static String QUERY_PARAMETER_OFFSET = "offset";
+    public final static String QUERY_PARAMETER_LIMIT = "limit";
+
+    //Query parameter giving the sort key of the row that ended the previous page, needed with
+    //"after" when the list isn't sorted by _ID
+    public final static String QUERY_PARAMETER_AFTER_VALUE = "after_value";
+
+    //Query parameter choosing the order of the items URI and the values it accepts. Rows with the
+    //same sort key are ordered by _ID. Names are sorted without regard to case.
+    public final static String QUERY_PARAMETER_SORT = "sort";
+    public final static String SORT_ID = "id";
+    public final static String SORT_NAME = "name";
+    public final static String SORT_QUANTITY = "quantity";
+    public final static String SORT_COST = "cost";
+
+    //Query parameters filtering the items URI and its count: a quantity below the given number,
+    //and a cost of at least and at most the given amounts
+    public final static String QUERY_PARAMETER_QUANTITY_BELOW = "quantity_below";
+    public final static String QUERY_PARAMETER_MIN_COST = "min_cost";
+    public final static String QUERY_PARAMETER_MAX_COST = "max_cost";
+
+    //Query parameter on the URIs the provider notifies, telling observers what kind of change
+    //happened: CHANGE_INSERT, CHANGE_UPDATE or CHANGE_DELETE. A single row is notified on its own
+    //URI, e.g. items/5?change=update. Changes to many rows at once are notified on the table URI,
+    //and mean that any row may have changed. Notifications are sent shortly after the change, and
+    //changes made close together are sent together.
+    public final static String QUERY_PARAMETER_CHANGE = "change";
+    public final static String CHANGE_INSERT = "insert";
+    public final static String CHANGE_UPDATE = "update";
+    public final static String CHANGE_DELETE = "delete";
+
+    //Provider call() method that adds a delta to an item's quantity in a single update, refusing
+    //to take it below 0. The arg is the item _ID and EXTRA_DELTA holds the delta. The result holds
+    //EXTRA_ADJUSTED, whether the quantity was changed, and EXTRA_QUANTITY, the quantity afterwards.
+    //The change is recorded in the stock movement ledger as a sale or, for a positive delta, a receipt.
+    public final static String METHOD_ADJUST_QUANTITY = "adjust_quantity";
+    public final static String EXTRA_DELTA = "delta";
+    public final static String EXTRA_ADJUSTED = "adjusted";
+    public final static String EXTRA_QUANTITY = "quantity";
+
+    //Provider call() method that exchanges the changes since the last sync with the sync server
+    //whose base URL is the arg. Runs on the calling thread, which must not be the main
+    //thread. The result holds EXTRA_PUSHED and EXTRA_PULLED, the number of changes sent and
+    //received, or EXTRA_ERROR describing why the sync stopped.
+    public final static String METHOD_SYNC = "sync";
+    public final static String EXTRA_PUSHED = "pushed";
+    public final static String EXTRA_PULLED = "pulled";
+    public final static String EXTRA_ERROR = "error";
+
+    //Builds the URI notified for a change of the given kind to the data at uri
+    public static Uri buildChangeUri(Uri uri, String change) {
+        return uri.buildUpon().appendQueryParameter(QUERY_PARAMETER_CHANGE, change).build();
+    }
+
+    //Returns the kind of change a notified URI reports, or null if it doesn't say
+    public static String getChange(Uri uri) {
+        return uri == null ? null : uri.getQueryParameter(QUERY_PARAMETER_CHANGE);
+    }
+
     /**
      * Inner class that defines constant values for the items database table
      */
@@ -28,6 +118,11 @@ public class ItemContract {
         //Content URI to access item data in the provider
         public static final Uri CONTENT_URI = Uri.withAppendedPath(BASE_CONTENT_URI, PATH_ITEMS);
 
+        //Content URI returning the number of items in the _count column. It is notified when
+        //items are inserted or deleted, and counts of a filtered list also when an item is
+        //updated, as that can move it into or out of the list.
+        public static final Uri COUNT_URI = Uri.withAppendedPath(CONTENT_URI, PATH_COUNT);
+
         //MIME type of the content URI for a list of items
         public static final String CONTENT_LIST_TYPE = ContentResolver.CURSOR_DIR_BASE_TYPE
                 + "/" + CONTENT_AUTHORITY
@@ -39,21 +134,303 @@ public class ItemContract {
                 + "/" + PATH_ITEMS;
 
         //Name of database table for items
-        public final static String TABLE_NAME = "items";
+        public final static String TABLE_NAME = InventorySchema.TABLE_ITEMS;
 
         //Unique ID number for each item
         public final static String _ID = BaseColumns._ID;
 
         //Name of the item
-        public final static String COLUMN_ITEM_NAME = "name";
+        public final static String COLUMN_ITEM_NAME = InventorySchema.COLUMN_ITEM_NAME;
 
         //Cost of the item
-        public final static String COLUMN_ITEM_COST = "cost";
+        public final static String COLUMN_ITEM_COST = InventorySchema.COLUMN_ITEM_COST;
 
         //Quantity of the item
-        public final static String COLUMN_ITEM_QUANTITY = "quantity";
+        public final static String COLUMN_ITEM_QUANTITY = InventorySchema.COLUMN_ITEM_QUANTITY;
+
+        //Image of each item. Rows hold a reference to a file in the image store, which is read
+        //through {@link ImageEntry#buildImageUri}. Image bytes put into this column on insert
+        //or update are moved into the store by the provider.
+        public final static String COLUMN_ITEM_IMAGE = InventorySchema.COLUMN_ITEM_IMAGE;
+
+        //References of smaller versions of the image, made by the provider whenever an image is
+        //stored and read the same way: a thumbnail of a few KB for lists and a medium image for
+        //the editor. Null when there is no image, or until an older image has been converted.
+        public final static String COLUMN_ITEM_THUMBNAIL = InventorySchema.COLUMN_ITEM_THUMBNAIL;
+        public final static String COLUMN_ITEM_MEDIUM_IMAGE = InventorySchema.COLUMN_ITEM_MEDIUM_IMAGE;
+
+        //Change tracking for sync, written by the database and not by clients. The version is
+        //the number of the latest change to the item, counted across all items, so the items
+        //changed since a sync are those with a higher version than it reached. The modified time
+        //is in milliseconds since the epoch, and the sync ID names the item on every device.
+        public final static String COLUMN_ITEM_VERSION = InventorySchema.COLUMN_ITEM_VERSION;
+        public final static String COLUMN_ITEM_MODIFIED_AT = InventorySchema.COLUMN_ITEM_MODIFIED_AT;
+        public final static String COLUMN_ITEM_SYNC_ID = InventorySchema.COLUMN_ITEM_SYNC_ID;
+
+        //Stock keeping unit or barcode of the item, unique among items. Optional. Inserting an
+        //item with the SKU of an existing one updates that item instead.
+        public final static String COLUMN_ITEM_SKU = InventorySchema.COLUMN_ITEM_SKU;
+
+        //Builds the content URI for a page of at most limit items whose _ID is greater than afterId
+        public static Uri buildPageUri(long afterId, int limit) {
+            return buildPageUri(CONTENT_URI, null, afterId, limit);
+        }
+
+        //Builds the content URI for a page of at most limit items starting at the given row offset.
+        //Only used when the _ID ending the previous page is unknown, since the keyset form above
+        //doesn't have to step over the skipped rows
+        public static Uri buildOffsetPageUri(int offset, int limit) {
+            return buildOffsetPageUri(CONTENT_URI, offset, limit);
+        }
+
+        //Builds the content URI for the items in the given sort order, only including those with
+        //a quantity below quantityBelow and a cost between minCost and maxCost. Filters that are
+        //null are left out. Pages and the count of this list are built from the returned URI.
+        public static Uri buildListUri(String sort, Integer quantityBelow, Float minCost, Float maxCost) {
+            Uri.Builder builder = CONTENT_URI.buildUpon().appendQueryParameter(QUERY_PARAMETER_SORT, sort);
+            if (quantityBelow != null) {
+                builder.appendQueryParameter(QUERY_PARAMETER_QUANTITY_BELOW, String.valueOf(quantityBelow));
+            }
+            if (minCost != null) {
+                builder.appendQueryParameter(QUERY_PARAMETER_MIN_COST, String.valueOf(minCost));
+            }
+            if (maxCost != null) {
+                builder.appendQueryParameter(QUERY_PARAMETER_MAX_COST, String.valueOf(maxCost));
+            }
+            return builder.build();
+        }
+
+        //Whether a list URI from buildListUri() leaves items out, so that updating an item can
+        //change what is in the list and not only where
+        public static boolean isFiltered(Uri listUri) {
+            return listUri.getQueryParameter(QUERY_PARAMETER_QUANTITY_BELOW) != null
+                    || listUri.getQueryParameter(QUERY_PARAMETER_MIN_COST) != null
+                    || listUri.getQueryParameter(QUERY_PARAMETER_MAX_COST) != null;
+        }
+
+        //Builds the content URI counting the items of a list URI
+        public static Uri buildCountUri(Uri listUri) {
+            return COUNT_URI.buildUpon().encodedQuery(listUri.getEncodedQuery()).build();
+        }
+
+        //Builds the content URI for a page of at most limit items of a list URI, starting after
+        //the row with the given _ID and sort key. afterValue may be null for lists sorted by _ID.
+        public static Uri buildPageUri(Uri listUri, String afterValue, long afterId, int limit) {
+            Uri.Builder builder = listUri.buildUpon();
+            if (afterValue != null) {
+                builder.appendQueryParameter(QUERY_PARAMETER_AFTER_VALUE, afterValue);
+            }
+            return builder
+                    .appendQueryParameter(QUERY_PARAMETER_AFTER, String.valueOf(afterId))
+                    .appendQueryParameter(QUERY_PARAMETER_LIMIT, String.valueOf(limit))
+                    .build();
+        }
+
+        //Builds the content URI for a page of at most limit items of a list URI, starting at the
+        //given row offset
+        public static Uri buildOffsetPageUri(Uri listUri, int offset, int limit) {
+            return listUri.buildUpon()
+                    .appendQueryParameter(QUERY_PARAMETER_OFFSET, String.valueOf(offset))
+                    .appendQueryParameter(QUERY_PARAMETER_LIMIT, String.valueOf(limit))
+                    .build();
+        }
+
+        //Builds the content URI returning at most limit items whose names have words starting
+        //with every word of the search text, best matches first: names starting with the first
+        //word, then shorter names
+        public static Uri buildSearchUri(String text, int limit) {
+            return CONTENT_URI.buildUpon()
+                    .appendPath(PATH_SEARCH)
+                    .appendPath(text)
+                    .appendQueryParameter(QUERY_PARAMETER_LIMIT, String.valueOf(limit))
+                    .build();
+        }
+
+        //Builds the content URI for a page of at most limit search results, starting at the given
+        //row offset of the results in the order of buildSearchUri()
+        public static Uri buildSearchPageUri(String text, int offset, int limit) {
+            return buildSearchUri(text, limit).buildUpon()
+                    .appendQueryParameter(QUERY_PARAMETER_OFFSET, String.valueOf(offset))
+                    .build();
+        }
+
+        //Builds the content URI returning the number of items matching the search text in the
+        //_count column. It is notified whenever items change.
+        public static Uri buildSearchCountUri(String text) {
+            return CONTENT_URI.buildUpon()
+                    .appendPath(PATH_SEARCH)
+                    .appendPath(text)
+                    .appendPath(PATH_COUNT)
+                    .build();
+        }
+
+        //Builds the content URI for the item with the given SKU, as scanned or imported
+        public static Uri buildSkuUri(String sku) {
+            return CONTENT_URI.buildUpon()
+                    .appendPath(PATH_SKU)
+                    .appendPath(sku)
+                    .build();
+        }
+    }
+
+    /**
+     * Inner class that defines the URIs of item images
+     */
+    public static final class ImageEntry {
+
+        //Content URI to access item images in the provider
+        public static final Uri CONTENT_URI = Uri.withAppendedPath(BASE_CONTENT_URI, PATH_IMAGES);
+
+        //Builds the content URI of the image with the given reference from COLUMN_ITEM_IMAGE
+        public static Uri buildImageUri(String reference) {
+            return Uri.withAppendedPath(CONTENT_URI, reference);
+        }
+    }
+
+    /**
+     * Inner class that defines constant values for the import progress table. Each row is a
+     * catalog import that hasn't finished yet, and is updated in the same transaction as the
+     * items of each chunk, so an interrupted import knows exactly where to continue.
+     */
+    public static final class ImportEntry implements BaseColumns {
+
+        //Content URI to access import progress in the provider
+        public static final Uri CONTENT_URI = Uri.withAppendedPath(BASE_CONTENT_URI, PATH_IMPORTS);
+
+        //MIME type of the content URI for a list of imports
+        public static final String CONTENT_LIST_TYPE = ContentResolver.CURSOR_DIR_BASE_TYPE
+                + "/" + CONTENT_AUTHORITY
+                + "/" + PATH_IMPORTS;
+
+        //MIME type of a single import
+        public static final String CONTENT_ITEM_TYPE = ContentResolver.CURSOR_ITEM_BASE_TYPE
+                + "/" + CONTENT_AUTHORITY
+                + "/" + PATH_IMPORTS;
+
+        //Name of database table for import progress
+        public final static String TABLE_NAME = "import_progress";
+
+        //Unique ID number for each import
+        public final static String _ID = BaseColumns._ID;
+
+        //URI of the CSV file being imported
+        public final static String COLUMN_IMPORT_SOURCE = "source";
+
+        //Bytes of the file whose records are already committed
+        public final static String COLUMN_IMPORT_BYTE_OFFSET = "byte_offset";
+
+        //Number of items committed so far
+        public final static String COLUMN_IMPORT_ROWS_IMPORTED = "rows_imported";
+
+        //Number of records skipped so far because they weren't valid items
+        public final static String COLUMN_IMPORT_ROWS_SKIPPED = "rows_skipped";
+    }
+
+    /**
+     * Inner class that defines constant values for the stock movement ledger. Rows are only ever
+     * appended, one for every change of an item's quantity, in the same transaction as the change.
+     * The deltas of an item's movements add up to its COLUMN_ITEM_QUANTITY, which is kept as a
+     * snapshot of that sum. Movements older than a month are periodically folded into one
+     * REASON_SNAPSHOT movement per item. The ledger is read only, it is written by the provider.
+     */
+    public static final class MovementEntry implements BaseColumns {
+
+        //Content URI to read the ledger
+        public static final Uri CONTENT_URI = Uri.withAppendedPath(BASE_CONTENT_URI, PATH_MOVEMENTS);
+
+        //MIME type of the content URI for a list of movements
+        public static final String CONTENT_LIST_TYPE = ContentResolver.CURSOR_DIR_BASE_TYPE
+                + "/" + CONTENT_AUTHORITY
+                + "/" + PATH_MOVEMENTS;
+
+        //Name of database table for stock movements
+        public final static String TABLE_NAME = InventorySchema.TABLE_MOVEMENTS;
+
+        //Unique ID number for each movement, in the order they were appended
+        public final static String _ID = BaseColumns._ID;
+
+        //_ID of the item whose quantity changed
+        public final static String COLUMN_MOVEMENT_ITEM_ID = InventorySchema.COLUMN_MOVEMENT_ITEM_ID;
+
+        //Change of the quantity, negative for stock going out
+        public final static String COLUMN_MOVEMENT_DELTA = InventorySchema.COLUMN_MOVEMENT_DELTA;
+
+        //Why the quantity changed, one of the REASON values
+        public final static String COLUMN_MOVEMENT_REASON = InventorySchema.COLUMN_MOVEMENT_REASON;
+
+        //When the quantity changed, in milliseconds since the epoch. For a snapshot, the time of
+        //the newest movement it folds in.
+        public final static String COLUMN_MOVEMENT_TIMESTAMP = InventorySchema.COLUMN_MOVEMENT_TIMESTAMP;
+
+        //Possible reasons: items sold, items received, the quantity set to a counted value when an
+        //item is added, imported or edited, and older movements folded together
+        public final static String REASON_SALE = StockStore.REASON_SALE;
+        public final static String REASON_RECEIPT = StockStore.REASON_RECEIPT;
+        public final static String REASON_COUNT = StockStore.REASON_COUNT;
+        public final static String REASON_SNAPSHOT = StockStore.REASON_SNAPSHOT;
+    }
+
+    /**
+     * Inner class that defines constant values for the totals of the whole inventory. The totals
+     * URI returns a single row. It is kept up to date by the database as items change, so reading
+     * it takes the same time however many items there are. It is notified whenever items change.
+     */
+    public static final class TotalsEntry implements BaseColumns {
+
+        //Content URI to read the totals
+        public static final Uri CONTENT_URI = Uri.withAppendedPath(BASE_CONTENT_URI, PATH_TOTALS);
+
+        //MIME type of the totals
+        public static final String CONTENT_ITEM_TYPE = ContentResolver.CURSOR_ITEM_BASE_TYPE
+                + "/" + CONTENT_AUTHORITY
+                + "/" + PATH_TOTALS;
+
+        //Number of items
+        public final static String COLUMN_TOTALS_ITEM_COUNT = InventorySchema.COLUMN_TOTALS_ITEM_COUNT;
+
+        //Units in stock of all items together
+        public final static String COLUMN_TOTALS_UNITS = InventorySchema.COLUMN_TOTALS_UNITS;
+
+        //Value of the stock, the sum of cost times quantity of every item, to the cent
+        public final static String COLUMN_TOTALS_VALUE = "total_value";
+    }
+
+    /**
+     * Inner class that defines the columns of the provider's metrics. Each row covers one
+     * operation on one URI pattern since the provider started, so tests and field reports can
+     * tell where time goes. The same table is written by dumpsys for the provider.
+     */
+    public static final class DiagnosticsEntry implements BaseColumns {
+
+        //Content URI to read the metrics
+        public static final Uri CONTENT_URI = Uri.withAppendedPath(BASE_CONTENT_URI, PATH_DIAGNOSTICS);
+
+        //MIME type of the metrics
+        public static final String CONTENT_LIST_TYPE = ContentResolver.CURSOR_DIR_BASE_TYPE
+                + "/" + CONTENT_AUTHORITY
+                + "/" + PATH_DIAGNOSTICS;
+
+        //query, insert, bulk_insert, update or delete. Queries of a single item are also counted
+        //as cache_hit or cache_miss, by whether the provider's cache of items answered them.
+        public final static String COLUMN_OPERATION = "operation";
+
+        //Pattern of the URIs the operation was called with, such as "items/#"
+        public final static String COLUMN_URI = "uri";
+
+        //Number of calls, and how many of them threw
+        public final static String COLUMN_COUNT = "count";
+        public final static String COLUMN_ERRORS = "errors";
+
+        //Rows returned by the queries, or inserted, updated or deleted by the other calls
+        public final static String COLUMN_ROWS = "rows";
+
+        //Calls per second since the provider started
+        public final static String COLUMN_PER_SECOND = "per_second";
 
-        //Image of each item
-        public final static String COLUMN_ITEM_IMAGE = "image";
+        //Latency percentiles and the largest latency, in microseconds
+        public final static String COLUMN_P50_US = "p50_us";
+        public final static String COLUMN_P95_US = "p95_us";
+        public final static String COLUMN_P99_US = "p99_us";
+        public final static String COLUMN_MAX_US = "max_us";
     }
-}
\ No newline at end of file
+}
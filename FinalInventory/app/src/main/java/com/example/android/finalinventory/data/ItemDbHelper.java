@@ -1,47 +1,553 @@
 package com.example.android.finalinventory.data;
 
+import android.content.ContentValues;
 import android.content.Context;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.graphics.Bitmap;
+import android.os.Build;
+import android.provider.BaseColumns;
+import android.util.Log;
 
+import com.example.android.finalinventory.core.InventorySchema;
+import com.example.android.finalinventory.data.ItemContract.ImportEntry;
 import com.example.android.finalinventory.data.ItemContract.ItemEntry;
+import com.example.android.finalinventory.data.ItemContract.MovementEntry;
+
+import java.io.IOException;
 
 /**
  * Database helper for the Inventory app. Manages database creation and version management
  */
 public class ItemDbHelper extends SQLiteOpenHelper {
 
+    //Tag for log messages
+    private static final String LOG_TAG = ItemDbHelper.class.getSimpleName();
+
     //Name of the database file
     private static final String DATABASE_NAME = "inventory.db";
 
     //Database version
-    private static final int DATABASE_VERSION = 1;
+    //2: images moved out of the items table into the ItemImageStore
+    //3: import_progress table for resumable catalog imports
+    //4: items_fts full-text index of item names
+    //5: covering indexes for the name, quantity and cost sort orders
+    //6: background_migrations table for chunked data migrations
+    //7: stock_movements ledger
+    //8: inventory_totals kept by triggers
+    //9: change tracking for sync: item versions, modified times, sync IDs and tombstones
+    //10: items.sku with a unique index
+    //11: thumbnail and medium versions of item images, sort indexes holding the thumbnail
+    //12: SKU changes tracked for sync
+    //Each version has its step in buildMigrations()
+    private static final int DATABASE_VERSION = 12;
+
+    //Full-text index of item names, searched by the items/search URI. The docid of each row is
+    //the _ID of its item.
+    static final String FTS_TABLE_NAME = InventorySchema.TABLE_ITEMS_FTS;
+
+    //Statement to create the table tracking unfinished catalog imports
+    private static final String SQL_CREATE_IMPORTS_TABLE = "CREATE TABLE " + ImportEntry.TABLE_NAME
+            + " ("
+            + ImportEntry._ID + " INTEGER PRIMARY KEY AUTOINCREMENT, "
+            + ImportEntry.COLUMN_IMPORT_SOURCE + " TEXT NOT NULL UNIQUE, "
+            + ImportEntry.COLUMN_IMPORT_BYTE_OFFSET + " INTEGER NOT NULL DEFAULT 0, "
+            + ImportEntry.COLUMN_IMPORT_ROWS_IMPORTED + " INTEGER NOT NULL DEFAULT 0, "
+            + ImportEntry.COLUMN_IMPORT_ROWS_SKIPPED + " INTEGER NOT NULL DEFAULT 0);";
+
+    //Totals of the whole inventory in its only row, kept by triggers on the items table. The
+    //stock value is kept in whole cents.
+    static final String TOTALS_TABLE_NAME = InventorySchema.TABLE_TOTALS;
+    static final String COLUMN_TOTALS_VALUE_CENTS = InventorySchema.COLUMN_TOTALS_VALUE_CENTS;
+
+    //Change tracking for sync, see InventorySchema
+    static final String SYNC_STATE_TABLE_NAME = InventorySchema.TABLE_SYNC_STATE;
+    static final String COLUMN_SYNC_CHANGE_SEQ = InventorySchema.COLUMN_SYNC_CHANGE_SEQ;
+    static final String COLUMN_SYNC_PUSHED_SEQ = InventorySchema.COLUMN_SYNC_PUSHED_SEQ;
+    static final String COLUMN_SYNC_PULL_TOKEN = InventorySchema.COLUMN_SYNC_PULL_TOKEN;
+    static final String COLUMN_SYNC_APPLYING_REMOTE = InventorySchema.COLUMN_SYNC_APPLYING_REMOTE;
+
+    //Items deleted since they were synced, by sync ID, with the number of the deleting change
+    static final String TOMBSTONES_TABLE_NAME = InventorySchema.TABLE_TOMBSTONES;
+    static final String COLUMN_TOMBSTONE_DELETED_AT = InventorySchema.COLUMN_TOMBSTONE_DELETED_AT;
+
+    //Background migrations still to finish, and the last _ID each one has migrated. Rows up to
+    //end_id, the highest _ID when the migration was queued, are migrated.
+    static final String BACKGROUND_MIGRATIONS_TABLE_NAME = "background_migrations";
+    static final String COLUMN_MIGRATION_NAME = "name";
+    static final String COLUMN_MIGRATION_AFTER_ID = "after_id";
+    static final String COLUMN_MIGRATION_END_ID = "end_id";
+
+    //Statement to create the background migrations table. It may already exist when an earlier
+    //upgrade step queues a migration, see queueBackgroundMigration.
+    private static final String SQL_CREATE_BACKGROUND_MIGRATIONS_TABLE = "CREATE TABLE IF NOT EXISTS "
+            + BACKGROUND_MIGRATIONS_TABLE_NAME
+            + " ("
+            + COLUMN_MIGRATION_NAME + " TEXT PRIMARY KEY, "
+            + COLUMN_MIGRATION_AFTER_ID + " INTEGER NOT NULL DEFAULT 0, "
+            + COLUMN_MIGRATION_END_ID + " INTEGER NOT NULL);";
+
+    //Fills the full-text index with the names of the items that existed before it. Items written
+    //since are indexed by the triggers: a new item has a higher _ID than end_id, and the update
+    //and delete triggers do nothing for an item the backfill hasn't reached yet.
+    private static final BackgroundMigration FTS_BACKFILL = new BackgroundMigration("items_fts_backfill",
+            ItemEntry.TABLE_NAME) {
+        @Override
+        long migrateChunk(SQLiteDatabase db, long afterId, long endId, int limit) {
+            long lastId = findChunkEnd(db, ItemEntry.TABLE_NAME, afterId, endId, limit);
+            if (lastId != -1) {
+                db.execSQL("INSERT INTO " + FTS_TABLE_NAME + " (docid, " + ItemEntry.COLUMN_ITEM_NAME + ")"
+                        + " SELECT " + ItemEntry._ID + ", " + ItemEntry.COLUMN_ITEM_NAME + " FROM " + ItemEntry.TABLE_NAME
+                        + " WHERE " + ItemEntry._ID + " > ? AND " + ItemEntry._ID + " <= ?",
+                        new Object[]{afterId, lastId});
+            }
+            return lastId;
+        }
+    };
+
+    //Records the quantity of each item that existed before the ledger as a counted movement, so
+    //the movements of every item add up to its quantity. An item already sold or received since
+    //the upgrade gets the part of its quantity its movements don't explain yet.
+    private static final BackgroundMigration MOVEMENTS_BACKFILL = new BackgroundMigration("stock_movements_backfill",
+            ItemEntry.TABLE_NAME) {
+        @Override
+        long migrateChunk(SQLiteDatabase db, long afterId, long endId, int limit) {
+            long lastId = findChunkEnd(db, ItemEntry.TABLE_NAME, afterId, endId, limit);
+            if (lastId != -1) {
+                db.execSQL("INSERT INTO " + MovementEntry.TABLE_NAME + " ("
+                        + MovementEntry.COLUMN_MOVEMENT_ITEM_ID + ", " + MovementEntry.COLUMN_MOVEMENT_DELTA + ", "
+                        + MovementEntry.COLUMN_MOVEMENT_REASON + ", " + MovementEntry.COLUMN_MOVEMENT_TIMESTAMP + ")"
+                        + " SELECT * FROM (SELECT " + ItemEntry._ID + ", " + ItemEntry.COLUMN_ITEM_QUANTITY
+                        + " - IFNULL((SELECT SUM(" + MovementEntry.COLUMN_MOVEMENT_DELTA + ") FROM " + MovementEntry.TABLE_NAME
+                        + " WHERE " + MovementEntry.COLUMN_MOVEMENT_ITEM_ID + " = " + ItemEntry.TABLE_NAME + "." + ItemEntry._ID
+                        + "), 0) AS " + MovementEntry.COLUMN_MOVEMENT_DELTA + ", ?, ?"
+                        + " FROM " + ItemEntry.TABLE_NAME + " WHERE " + ItemEntry._ID + " > ? AND " + ItemEntry._ID + " <= ?)"
+                        + " WHERE " + MovementEntry.COLUMN_MOVEMENT_DELTA + " != 0",
+                        new Object[]{MovementEntry.REASON_COUNT, System.currentTimeMillis(), afterId, lastId});
+            }
+            return lastId;
+        }
+    };
+
+    //Gives the items that existed before change tracking a sync ID and a version, so the first
+    //sync sends them. Their _ID serves as version, as the change count starts above the highest
+    //one. An item changed since the upgrade already has both from the triggers.
+    static final BackgroundMigration SYNC_BACKFILL = new BackgroundMigration("items_sync_backfill",
+            ItemEntry.TABLE_NAME) {
+        @Override
+        long migrateChunk(SQLiteDatabase db, long afterId, long endId, int limit) {
+            long lastId = findChunkEnd(db, ItemEntry.TABLE_NAME, afterId, endId, limit);
+            if (lastId != -1) {
+                db.execSQL("UPDATE " + ItemEntry.TABLE_NAME + " SET "
+                        + ItemEntry.COLUMN_ITEM_SYNC_ID + " = " + InventorySchema.SQL_NEW_SYNC_ID + ", "
+                        + ItemEntry.COLUMN_ITEM_VERSION + " = " + ItemEntry._ID + ", "
+                        + ItemEntry.COLUMN_ITEM_MODIFIED_AT + " = " + InventorySchema.SQL_NOW_MS
+                        + " WHERE " + ItemEntry._ID + " > ? AND " + ItemEntry._ID + " <= ?"
+                        + " AND " + ItemEntry.COLUMN_ITEM_SYNC_ID + " IS NULL",
+                        new Object[]{afterId, lastId});
+            }
+            return lastId;
+        }
+    };
+
+    //Every background migration that may be queued, to look them up by name. The thumbnail
+    //backfill needs the context for the image store, so it belongs to the instance instead.
+    private static final BackgroundMigration[] BACKGROUND_MIGRATIONS = {FTS_BACKFILL, MOVEMENTS_BACKFILL,
+            SYNC_BACKFILL};
+
+    //Items given thumbnails per chunk of the thumbnail backfill
+    private static final int THUMBNAILS_PER_CHUNK = 8;
+
+    //Used to move images into files when upgrading
+    private final Context mContext;
+
+    //Upgrade steps, one per version after the first, in order
+    private final Migration[] mMigrations;
+
+    //Makes the thumbnail and medium versions of the images stored before the provider made them
+    //on write. Decoding an image takes tens of milliseconds, so each chunk only converts a few
+    //items to keep its transaction short. The image column is checked again on write, in case
+    //the item got a new image since it was read.
+    private final BackgroundMigration mThumbnailBackfill = new BackgroundMigration("items_thumbnail_backfill",
+            ItemEntry.TABLE_NAME) {
+        @Override
+        long migrateChunk(SQLiteDatabase db, long afterId, long endId, int limit) {
+            ItemImageStore imageStore = new ItemImageStore(mContext);
+            long lastId = -1;
+            Cursor cursor = db.query(ItemEntry.TABLE_NAME, new String[]{ItemEntry._ID, ItemEntry.COLUMN_ITEM_IMAGE},
+                    ItemEntry._ID + " > ? AND " + ItemEntry._ID + " <= ? AND " + ItemEntry.COLUMN_ITEM_IMAGE
+                            + " IS NOT NULL AND " + ItemEntry.COLUMN_ITEM_THUMBNAIL + " IS NULL",
+                    new String[]{String.valueOf(afterId), String.valueOf(endId)}, null, null, ItemEntry._ID,
+                    String.valueOf(Math.min(limit, THUMBNAILS_PER_CHUNK)));
+            try {
+                while (cursor.moveToNext()) {
+                    lastId = cursor.getLong(0);
+                    String reference = cursor.getString(1);
+                    if (!ItemImageStore.isValidReference(reference)) {
+                        continue;
+                    }
+                    Bitmap bitmap = ImageRenditions.decode(imageStore.getFile(reference));
+                    if (bitmap == null) {
+                        continue;
+                    }
+                    ContentValues values = new ContentValues();
+                    try {
+                        ImageRenditions.put(imageStore, reference, bitmap, values);
+                    } catch (IOException e) {
+                        //The item keeps showing without a thumbnail
+                        Log.e(LOG_TAG, "Could not store the smaller versions of image " + reference, e);
+                        continue;
+                    } finally {
+                        bitmap.recycle();
+                    }
+                    db.update(ItemEntry.TABLE_NAME, values, ItemEntry._ID + "=? AND " + ItemEntry.COLUMN_ITEM_IMAGE + "=?",
+                            new String[]{String.valueOf(lastId), reference});
+                }
+            } finally {
+                cursor.close();
+            }
+            return lastId;
+        }
+    };
 
     //Constructs a new instance of ItemDbHelper
     public ItemDbHelper(Context context) {
         super(context, DATABASE_NAME, null, DATABASE_VERSION);
+        mContext = context.getApplicationContext();
+        mMigrations = buildMigrations();
+
+        //A missing or misplaced step would leave some databases without part of the schema
+        for (int i = 0; i < mMigrations.length; i++) {
+            if (mMigrations[i].version != i + 2) {
+                throw new IllegalStateException("Migration to version " + (i + 2) + " is missing");
+            }
+        }
+        if (mMigrations.length != DATABASE_VERSION - 1) {
+            throw new IllegalStateException("Migrations don't reach version " + DATABASE_VERSION);
+        }
+
+        //Write-ahead logging lets readers keep reading the last committed data while a write is
+        //in progress, and gives the database a pool of read connections next to the one writer,
+        //so list loads and stock writes no longer wait for each other
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+            setWriteAheadLoggingEnabled(true);
+        }
+    }
+
+    //Called when the connection is being configured, before onCreate or onUpgrade (API 16+)
+    @Override
+    public void onConfigure(SQLiteDatabase db) {
+        configure(db);
+    }
+
+    //Called when the database has been opened
+    @Override
+    public void onOpen(SQLiteDatabase db) {
+        //Before API 16 there is no onConfigure, so WAL and the pragmas are set up here instead
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.JELLY_BEAN) {
+            if (!db.isReadOnly()) {
+                db.enableWriteAheadLogging();
+            }
+            configure(db);
+        }
+    }
+
+    //Tune the connection. In WAL mode synchronous=NORMAL only syncs at checkpoints and still can't
+    //corrupt the database, a crash can at most lose the last commits before a checkpoint.
+    //These apply to the primary connection, which performs every write.
+    private void configure(SQLiteDatabase db) {
+        execAll(db, InventorySchema.pragmaStatements());
     }
 
     //This is called whenever the database is created for the first time
     @Override
     public void onCreate(SQLiteDatabase db) {
 
-        //Create a String that contains the SQL statement to create the items table
-        String SQL_CREATE_ITEMS_TABLE = "CREATE TABLE " + ItemEntry.TABLE_NAME
-                + " ("
-                + ItemEntry._ID + " INTEGER PRIMARY KEY AUTOINCREMENT, "
-                + ItemEntry.COLUMN_ITEM_NAME + " TEXT NOT NULL, "
-                + ItemEntry.COLUMN_ITEM_COST + " REAL NOT NULL, "
-                + ItemEntry.COLUMN_ITEM_QUANTITY + " INTEGER NOT NULL DEFAULT 0, "
-                + ItemEntry.COLUMN_ITEM_IMAGE + " BLOB);";
-
-        //Execute the SQL statement
-        db.execSQL(SQL_CREATE_ITEMS_TABLE);
+        //The items, their stock and everything kept in step with them, as the benchmarks have them
+        execAll(db, InventorySchema.createStatements());
+        db.execSQL(SQL_CREATE_IMPORTS_TABLE);
+        db.execSQL(SQL_CREATE_BACKGROUND_MIGRATIONS_TABLE);
     }
 
-    //Called when the database needs to be updated
+    //Called when the database needs to be updated. Runs the step of every version after the old
+    //one, in order, all in the one transaction SQLiteOpenHelper opens for the upgrade.
     @Override
-    public void onUpgrade(SQLiteDatabase sqLiteDatabase, int i, int i1) {
-        //No need to upgrade at this point
+    public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+        for (Migration migration : mMigrations) {
+            if (migration.version > oldVersion && migration.version <= newVersion) {
+                Log.i(LOG_TAG, "Upgrading database to version " + migration.version);
+                migration.migrate(db);
+            }
+        }
+    }
+
+    //The upgrade step of each version. A new version appends its step at the end, released
+    //steps never change. Each step holds the SQL it was released with rather than the current
+    //schema in InventorySchema, which would change the steps along with it. A later step that
+    //changes a table, index or trigger drops it and creates it again itself.
+    private Migration[] buildMigrations() {
+        return new Migration[]{
+                new Migration(2) {
+                    @Override
+                    void migrate(SQLiteDatabase db) {
+                        moveImagesToStore(db);
+                        db.execSQL("CREATE INDEX items_image_idx ON items (image);");
+                    }
+                },
+                new Migration(3) {
+                    @Override
+                    void migrate(SQLiteDatabase db) {
+                        db.execSQL(SQL_CREATE_IMPORTS_TABLE);
+                    }
+                },
+                new Migration(4) {
+                    @Override
+                    void migrate(SQLiteDatabase db) {
+                        execAll(db, new String[]{
+                                "CREATE VIRTUAL TABLE items_fts USING fts4(name);",
+                                "CREATE TRIGGER items_fts_insert AFTER INSERT ON items BEGIN"
+                                        + " INSERT INTO items_fts (docid, name) VALUES (new._id, new.name); END;",
+                                "CREATE TRIGGER items_fts_update AFTER UPDATE OF name ON items BEGIN"
+                                        + " UPDATE items_fts SET name = new.name WHERE docid = old._id; END;",
+                                "CREATE TRIGGER items_fts_delete AFTER DELETE ON items BEGIN"
+                                        + " DELETE FROM items_fts WHERE docid = old._id; END;"});
+                        queueBackgroundMigration(db, FTS_BACKFILL);
+                    }
+                },
+                new Migration(5) {
+                    @Override
+                    void migrate(SQLiteDatabase db) {
+                        //The list still showed the full image
+                        execAll(db, new String[]{
+                                "CREATE INDEX items_name_idx ON items (name COLLATE NOCASE, _id, cost, quantity, image);",
+                                "CREATE INDEX items_quantity_idx ON items (quantity, _id, name, cost, image);",
+                                "CREATE INDEX items_cost_idx ON items (cost, _id, name, quantity, image);"});
+                    }
+                },
+                new Migration(6) {
+                    @Override
+                    void migrate(SQLiteDatabase db) {
+                        db.execSQL(SQL_CREATE_BACKGROUND_MIGRATIONS_TABLE);
+                    }
+                },
+                new Migration(7) {
+                    @Override
+                    void migrate(SQLiteDatabase db) {
+                        execAll(db, new String[]{
+                                "CREATE TABLE stock_movements (_id INTEGER PRIMARY KEY AUTOINCREMENT,"
+                                        + " item_id INTEGER NOT NULL, delta INTEGER NOT NULL, reason TEXT NOT NULL,"
+                                        + " timestamp INTEGER NOT NULL);",
+                                "CREATE INDEX stock_movements_item_idx ON stock_movements (item_id);",
+                                "CREATE INDEX stock_movements_timestamp_idx ON stock_movements (timestamp);",
+                                "CREATE TRIGGER stock_movements_delete AFTER DELETE ON items BEGIN"
+                                        + " DELETE FROM stock_movements WHERE item_id = old._id; END;"});
+                        queueBackgroundMigration(db, MOVEMENTS_BACKFILL);
+                    }
+                },
+                new Migration(8) {
+                    @Override
+                    void migrate(SQLiteDatabase db) {
+                        //Summing the items once is a single read of the table, quick enough to do
+                        //here, and the triggers need the totals to be right from the start
+                        execAll(db, new String[]{
+                                "CREATE TABLE inventory_totals (_id INTEGER PRIMARY KEY CHECK (_id = 1),"
+                                        + " item_count INTEGER NOT NULL, total_units INTEGER NOT NULL,"
+                                        + " total_value_cents INTEGER NOT NULL);",
+                                "INSERT INTO inventory_totals (_id, item_count, total_units, total_value_cents)"
+                                        + " SELECT 1, COUNT(*), IFNULL(SUM(quantity), 0),"
+                                        + " IFNULL(SUM(CAST(ROUND(items.cost * 100) AS INTEGER) * items.quantity), 0)"
+                                        + " FROM items",
+                                "CREATE TRIGGER inventory_totals_insert AFTER INSERT ON items BEGIN"
+                                        + " UPDATE inventory_totals SET item_count = item_count + 1,"
+                                        + " total_units = total_units + new.quantity,"
+                                        + " total_value_cents = total_value_cents"
+                                        + " + CAST(ROUND(new.cost * 100) AS INTEGER) * new.quantity; END;",
+                                "CREATE TRIGGER inventory_totals_update AFTER UPDATE OF cost, quantity ON items BEGIN"
+                                        + " UPDATE inventory_totals SET total_units = total_units + new.quantity - old.quantity,"
+                                        + " total_value_cents = total_value_cents"
+                                        + " + CAST(ROUND(new.cost * 100) AS INTEGER) * new.quantity"
+                                        + " - CAST(ROUND(old.cost * 100) AS INTEGER) * old.quantity; END;",
+                                "CREATE TRIGGER inventory_totals_delete AFTER DELETE ON items BEGIN"
+                                        + " UPDATE inventory_totals SET item_count = item_count - 1,"
+                                        + " total_units = total_units - old.quantity,"
+                                        + " total_value_cents = total_value_cents"
+                                        + " - CAST(ROUND(old.cost * 100) AS INTEGER) * old.quantity; END;"});
+                    }
+                },
+                new Migration(9) {
+                    @Override
+                    void migrate(SQLiteDatabase db) {
+                        db.execSQL("ALTER TABLE items ADD COLUMN version INTEGER NOT NULL DEFAULT 0");
+                        db.execSQL("ALTER TABLE items ADD COLUMN modified_at INTEGER NOT NULL DEFAULT 0");
+                        db.execSQL("ALTER TABLE items ADD COLUMN sync_id TEXT");
+                        //The backfill numbers the existing items by _ID, so counting starts after them
+                        long changeSeq = DatabaseUtils.longForQuery(db, "SELECT IFNULL(MAX(_id), 0) FROM items", null);
+                        execAll(db, new String[]{
+                                "CREATE TABLE sync_state (_id INTEGER PRIMARY KEY CHECK (_id = 1),"
+                                        + " change_seq INTEGER NOT NULL, pushed_seq INTEGER NOT NULL DEFAULT 0,"
+                                        + " pull_token TEXT, applying_remote INTEGER NOT NULL DEFAULT 0);",
+                                "INSERT INTO sync_state (_id, change_seq) VALUES (1, " + changeSeq + ");",
+                                "CREATE TABLE item_tombstones (sync_id TEXT PRIMARY KEY, version INTEGER NOT NULL,"
+                                        + " deleted_at INTEGER NOT NULL);",
+                                "CREATE INDEX item_tombstones_version_idx ON item_tombstones (version);",
+                                "CREATE INDEX items_version_idx ON items (version);",
+                                "CREATE UNIQUE INDEX items_sync_id_idx ON items (sync_id);",
+                                "CREATE TRIGGER items_sync_insert AFTER INSERT ON items"
+                                        + " WHEN (SELECT applying_remote FROM sync_state) = 0 BEGIN"
+                                        + " UPDATE sync_state SET change_seq = change_seq + 1;"
+                                        + " UPDATE items SET version = (SELECT change_seq FROM sync_state),"
+                                        + " modified_at = CAST((julianday('now') - 2440587.5) * 86400000 AS INTEGER),"
+                                        + " sync_id = IFNULL(new.sync_id, lower(hex(randomblob(16))))"
+                                        + " WHERE _id = new._id; END;",
+                                "CREATE TRIGGER items_sync_update AFTER UPDATE OF name, cost, quantity, image ON items"
+                                        + " WHEN (SELECT applying_remote FROM sync_state) = 0 BEGIN"
+                                        + " UPDATE sync_state SET change_seq = change_seq + 1;"
+                                        + " UPDATE items SET version = (SELECT change_seq FROM sync_state),"
+                                        + " modified_at = CAST((julianday('now') - 2440587.5) * 86400000 AS INTEGER),"
+                                        + " sync_id = IFNULL(new.sync_id, lower(hex(randomblob(16))))"
+                                        + " WHERE _id = new._id; END;",
+                                "CREATE TRIGGER items_sync_delete AFTER DELETE ON items"
+                                        + " WHEN (SELECT applying_remote FROM sync_state) = 0 AND old.sync_id IS NOT NULL"
+                                        + " BEGIN UPDATE sync_state SET change_seq = change_seq + 1;"
+                                        + " INSERT OR REPLACE INTO item_tombstones (sync_id, version, deleted_at)"
+                                        + " VALUES (old.sync_id, (SELECT change_seq FROM sync_state),"
+                                        + " CAST((julianday('now') - 2440587.5) * 86400000 AS INTEGER)); END;"});
+                        queueBackgroundMigration(db, SYNC_BACKFILL);
+                    }
+                },
+                new Migration(10) {
+                    @Override
+                    void migrate(SQLiteDatabase db) {
+                        //Existing items have no SKU, so the index starts out empty
+                        db.execSQL("ALTER TABLE items ADD COLUMN sku TEXT");
+                        db.execSQL("CREATE UNIQUE INDEX items_sku_idx ON items (sku);");
+                    }
+                },
+                new Migration(11) {
+                    @Override
+                    void migrate(SQLiteDatabase db) {
+                        db.execSQL("ALTER TABLE items ADD COLUMN thumbnail TEXT");
+                        db.execSQL("ALTER TABLE items ADD COLUMN medium_image TEXT");
+                        db.execSQL("CREATE INDEX items_thumbnail_idx ON items (thumbnail);");
+                        db.execSQL("CREATE INDEX items_medium_image_idx ON items (medium_image);");
+
+                        //The list reads the thumbnail from the sort indexes now
+                        execAll(db, new String[]{
+                                "DROP INDEX items_name_idx",
+                                "DROP INDEX items_quantity_idx",
+                                "DROP INDEX items_cost_idx",
+                                "CREATE INDEX items_name_idx ON items (name COLLATE NOCASE, _id, cost, quantity, thumbnail);",
+                                "CREATE INDEX items_quantity_idx ON items (quantity, _id, name, cost, thumbnail);",
+                                "CREATE INDEX items_cost_idx ON items (cost, _id, name, quantity, thumbnail);"});
+
+                        //Decoding images is far too slow for the upgrade transaction
+                        queueBackgroundMigration(db, mThumbnailBackfill);
+                    }
+                },
+                new Migration(12) {
+                    @Override
+                    void migrate(SQLiteDatabase db) {
+                        execAll(db, new String[]{
+                                "DROP TRIGGER items_sync_update",
+                                "CREATE TRIGGER items_sync_update AFTER UPDATE OF name, cost, quantity, image, sku ON items"
+                                        + " WHEN (SELECT applying_remote FROM sync_state) = 0 BEGIN"
+                                        + " UPDATE sync_state SET change_seq = change_seq + 1;"
+                                        + " UPDATE items SET version = (SELECT change_seq FROM sync_state),"
+                                        + " modified_at = CAST((julianday('now') - 2440587.5) * 86400000 AS INTEGER),"
+                                        + " sync_id = IFNULL(new.sync_id, lower(hex(randomblob(16))))"
+                                        + " WHERE _id = new._id; END;",
+                                //The SKUs given before were never sent, so the items that have one
+                                //are changed for the next sync to send them
+                                "UPDATE items SET sku = sku WHERE sku IS NOT NULL"});
+                    }
+                }
+        };
+    }
+
+    //Queue a background migration over the rows its table has now. Nothing is queued for an
+    //empty table.
+    static void queueBackgroundMigration(SQLiteDatabase db, BackgroundMigration migration) {
+        db.execSQL(SQL_CREATE_BACKGROUND_MIGRATIONS_TABLE);
+        long endId = DatabaseUtils.longForQuery(db,
+                "SELECT IFNULL(MAX(" + BaseColumns._ID + "), 0) FROM " + migration.table, null);
+        if (endId == 0) {
+            return;
+        }
+        ContentValues values = new ContentValues();
+        values.put(COLUMN_MIGRATION_NAME, migration.name);
+        values.put(COLUMN_MIGRATION_AFTER_ID, 0);
+        values.put(COLUMN_MIGRATION_END_ID, endId);
+        db.insertWithOnConflict(BACKGROUND_MIGRATIONS_TABLE_NAME, null, values, SQLiteDatabase.CONFLICT_REPLACE);
+    }
+
+    //The _ID of the last row of a chunk of at most limit rows of the table with
+    //afterId < _ID <= endId, or -1 if there are no such rows
+    private static long findChunkEnd(SQLiteDatabase db, String table, long afterId, long endId, int limit) {
+        String[] rangeArgs = {String.valueOf(afterId), String.valueOf(endId), String.valueOf(limit)};
+        Cursor cursor = db.rawQuery("SELECT MAX(" + BaseColumns._ID + ") FROM (SELECT " + BaseColumns._ID
+                + " FROM " + table + " WHERE " + BaseColumns._ID + " > ? AND " + BaseColumns._ID
+                + " <= ? ORDER BY " + BaseColumns._ID + " LIMIT ?)", rangeArgs);
+        try {
+            cursor.moveToFirst();
+            return cursor.isNull(0) ? -1 : cursor.getLong(0);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    //The background migration with the given name, or null if there is none
+    BackgroundMigration findBackgroundMigration(String name) {
+        for (BackgroundMigration migration : BACKGROUND_MIGRATIONS) {
+            if (migration.name.equals(name)) {
+                return migration;
+            }
+        }
+        if (mThumbnailBackfill.name.equals(name)) {
+            return mThumbnailBackfill;
+        }
+        return null;
+    }
+
+    private static void execAll(SQLiteDatabase db, String[] statements) {
+        for (String statement : statements) {
+            db.execSQL(statement);
+        }
+    }
+
+    //Version 1 kept each image as a BLOB in the items table. Write every one of them to the
+    //ItemImageStore and replace it with its reference.
+    private void moveImagesToStore(SQLiteDatabase db) {
+        ItemImageStore imageStore = new ItemImageStore(mContext);
+
+        //Read the ids first and then one image at a time, so only one image is in memory at once
+        Cursor ids = db.query(ItemEntry.TABLE_NAME, new String[]{ItemEntry._ID},
+                "typeof(" + ItemEntry.COLUMN_ITEM_IMAGE + ")='blob'", null, null, null, null);
+        try {
+            while (ids.moveToNext()) {
+                String[] idArgs = new String[]{ids.getString(0)};
+                Cursor row = db.query(ItemEntry.TABLE_NAME, new String[]{ItemEntry.COLUMN_ITEM_IMAGE},
+                        ItemEntry._ID + "=?", idArgs, null, null, null);
+                try {
+                    if (!row.moveToFirst()) {
+                        continue;
+                    }
+                    ContentValues values = new ContentValues();
+                    try {
+                        values.put(ItemEntry.COLUMN_ITEM_IMAGE, imageStore.put(row.getBlob(0)));
+                    } catch (IOException e) {
+                        //Losing the picture is better than failing the upgrade and the whole database
+                        Log.e(LOG_TAG, "Could not move image of item " + idArgs[0] + " to a file", e);
+                        values.putNull(ItemEntry.COLUMN_ITEM_IMAGE);
+                    }
+                    db.update(ItemEntry.TABLE_NAME, values, ItemEntry._ID + "=?", idArgs);
+                } finally {
+                    row.close();
+                }
+            }
+        } finally {
+            ids.close();
+        }
     }
 }
\ No newline at end of file
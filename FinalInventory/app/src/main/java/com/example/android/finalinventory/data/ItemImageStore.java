@@ -0,0 +1,115 @@
+package com.example.android.finalinventory.data;
+
+import android.content.Context;
+
+import com.example.android.finalinventory.core.ImageReferences;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Keeps item images as files in the app's files directory. Each file is named after the SHA-1
+ * of its contents, so the same image is only stored once and a name always refers to the same
+ * bytes. The items table only stores that name.
+ */
+public class ItemImageStore {
+
+    //Directory under getFilesDir() holding the images
+    private static final String IMAGE_DIRECTORY = "images";
+
+    //Held shared from storing an image until the row referencing it has committed, and
+    //exclusively while finding that an image is unreferenced and deleting it. Storing an image
+    //that is already there writes nothing, so without it a delete could remove the file a row is
+    //about to reference. Shared by every store in the process, as they all use one directory.
+    private static final ReentrantReadWriteLock sReferenceLock = new ReentrantReadWriteLock();
+
+    //Directory the image files are kept in
+    private final File mDirectory;
+
+    //Constructs an ItemImageStore for the app's files directory
+    public ItemImageStore(Context context) {
+        mDirectory = new File(context.getFilesDir(), IMAGE_DIRECTORY);
+    }
+
+    //Store the image bytes and return the reference to save in the items table.
+    //Nothing is written if an identical image is already stored.
+    public String put(byte[] image) throws IOException {
+        String reference = ImageReferences.hash(image);
+        File file = getFile(reference);
+        if (file.exists()) {
+            return reference;
+        }
+
+        if (!mDirectory.isDirectory() && !mDirectory.mkdirs()) {
+            throw new IOException("Could not create " + mDirectory);
+        }
+
+        //Write to a temporary file first so a half written image never has a valid name
+        File temp = File.createTempFile(reference, ".tmp", mDirectory);
+        FileOutputStream out = new FileOutputStream(temp);
+        try {
+            out.write(image);
+            out.getFD().sync();
+        } finally {
+            out.close();
+        }
+        if (!temp.renameTo(file)) {
+            temp.delete();
+            throw new IOException("Could not move image into " + file);
+        }
+        return reference;
+    }
+
+    //Returns the file holding the image with the given reference
+    public File getFile(String reference) {
+        if (!isValidReference(reference)) {
+            throw new IllegalArgumentException("Invalid image reference " + reference);
+        }
+        return new File(mDirectory, reference);
+    }
+
+    //Returns the MIME type of a stored image, worked out from the first bytes of the file
+    public String getType(String reference) {
+        byte[] header = new byte[12];
+        int read = 0;
+        try {
+            InputStream in = new FileInputStream(getFile(reference));
+            try {
+                int n;
+                while (read < header.length && (n = in.read(header, read, header.length - read)) != -1) {
+                    read += n;
+                }
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            return null;
+        }
+        return ImageReferences.getType(header, read);
+    }
+
+    //Lock to hold, shared, between put() and the commit of the rows using what it returned
+    static Lock getPutLock() {
+        return sReferenceLock.readLock();
+    }
+
+    //Lock to hold while checking that references are unused and deleting their files
+    static Lock getDeleteLock() {
+        return sReferenceLock.writeLock();
+    }
+
+    //Delete the file for a reference that no row uses anymore
+    public void delete(String reference) {
+        getFile(reference).delete();
+    }
+
+    //Whether a reference could name a stored image
+    public static boolean isValidReference(String reference) {
+        return ImageReferences.isValidReference(reference);
+    }
+}
@@ -0,0 +1,168 @@
+package com.example.android.finalinventory.data;
+
+import android.net.Uri;
+import android.text.TextUtils;
+
+import com.example.android.finalinventory.data.ItemContract.ItemEntry;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The SQL for a list of items read through the items URI with sort, filter and paging query
+ * parameters. Only a fixed set of orders and filters is accepted, each backed by an index from
+ * ItemDbHelper, so every query the list can make is known in advance and its plan can be
+ * checked with EXPLAIN QUERY PLAN.
+ */
+final class ItemListQuery {
+
+    private final String mSortKey;
+    private final List<String> mWhere = new ArrayList<>();
+    private final List<String> mArgs = new ArrayList<>();
+    private String mLimit;
+
+    //Parse the list parameters of the URI. Throws IllegalArgumentException for invalid ones.
+    ItemListQuery(Uri uri) {
+        mSortKey = getSortKey(uri.getQueryParameter(ItemContract.QUERY_PARAMETER_SORT));
+
+        //Filters
+        String quantityBelow = uri.getQueryParameter(ItemContract.QUERY_PARAMETER_QUANTITY_BELOW);
+        if (quantityBelow != null) {
+            addWhere(ItemEntry.COLUMN_ITEM_QUANTITY + " < ?", String.valueOf(parseLong(uri, quantityBelow)));
+        }
+        String minCost = uri.getQueryParameter(ItemContract.QUERY_PARAMETER_MIN_COST);
+        if (minCost != null) {
+            addWhere(ItemEntry.COLUMN_ITEM_COST + " >= ?", String.valueOf(parseDouble(uri, minCost)));
+        }
+        String maxCost = uri.getQueryParameter(ItemContract.QUERY_PARAMETER_MAX_COST);
+        if (maxCost != null) {
+            addWhere(ItemEntry.COLUMN_ITEM_COST + " <= ?", String.valueOf(parseDouble(uri, maxCost)));
+        }
+
+        //Paging
+        String limit = uri.getQueryParameter(ItemContract.QUERY_PARAMETER_LIMIT);
+        if (limit == null) {
+            return;
+        }
+        long rows = parseLong(uri, limit);
+        if (rows <= 0) {
+            throw new IllegalArgumentException("Page limit must be greater than 0 for " + uri);
+        }
+
+        String after = uri.getQueryParameter(ItemContract.QUERY_PARAMETER_AFTER);
+        String afterValue = uri.getQueryParameter(ItemContract.QUERY_PARAMETER_AFTER_VALUE);
+        if (after != null) {
+            //Keyset paging: seek straight to the first row after the previous page, which ended
+            //on the row with _ID after whose sort key was afterValue
+            String afterId = String.valueOf(parseLong(uri, after));
+            if (mSortKey.equals(ItemEntry._ID)) {
+                addWhere(ItemEntry._ID + " > ?", afterId);
+            } else {
+                if (afterValue == null) {
+                    throw new IllegalArgumentException("Paging by " + mSortKey + " needs "
+                            + ItemContract.QUERY_PARAMETER_AFTER_VALUE + " in " + uri);
+                }
+                //The same as (key, _ID) > (afterValue, afterId), written so the index on the key
+                //can seek to afterValue
+                addWhere(mSortKey + " >= ?", afterValue);
+                mWhere.add("(" + mSortKey + " > ? OR " + ItemEntry._ID + " > ?)");
+                mArgs.add(afterValue);
+                mArgs.add(afterId);
+            }
+            mLimit = String.valueOf(rows);
+        } else {
+            //Offset paging: SQLite steps over the skipped rows, so only used when the keyset is unknown
+            long offset = 0;
+            String offsetParameter = uri.getQueryParameter(ItemContract.QUERY_PARAMETER_OFFSET);
+            if (offsetParameter != null) {
+                offset = parseLong(uri, offsetParameter);
+            }
+            if (offset < 0) {
+                throw new IllegalArgumentException("Page offset cannot be negative for " + uri);
+            }
+            mLimit = offset + "," + rows;
+        }
+    }
+
+    //Whether the URI has any of the parameters handled here
+    static boolean hasListParameters(Uri uri) {
+        return uri.getQueryParameter(ItemContract.QUERY_PARAMETER_SORT) != null
+                || uri.getQueryParameter(ItemContract.QUERY_PARAMETER_QUANTITY_BELOW) != null
+                || uri.getQueryParameter(ItemContract.QUERY_PARAMETER_MIN_COST) != null
+                || uri.getQueryParameter(ItemContract.QUERY_PARAMETER_MAX_COST) != null
+                || uri.getQueryParameter(ItemContract.QUERY_PARAMETER_LIMIT) != null;
+    }
+
+    //SELECT statement for the rows, with the caller's selection added to the filters.
+    //Rows are ordered by the sort key and then by _ID, which is the order of the key's index.
+    String buildSql(String[] projection, String selection) {
+        return "SELECT " + (projection == null ? "*" : TextUtils.join(", ", projection))
+                + " FROM " + ItemEntry.TABLE_NAME
+                + buildWhere(selection)
+                + " ORDER BY " + mSortKey + (mSortKey.equals(ItemEntry._ID) ? "" : ", " + ItemEntry._ID)
+                + (mLimit == null ? "" : " LIMIT " + mLimit);
+    }
+
+    //SELECT statement counting the rows that pass the filters and the selection
+    String buildCountSql(String selection) {
+        return "SELECT COUNT(*) AS " + ItemEntry._COUNT + " FROM " + ItemEntry.TABLE_NAME + buildWhere(selection);
+    }
+
+    //Arguments of the statements above, with the caller's selection arguments after the filters'
+    String[] buildArgs(String[] selectionArgs) {
+        List<String> args = new ArrayList<>(mArgs);
+        if (selectionArgs != null) {
+            Collections.addAll(args, selectionArgs);
+        }
+        return args.toArray(new String[args.size()]);
+    }
+
+    private String buildWhere(String selection) {
+        List<String> where = new ArrayList<>(mWhere);
+        if (!TextUtils.isEmpty(selection)) {
+            where.add("(" + selection + ")");
+        }
+        return where.isEmpty() ? "" : " WHERE " + TextUtils.join(" AND ", where);
+    }
+
+    private void addWhere(String clause, String arg) {
+        mWhere.add(clause);
+        mArgs.add(arg);
+    }
+
+    //Expression the rows are sorted by for a sort parameter. Names sort without case, using
+    //the NOCASE index.
+    private static String getSortKey(String sort) {
+        if (sort == null || ItemContract.SORT_ID.equals(sort)) {
+            return ItemEntry._ID;
+        } else if (ItemContract.SORT_NAME.equals(sort)) {
+            return ItemEntry.COLUMN_ITEM_NAME + " COLLATE NOCASE";
+        } else if (ItemContract.SORT_QUANTITY.equals(sort)) {
+            return ItemEntry.COLUMN_ITEM_QUANTITY;
+        } else if (ItemContract.SORT_COST.equals(sort)) {
+            return ItemEntry.COLUMN_ITEM_COST;
+        }
+        throw new IllegalArgumentException("Unknown sort " + sort);
+    }
+
+    private static long parseLong(Uri uri, String value) {
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid number " + value + " in " + uri);
+        }
+    }
+
+    private static double parseDouble(Uri uri, String value) {
+        try {
+            double number = Double.parseDouble(value);
+            if (Double.isNaN(number) || Double.isInfinite(number)) {
+                throw new NumberFormatException();
+            }
+            return number;
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid number " + value + " in " + uri);
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package com.example.android.finalinventory.data;
+
+import android.database.Cursor;
+
+import com.example.android.finalinventory.data.ItemContract.ItemEntry;
+
+/**
+ * Reads items out of a cursor over the items table. The columns are looked up once, when the
+ * mapper is made for a cursor, and numbers are read as the primitives they are stored as, so
+ * reading a row doesn't allocate anything but its strings. A column missing from the projection
+ * reads as its default, see Item.
+ */
+public final class ItemMapper {
+
+    private final int mIdIndex;
+    private final int mNameIndex;
+    private final int mCostIndex;
+    private final int mQuantityIndex;
+    private final int mSkuIndex;
+    private final int mImageIndex;
+    private final int mThumbnailIndex;
+    private final int mMediumImageIndex;
+
+    //Constructs a mapper for the columns of the given cursor, and of any cursor with the same projection
+    public ItemMapper(Cursor cursor) {
+        mIdIndex = cursor.getColumnIndex(ItemEntry._ID);
+        mNameIndex = cursor.getColumnIndex(ItemEntry.COLUMN_ITEM_NAME);
+        mCostIndex = cursor.getColumnIndex(ItemEntry.COLUMN_ITEM_COST);
+        mQuantityIndex = cursor.getColumnIndex(ItemEntry.COLUMN_ITEM_QUANTITY);
+        mSkuIndex = cursor.getColumnIndex(ItemEntry.COLUMN_ITEM_SKU);
+        mImageIndex = cursor.getColumnIndex(ItemEntry.COLUMN_ITEM_IMAGE);
+        mThumbnailIndex = cursor.getColumnIndex(ItemEntry.COLUMN_ITEM_THUMBNAIL);
+        mMediumImageIndex = cursor.getColumnIndex(ItemEntry.COLUMN_ITEM_MEDIUM_IMAGE);
+    }
+
+    //Read the row the cursor is on
+    public Item read(Cursor cursor) {
+        return new Item(getId(cursor), getName(cursor), getCost(cursor), getQuantity(cursor), getSku(cursor),
+                getImage(cursor), getThumbnail(cursor), getMediumImage(cursor));
+    }
+
+    //Single columns of the row the cursor is on, for callers copying rows into arrays
+    public long getId(Cursor cursor) {
+        return mIdIndex == -1 ? -1 : cursor.getLong(mIdIndex);
+    }
+
+    public String getName(Cursor cursor) {
+        return getString(cursor, mNameIndex);
+    }
+
+    public double getCost(Cursor cursor) {
+        return mCostIndex == -1 ? 0 : cursor.getDouble(mCostIndex);
+    }
+
+    public int getQuantity(Cursor cursor) {
+        return mQuantityIndex == -1 ? 0 : cursor.getInt(mQuantityIndex);
+    }
+
+    public String getSku(Cursor cursor) {
+        return getString(cursor, mSkuIndex);
+    }
+
+    public String getImage(Cursor cursor) {
+        return getString(cursor, mImageIndex);
+    }
+
+    public String getThumbnail(Cursor cursor) {
+        return getString(cursor, mThumbnailIndex);
+    }
+
+    public String getMediumImage(Cursor cursor) {
+        return getString(cursor, mMediumImageIndex);
+    }
+
+    private static String getString(Cursor cursor, int index) {
+        return index == -1 ? null : cursor.getString(index);
+    }
+}
@@ -1,17 +1,50 @@
 package com.example.android.finalinventory.data;
 
 import android.content.ContentProvider;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
 import android.content.ContentUris;
 import android.content.ContentValues;
+import android.content.OperationApplicationException;
 import android.content.UriMatcher;
 import android.database.Cursor;
+import android.database.DatabaseUtils;
 import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteDoneException;
+import android.database.sqlite.SQLiteStatement;
+import android.graphics.Bitmap;
 import android.net.Uri;
+import android.os.Bundle;
+import android.os.ParcelFileDescriptor;
+import android.support.v4.os.TraceCompat;
+import android.text.TextUtils;
 import android.util.Log;
 import android.widget.Toast;
 
 import com.example.android.finalinventory.ItemEditor;
+import com.example.android.finalinventory.core.InventorySchema;
+import com.example.android.finalinventory.core.ItemValidator;
+import com.example.android.finalinventory.core.QuantityAdjustment;
+import com.example.android.finalinventory.core.StockKeeper;
+import com.example.android.finalinventory.data.ItemContract.DiagnosticsEntry;
+import com.example.android.finalinventory.data.ItemContract.ImportEntry;
 import com.example.android.finalinventory.data.ItemContract.ItemEntry;
+import com.example.android.finalinventory.data.ItemContract.MovementEntry;
+import com.example.android.finalinventory.data.ItemContract.TotalsEntry;
+
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.locks.Lock;
 
 /**
  * Content provider for the Final Inventory app
@@ -27,6 +60,32 @@ public class ItemProvider extends ContentProvider {
     //URI matcher code for the content URI for a single item in the items table
     private static final int ITEM_ID = 101;
 
+    //URI matcher code for the content URI of the number of items
+    private static final int ITEM_COUNT = 102;
+
+    //URI matcher code for the content URI searching items by name
+    private static final int ITEM_SEARCH = 103;
+    private static final int ITEM_SEARCH_COUNT = 105;
+
+    //URI matcher code for the content URI of the item with a given SKU
+    private static final int ITEM_SKU = 104;
+
+    //URI matcher code for the content URI of an image in the image store
+    private static final int IMAGE = 200;
+
+    //URI matcher codes for the content URIs of the import progress table and one import in it
+    private static final int IMPORTS = 300;
+    private static final int IMPORT_ID = 301;
+
+    //URI matcher code for the content URI of the stock movement ledger
+    private static final int MOVEMENTS = 400;
+
+    //URI matcher code for the content URI of the inventory totals
+    private static final int TOTALS = 500;
+
+    //URI matcher code for the content URI of the provider's metrics
+    private static final int DIAGNOSTICS = 600;
+
     //UriMatcher object to match a content URI to a corresponding code.
     //The input passed into the constructor represents the code to return for the root URI.
     //It's common to use NO_MATCH as the input for this case.
@@ -43,55 +102,362 @@ public class ItemProvider extends ContentProvider {
         //integer code {@link #ITEM_ID}. This URI is used to provide access to ONE single row
         //of the items table.
         sUriMatcher.addURI(ItemContract.CONTENT_AUTHORITY, ItemContract.PATH_ITEMS + "/#", ITEM_ID);
+
+        //The content URI "content://com.example.android.items/items/count" maps to {@link #ITEM_COUNT}
+        //and returns the number of items.
+        sUriMatcher.addURI(ItemContract.CONTENT_AUTHORITY, ItemContract.PATH_ITEMS + "/" + ItemContract.PATH_COUNT, ITEM_COUNT);
+
+        //The content URI "content://com.example.android.items/items/search/*" maps to {@link #ITEM_SEARCH}
+        //and returns the items whose names match the search text in the last segment.
+        sUriMatcher.addURI(ItemContract.CONTENT_AUTHORITY, ItemContract.PATH_ITEMS + "/" + ItemContract.PATH_SEARCH + "/*", ITEM_SEARCH);
+
+        //The content URI "content://com.example.android.items/items/search/*/count" maps to
+        //{@link #ITEM_SEARCH_COUNT} and returns the number of items matching the search text.
+        sUriMatcher.addURI(ItemContract.CONTENT_AUTHORITY, ItemContract.PATH_ITEMS + "/" + ItemContract.PATH_SEARCH
+                + "/*/" + ItemContract.PATH_COUNT, ITEM_SEARCH_COUNT);
+
+        //The content URI "content://com.example.android.items/items/sku/*" maps to {@link #ITEM_SKU}
+        //and gives access to the item whose SKU is the last segment, through the unique SKU index.
+        sUriMatcher.addURI(ItemContract.CONTENT_AUTHORITY, ItemContract.PATH_ITEMS + "/" + ItemContract.PATH_SKU + "/*", ITEM_SKU);
+
+        //The content URI of the form "content://com.example.android.items/images/*" will map to the
+        //integer code {@link #IMAGE}. This URI is used to read ONE image file through openFile().
+        sUriMatcher.addURI(ItemContract.CONTENT_AUTHORITY, ItemContract.PATH_IMAGES + "/*", IMAGE);
+
+        //The content URIs of the form "content://com.example.android.items/imports" and
+        //".../imports/#" map to {@link #IMPORTS} and {@link #IMPORT_ID}, for the progress of
+        //catalog imports.
+        sUriMatcher.addURI(ItemContract.CONTENT_AUTHORITY, ItemContract.PATH_IMPORTS, IMPORTS);
+        sUriMatcher.addURI(ItemContract.CONTENT_AUTHORITY, ItemContract.PATH_IMPORTS + "/#", IMPORT_ID);
+
+        //The content URI "content://com.example.android.items/stock_movements" maps to
+        //{@link #MOVEMENTS}, to read the stock movement ledger.
+        sUriMatcher.addURI(ItemContract.CONTENT_AUTHORITY, ItemContract.PATH_MOVEMENTS, MOVEMENTS);
+
+        //The content URI "content://com.example.android.items/totals" maps to {@link #TOTALS} and
+        //returns the totals of the whole inventory.
+        sUriMatcher.addURI(ItemContract.CONTENT_AUTHORITY, ItemContract.PATH_TOTALS, TOTALS);
+
+        //The content URI "content://com.example.android.items/diagnostics" maps to {@link #DIAGNOSTICS}
+        //and returns the metrics of the calls the provider has served.
+        sUriMatcher.addURI(ItemContract.CONTENT_AUTHORITY, ItemContract.PATH_DIAGNOSTICS, DIAGNOSTICS);
     }
 
+    //The totals row with its value in currency rather than the cents it is stored in
+    private static final String TOTALS_QUERY = "(SELECT " + TotalsEntry._ID + ", "
+            + TotalsEntry.COLUMN_TOTALS_ITEM_COUNT + ", " + TotalsEntry.COLUMN_TOTALS_UNITS + ", "
+            + ItemDbHelper.COLUMN_TOTALS_VALUE_CENTS + " / 100.0 AS " + TotalsEntry.COLUMN_TOTALS_VALUE
+            + " FROM " + ItemDbHelper.TOTALS_TABLE_NAME + ")";
+
+    //Appends a counted movement for every item the quantity update that follows will change,
+    //followed by the selection of the update
+    private static final String SQL_APPEND_COUNT_MOVEMENTS = "INSERT INTO " + MovementEntry.TABLE_NAME + " ("
+            + MovementEntry.COLUMN_MOVEMENT_ITEM_ID + ", " + MovementEntry.COLUMN_MOVEMENT_DELTA + ", "
+            + MovementEntry.COLUMN_MOVEMENT_REASON + ", " + MovementEntry.COLUMN_MOVEMENT_TIMESTAMP + ")"
+            + " SELECT " + ItemEntry._ID + ", ? - " + ItemEntry.COLUMN_ITEM_QUANTITY + ", '" + MovementEntry.REASON_COUNT + "', ?"
+            + " FROM " + ItemEntry.TABLE_NAME + " WHERE " + ItemEntry.COLUMN_ITEM_QUANTITY + " != ?";
+
+    //Columns holding references into the image store
+    private static final String[] IMAGE_COLUMNS = {
+            ItemEntry.COLUMN_ITEM_IMAGE,
+            ItemEntry.COLUMN_ITEM_THUMBNAIL,
+            ItemEntry.COLUMN_ITEM_MEDIUM_IMAGE};
+
+    //Selects the items using the image reference given as all three arguments
+    private static final String IMAGE_REFERENCE_SELECTION = ItemEntry.COLUMN_ITEM_IMAGE + "=? OR "
+            + ItemEntry.COLUMN_ITEM_THUMBNAIL + "=? OR " + ItemEntry.COLUMN_ITEM_MEDIUM_IMAGE + "=?";
+
+    //Selects the item with the SKU given as its argument
+    private static final String SKU_SELECTION = ItemEntry.COLUMN_ITEM_SKU + "=?";
+
+    //The _ID of the item with the SKU given as its argument
+    private static final String SQL_ID_FOR_SKU = "SELECT " + ItemEntry._ID + " FROM " + ItemEntry.TABLE_NAME
+            + " WHERE " + SKU_SELECTION;
+
     //Database helper object
     private ItemDbHelper mDbHelper;
 
+    //State of the applyBatch() running on the current thread, if any
+    private final ThreadLocal<BatchState> mBatch = new ThreadLocal<>();
+
+    //Work held back while a batch or a single write runs, done once it has committed
+    private static class BatchState {
+        //Changes made by the operations, in order, as URIs and their kind of change
+        final List<Uri> mChangedUris = new ArrayList<>();
+        final List<String> mChanges = new ArrayList<>();
+
+        //Images that operations stopped using
+        final Set<String> mReleasedImages = new HashSet<>();
+    }
+
+    //Files holding the item images
+    private ItemImageStore mImageStore;
+
+    //Sends change notifications in batches
+    private ChangeNotifier mChangeNotifier;
+
+    //Folds old stock movements into snapshots
+    private LedgerCompactor mLedgerCompactor;
+
+    //Counts and latencies of the calls served
+    private final ProviderMetrics mMetrics = new ProviderMetrics();
+
+    //Recently read items, to answer queries of single items
+    private final ItemRowCache mRowCache = new ItemRowCache();
+
     @Override
     public boolean onCreate() {
         mDbHelper = new ItemDbHelper(getContext());
+        mImageStore = new ItemImageStore(getContext());
+        mChangeNotifier = new ChangeNotifier(getContext().getContentResolver());
+
+        //Finish any data migration the last upgrade of the database left to run in the background
+        new MigrationRunner(mDbHelper, mChangeNotifier, mRowCache).start();
+
+        mLedgerCompactor = new LedgerCompactor(mDbHelper);
+        mLedgerCompactor.start();
         return true;
     }
 
     @Override
     public Cursor query(Uri uri, String[] projection, String selection, String[] selectionArgs, String sortOrder) {
+        //Figure out if the URI matcher can match the URI to a specific code
+        int match = sUriMatcher.match(uri);
+
+        TraceCompat.beginSection("ItemProvider.query");
+        long start = System.nanoTime();
+        int rows = -1;
+        try {
+            Cursor cursor = query(match, uri, projection, selection, selectionArgs, sortOrder);
+            rows = cursor.getCount();
+            return cursor;
+        } finally {
+            mMetrics.record(ProviderMetrics.QUERY, getUriPattern(match), start, rows);
+            TraceCompat.endSection();
+        }
+    }
+
+    private Cursor query(int match, Uri uri, String[] projection, String selection, String[] selectionArgs,
+                         String sortOrder) {
         //Get readable database
         SQLiteDatabase database = mDbHelper.getReadableDatabase();
 
         //Cursor that holds the results of the query
         Cursor cursor;
 
-        //Figure out if the URI matcher can match the URI to a specific code
-        int match = sUriMatcher.match(uri);
+        //URI the cursor is reloaded for, the queried URI unless a case sets a narrower one
+        Uri notificationUri = uri;
+
         switch (match) {
             case ITEMS:
-                //query the items table directly
-                cursor = database.query(ItemEntry.TABLE_NAME, projection, selection, selectionArgs, null, null, sortOrder);
+                if (ItemListQuery.hasListParameters(uri)) {
+                    //Sorted, filtered or paged by the query parameters, and only by those
+                    if (sortOrder != null) {
+                        throw new IllegalArgumentException("Sort with the " + ItemContract.QUERY_PARAMETER_SORT
+                                + " parameter instead of a sort order for " + uri);
+                    }
+                    ItemListQuery listQuery = new ItemListQuery(uri);
+                    cursor = database.rawQuery(listQuery.buildSql(projection, selection), listQuery.buildArgs(selectionArgs));
+                } else {
+                    //query the items table directly
+                    cursor = database.query(ItemEntry.TABLE_NAME, projection, selection, selectionArgs, null, null, sortOrder);
+                }
 
                 break;
             case ITEM_ID:
-                //Extract out the ID from the URI
-                //For every "?" in the selection, we need to have an element in the selection arguments that will fill in the "?".
-                selection = ItemEntry._ID + "=?";
-                selectionArgs = new String[]{String.valueOf(ContentUris.parseId(uri))};
-
-                //This will perform a query on the items table to return a Cursor containing that row of the table
+                //Extract out the ID from the URI, and answer from the cache if it holds the item
+                long id = ContentUris.parseId(uri);
+                long lookupStart = System.nanoTime();
+                cursor = mRowCache.query(id, projection);
+                if (cursor != null) {
+                    mMetrics.record(ProviderMetrics.CACHE_HIT, getUriPattern(match), lookupStart, 1);
+                } else {
+                    cursor = queryItem(database, id, projection);
+                    mMetrics.record(ProviderMetrics.CACHE_MISS, getUriPattern(match), lookupStart, cursor.getCount());
+                }
+                break;
+            case ITEM_SEARCH:
+                cursor = querySearch(database, uri, projection, selection, selectionArgs, sortOrder);
+                break;
+            case ITEM_SEARCH_COUNT:
+                //Any change to the items may add or remove matches, see ChangeNotifier
+                cursor = querySearchCount(database, uri, selection, selectionArgs);
+                notificationUri = ChangeNotifier.FILTERED_COUNT_URI;
+                break;
+            case ITEM_SKU:
+                //One lookup in the unique SKU index
+                selection = SKU_SELECTION;
+                selectionArgs = new String[]{uri.getLastPathSegment()};
                 cursor = database.query(ItemEntry.TABLE_NAME, projection, selection, selectionArgs, null, null, sortOrder);
-
                 break;
+            case ITEM_COUNT:
+                //Counts the items passing the filters in the query parameters. A filtered count
+                //is also notified when items are updated, see ChangeNotifier.
+                ItemListQuery countQuery = new ItemListQuery(uri);
+                cursor = database.rawQuery(countQuery.buildCountSql(selection), countQuery.buildArgs(selectionArgs));
+                boolean filtered = ItemEntry.isFiltered(uri) || !TextUtils.isEmpty(selection);
+                notificationUri = filtered ? ChangeNotifier.FILTERED_COUNT_URI : ChangeNotifier.ALL_COUNT_URI;
+                break;
+            case IMPORTS:
+                cursor = database.query(ImportEntry.TABLE_NAME, projection, selection, selectionArgs, null, null, sortOrder);
+                break;
+            case IMPORT_ID:
+                selection = ImportEntry._ID + "=?";
+                selectionArgs = new String[]{String.valueOf(ContentUris.parseId(uri))};
+                cursor = database.query(ImportEntry.TABLE_NAME, projection, selection, selectionArgs, null, null, sortOrder);
+                break;
+            case MOVEMENTS:
+                cursor = database.query(MovementEntry.TABLE_NAME, projection, selection, selectionArgs, null, null, sortOrder);
+                break;
+            case TOTALS:
+                //One row kept up to date by triggers, nothing is summed here
+                cursor = database.query(TOTALS_QUERY, projection, selection, selectionArgs, null, null, sortOrder);
+                break;
+            case DIAGNOSTICS:
+                //A snapshot taken now, it isn't notified as the metrics change
+                return mMetrics.snapshot();
             default:
                 throw new IllegalArgumentException("Cannot query unknown URI " + uri);
         }
 
+        //Fill the first cursor window now, on this thread rather than the caller's. Only a result
+        //that fits in one window, such as a page of the list or search, is read from one WAL
+        //snapshot: a larger result reruns its query for every later window it fills, and can see
+        //writes committed in between. Queries that need a consistent view must page.
+        cursor.getCount();
+
         //Set notification URI on the Cursor, so we know what content URI the Cursor was created for.
         //If the data at this URI changes, then we know we need to update the Cursor.
-        cursor.setNotificationUri(getContext().getContentResolver(), uri);
+        cursor.setNotificationUri(getContext().getContentResolver(), notificationUri);
 
         //Return the cursor
         return cursor;
     }
 
+    //Read the item with the given _ID, and cache its whole row for the next query of it. A
+    //projection with anything but the row's columns is queried as it is.
+    private Cursor queryItem(SQLiteDatabase database, long id, String[] projection) {
+        //For every "?" in the selection, we need to have an element in the selection arguments that will fill in the "?".
+        String selection = ItemEntry._ID + "=?";
+        String[] selectionArgs = {String.valueOf(id)};
+
+        long version = mRowCache.getVersion();
+        ItemRowCache.Row row = null;
+        Cursor cursor = database.query(ItemEntry.TABLE_NAME, null, selection, selectionArgs, null, null, null);
+        try {
+            if (cursor.moveToFirst()) {
+                row = new ItemRowCache.Row(cursor);
+            }
+        } finally {
+            cursor.close();
+        }
+
+        if (row != null) {
+            mRowCache.put(id, row, version);
+            Cursor projected = row.toCursor(projection);
+            if (projected != null) {
+                return projected;
+            }
+        }
+
+        //This will perform a query on the items table to return a Cursor containing that row of the table
+        return database.query(ItemEntry.TABLE_NAME, projection, selection, selectionArgs, null, null, null);
+    }
+
+    //Query the items whose names contain a word starting with each word of the search text.
+    //The full-text index finds the matching _IDs, so the items table is only read for matches.
+    //Unless a sort order is given, names starting with the first word come first, then shorter
+    //names, as those are closest to what was typed. Pages are read with the limit and offset
+    //parameters.
+    private Cursor querySearch(SQLiteDatabase database, Uri uri, String[] projection, String selection,
+                               String[] selectionArgs, String sortOrder) {
+        List<String> words = parseSearchWords(uri.getLastPathSegment());
+
+        //Nothing to search for matches nothing
+        if (words.isEmpty()) {
+            return database.query(ItemEntry.TABLE_NAME, projection, "0", null, null, null, null);
+        }
+
+        List<String> args = new ArrayList<>();
+        StringBuilder sql = new StringBuilder("SELECT ")
+                .append(projection == null ? ItemEntry.TABLE_NAME + ".*" : TextUtils.join(", ", projection));
+        appendSearchMatches(sql, args, words, selection, selectionArgs);
+        if (TextUtils.isEmpty(sortOrder)) {
+            sql.append(" ORDER BY ").append(ItemEntry.COLUMN_ITEM_NAME).append(" LIKE ? DESC, length(")
+                    .append(ItemEntry.COLUMN_ITEM_NAME).append("), ").append(ItemEntry.TABLE_NAME).append('.').append(ItemEntry._ID);
+            args.add(words.get(0) + "%");
+        } else {
+            sql.append(" ORDER BY ").append(sortOrder);
+        }
+        if (uri.getQueryParameter(ItemContract.QUERY_PARAMETER_LIMIT) != null) {
+            sql.append(" LIMIT ").append(parsePageParameter(uri, ItemContract.QUERY_PARAMETER_LIMIT));
+            if (uri.getQueryParameter(ItemContract.QUERY_PARAMETER_OFFSET) != null) {
+                sql.append(" OFFSET ").append(parsePageParameter(uri, ItemContract.QUERY_PARAMETER_OFFSET));
+            }
+        }
+
+        return database.rawQuery(sql.toString(), args.toArray(new String[args.size()]));
+    }
+
+    //Count the items the search text in the segment before "count" matches, in the _count column
+    private Cursor querySearchCount(SQLiteDatabase database, Uri uri, String selection, String[] selectionArgs) {
+        List<String> segments = uri.getPathSegments();
+        List<String> words = parseSearchWords(segments.get(segments.size() - 2));
+        if (words.isEmpty()) {
+            return database.rawQuery("SELECT 0 AS " + ItemEntry._COUNT, null);
+        }
+
+        List<String> args = new ArrayList<>();
+        StringBuilder sql = new StringBuilder("SELECT COUNT(*) AS ").append(ItemEntry._COUNT);
+        appendSearchMatches(sql, args, words, selection, selectionArgs);
+        return database.rawQuery(sql.toString(), args.toArray(new String[args.size()]));
+    }
+
+    //The words of a search text, split at anything that isn't a letter or a digit
+    private static List<String> parseSearchWords(String text) {
+        List<String> words = new ArrayList<>();
+        for (String word : text.split("[^\\p{L}\\p{N}]+")) {
+            if (!word.isEmpty()) {
+                words.add(word);
+            }
+        }
+        return words;
+    }
+
+    //Append the FROM and WHERE clauses selecting the items that match every word, and their args
+    private static void appendSearchMatches(StringBuilder sql, List<String> args, List<String> words,
+                                            String selection, String[] selectionArgs) {
+        //Each word becomes a prefix query, and all of them have to match
+        StringBuilder match = new StringBuilder();
+        for (String word : words) {
+            if (match.length() > 0) {
+                match.append(' ');
+            }
+            match.append(word).append('*');
+        }
+        args.add(match.toString());
+
+        sql.append(" FROM ").append(ItemEntry.TABLE_NAME)
+                .append(" JOIN (SELECT docid FROM ").append(ItemDbHelper.FTS_TABLE_NAME)
+                .append(" WHERE ").append(ItemDbHelper.FTS_TABLE_NAME).append(" MATCH ?) AS matches")
+                .append(" ON ").append(ItemEntry.TABLE_NAME).append('.').append(ItemEntry._ID).append(" = matches.docid");
+        if (!TextUtils.isEmpty(selection)) {
+            sql.append(" WHERE (").append(selection).append(')');
+            if (selectionArgs != null) {
+                Collections.addAll(args, selectionArgs);
+            }
+        }
+    }
+
+    //Read a numeric paging parameter from the URI
+    private static long parsePageParameter(Uri uri, String name) {
+        try {
+            return Long.parseLong(uri.getQueryParameter(name));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid " + name + " parameter in " + uri);
+        }
+    }
+
     @Override
     public String getType(Uri uri) {
         final int match = sUriMatcher.match(uri);
@@ -99,95 +465,771 @@ public class ItemProvider extends ContentProvider {
             case ITEMS:
                 return ItemEntry.CONTENT_LIST_TYPE;
             case ITEM_ID:
+            case ITEM_COUNT:
+            case ITEM_SEARCH_COUNT:
+            case ITEM_SKU:
                 return ItemEntry.CONTENT_ITEM_TYPE;
+            case ITEM_SEARCH:
+                return ItemEntry.CONTENT_LIST_TYPE;
+            case IMAGE:
+                return getImageFile(uri).exists() ? mImageStore.getType(uri.getLastPathSegment()) : null;
+            case IMPORTS:
+                return ImportEntry.CONTENT_LIST_TYPE;
+            case IMPORT_ID:
+                return ImportEntry.CONTENT_ITEM_TYPE;
+            case MOVEMENTS:
+                return MovementEntry.CONTENT_LIST_TYPE;
+            case TOTALS:
+                return TotalsEntry.CONTENT_ITEM_TYPE;
+            case DIAGNOSTICS:
+                return DiagnosticsEntry.CONTENT_LIST_TYPE;
             default:
                 throw new IllegalArgumentException("Unknown URI " + uri + " with match " + match);
         }
     }
 
+    //The pattern of the URIs a match code stands for, to group the metrics by
+    private static String getUriPattern(int match) {
+        switch (match) {
+            case ITEMS:
+                return ItemContract.PATH_ITEMS;
+            case ITEM_ID:
+                return ItemContract.PATH_ITEMS + "/#";
+            case ITEM_COUNT:
+                return ItemContract.PATH_ITEMS + "/" + ItemContract.PATH_COUNT;
+            case ITEM_SEARCH:
+                return ItemContract.PATH_ITEMS + "/" + ItemContract.PATH_SEARCH + "/*";
+            case ITEM_SEARCH_COUNT:
+                return ItemContract.PATH_ITEMS + "/" + ItemContract.PATH_SEARCH + "/*/" + ItemContract.PATH_COUNT;
+            case ITEM_SKU:
+                return ItemContract.PATH_ITEMS + "/" + ItemContract.PATH_SKU + "/*";
+            case IMAGE:
+                return ItemContract.PATH_IMAGES + "/*";
+            case IMPORTS:
+                return ItemContract.PATH_IMPORTS;
+            case IMPORT_ID:
+                return ItemContract.PATH_IMPORTS + "/#";
+            case MOVEMENTS:
+                return ItemContract.PATH_MOVEMENTS;
+            case TOTALS:
+                return ItemContract.PATH_TOTALS;
+            case DIAGNOSTICS:
+                return ItemContract.PATH_DIAGNOSTICS;
+            default:
+                return "unknown";
+        }
+    }
+
+    //Written by "adb shell dumpsys activity provider ItemProvider", and in bug reports
+    @Override
+    public void dump(FileDescriptor fd, PrintWriter writer, String[] args) {
+        mMetrics.dump(writer);
+    }
+
+    //Images are streamed straight from their file instead of being copied through a Cursor.
+    //openTypedAssetFile() ends up here too, after checking the requested type against getType().
+    @Override
+    public ParcelFileDescriptor openFile(Uri uri, String mode) throws FileNotFoundException {
+        if (sUriMatcher.match(uri) != IMAGE) {
+            throw new FileNotFoundException("No file for " + uri);
+        }
+        if (!"r".equals(mode)) {
+            throw new IllegalArgumentException("Images can only be opened for reading, not " + mode);
+        }
+        return ParcelFileDescriptor.open(getImageFile(uri), ParcelFileDescriptor.MODE_READ_ONLY);
+    }
+
+    //Returns the image store file named by an images/* URI
+    private File getImageFile(Uri uri) {
+        String reference = uri.getLastPathSegment();
+        if (!ItemImageStore.isValidReference(reference)) {
+            throw new IllegalArgumentException("Unknown image " + uri);
+        }
+        return mImageStore.getFile(reference);
+    }
+
+    //If the values carry image bytes, write them to the image store and put the reference
+    //in their place, so the row only ever holds the reference. The thumbnail and medium versions
+    //of the image are made and stored here too, once, rather than by every view showing it.
+    private void moveImageToStore(ContentValues values) {
+        //The smaller versions only ever come from the image
+        values.remove(ItemEntry.COLUMN_ITEM_THUMBNAIL);
+        values.remove(ItemEntry.COLUMN_ITEM_MEDIUM_IMAGE);
+        if (!values.containsKey(ItemEntry.COLUMN_ITEM_IMAGE)) {
+            return;
+        }
+
+        byte[] image = values.getAsByteArray(ItemEntry.COLUMN_ITEM_IMAGE);
+        if (image == null) {
+            //Removing the image removes its versions with it
+            if (values.get(ItemEntry.COLUMN_ITEM_IMAGE) == null) {
+                values.putNull(ItemEntry.COLUMN_ITEM_THUMBNAIL);
+                values.putNull(ItemEntry.COLUMN_ITEM_MEDIUM_IMAGE);
+            }
+            return;
+        }
+
+        TraceCompat.beginSection("ItemProvider.storeImage");
+        try {
+            String reference = mImageStore.put(image);
+            values.put(ItemEntry.COLUMN_ITEM_IMAGE, reference);
+            Bitmap bitmap = ImageRenditions.decode(image);
+            if (bitmap == null) {
+                //Bytes that don't decode have nothing smaller to show either
+                values.putNull(ItemEntry.COLUMN_ITEM_THUMBNAIL);
+                values.putNull(ItemEntry.COLUMN_ITEM_MEDIUM_IMAGE);
+            } else {
+                try {
+                    ImageRenditions.put(mImageStore, reference, bitmap, values);
+                } finally {
+                    bitmap.recycle();
+                }
+            }
+        } catch (IOException e) {
+            //Keep the rest of the item rather than losing it over the picture
+            Log.e(LOG_TAG, "Failed to store image", e);
+            values.remove(ItemEntry.COLUMN_ITEM_IMAGE);
+            values.remove(ItemEntry.COLUMN_ITEM_THUMBNAIL);
+            values.remove(ItemEntry.COLUMN_ITEM_MEDIUM_IMAGE);
+        } finally {
+            TraceCompat.endSection();
+        }
+    }
+
+    //Returns the references of the images, and of their smaller versions, of the rows matching
+    //the selection
+    private Set<String> queryImageReferences(SQLiteDatabase database, String selection, String[] selectionArgs) {
+        Set<String> references = new HashSet<>();
+        String imageSelection = ItemEntry.COLUMN_ITEM_IMAGE + " IS NOT NULL";
+        if (selection != null) {
+            imageSelection = "(" + selection + ") AND " + imageSelection;
+        }
+        Cursor cursor = database.query(true, ItemEntry.TABLE_NAME, IMAGE_COLUMNS,
+                imageSelection, selectionArgs, null, null, null, null);
+        try {
+            while (cursor.moveToNext()) {
+                for (int i = 0; i < IMAGE_COLUMNS.length; i++) {
+                    if (!cursor.isNull(i)) {
+                        references.add(cursor.getString(i));
+                    }
+                }
+            }
+        } finally {
+            cursor.close();
+        }
+        return references;
+    }
+
+    //Delete the image files that are no longer referenced by any item. Images are shared
+    //between items with the same picture, so a file can only go once its last item has.
+    //Writes that store images hold the image store's put lock until they commit, so none of them
+    //can be about to reference an image found unused here.
+    private void deleteUnreferencedImages(SQLiteDatabase database, Set<String> references) {
+        if (references.isEmpty()) {
+            return;
+        }
+        Lock deleteLock = ItemImageStore.getDeleteLock();
+        deleteLock.lock();
+        try {
+            for (String reference : references) {
+                if (!ItemImageStore.isValidReference(reference)) {
+                    continue;
+                }
+                //Uses the index on each image column. A small image is its own thumbnail, so a
+                //reference can be in any of them.
+                Cursor cursor = database.query(ItemEntry.TABLE_NAME, new String[]{ItemEntry._ID},
+                        IMAGE_REFERENCE_SELECTION, new String[]{reference, reference, reference}, null, null, null, "1");
+                try {
+                    if (cursor.getCount() == 0) {
+                        mImageStore.delete(reference);
+                    }
+                } finally {
+                    cursor.close();
+                }
+            }
+        } finally {
+            deleteLock.unlock();
+        }
+    }
+
     @Override
     public Uri insert(Uri uri, ContentValues contentValues) {
         final int match = sUriMatcher.match(uri);
+        TraceCompat.beginSection("ItemProvider.insert");
+        long start = System.nanoTime();
+        int rows = -1;
+        BatchState write = startWrite();
+        try {
+            Uri insertedUri = insert(match, uri, contentValues);
+            rows = insertedUri == null ? 0 : 1;
+            return insertedUri;
+        } finally {
+            finishWrite(write);
+            mMetrics.record(ProviderMetrics.INSERT, getUriPattern(match), start, rows);
+            TraceCompat.endSection();
+        }
+    }
+
+    private Uri insert(int match, Uri uri, ContentValues contentValues) {
         switch (match) {
             case ITEMS:
                 return insertItem(uri, contentValues);
+            case IMPORTS:
+                return insertImport(uri, contentValues);
             default:
                 throw new IllegalArgumentException("Insertion is not supported for " + uri);
         }
     }
 
-    //Inserts an item into the items table with the given content values
+    //Inserts an item into the items table with the given content values, or updates the item
+    //with the same SKU if there is one, so repeated imports and scans write an item once.
     //Returns the new content URI for that specific row in the database
     private Uri insertItem(Uri uri, ContentValues values) {
-        //Check that the name is not null
-        String name = values.getAsString(ItemEntry.COLUMN_ITEM_NAME);
-        if (name == null) {
-            throw new IllegalArgumentException("Item requires a name");
+        //Check that the values make a valid item
+        validateNewItem(values);
+
+        //Keep the image as a file and only store its reference in the row
+        boolean hasImage = values.containsKey(ItemEntry.COLUMN_ITEM_IMAGE);
+        moveImageToStore(values);
+
+        //Get a writable database
+        SQLiteDatabase database = mDbHelper.getWritableDatabase();
+
+        //An item updated by SKU may be replacing its image
+        String sku = values.getAsString(ItemEntry.COLUMN_ITEM_SKU);
+        String[] skuArgs = {sku};
+        Set<String> replacedImages = null;
+        if (sku != null && hasImage) {
+            replacedImages = queryImageReferences(database, SKU_SELECTION, skuArgs);
         }
 
-        //Check that price is valid
-        Float price = values.getAsFloat(ItemEntry.COLUMN_ITEM_COST);
-        if (price != null && price < 0) {
-            throw new IllegalArgumentException("Item requires a price greater than $0.00");
+        //Update the item with the SKU, or insert the new item with the given values, and record
+        //its quantity in the ledger
+        long id = -1;
+        boolean inserted = false;
+        int movementsAppended = 0;
+        Integer quantity = values.getAsInteger(ItemEntry.COLUMN_ITEM_QUANTITY);
+        database.beginTransaction();
+        try {
+            if (sku != null) {
+                if (quantity != null) {
+                    movementsAppended = appendCountMovements(database, quantity, SKU_SELECTION, skuArgs);
+                }
+                id = updateBySku(database, values, skuArgs);
+            }
+            if (id == -1) {
+                id = database.insert(ItemEntry.TABLE_NAME, null, values);
+                inserted = id != -1;
+                if (inserted && quantity != null && quantity != 0) {
+                    SqliteStockStore.appendMovement(database, id, quantity, MovementEntry.REASON_COUNT);
+                    movementsAppended = 1;
+                }
+            }
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
         }
 
-        if (price == null) {
-            throw new IllegalArgumentException("Item requires a price");
+        //If the ID is -1, then the insertion failed. Log an error and return null.
+        if (id == -1) {
+            Log.e(LOG_TAG, "Failed to insert row for " + uri);
+            return null;
         }
 
-        //Check that the quantity greater than 0
-        Integer quantity = values.getAsInteger(ItemEntry.COLUMN_ITEM_QUANTITY);
-        if (quantity != null && quantity < 0) {
-            throw new IllegalArgumentException("Item requires a quantity greater than 0");
+        if (replacedImages != null) {
+            releaseImages(database, replacedImages);
+        }
+
+        //Return the new URI with the ID (of the newly inserted row) appended at the end,
+        //after notifying all listeners that the item has been added or updated
+        Uri itemUri = ContentUris.withAppendedId(uri, id);
+        notifyChange(itemUri, inserted ? ItemContract.CHANGE_INSERT : ItemContract.CHANGE_UPDATE);
+        movementsAppended(movementsAppended);
+        return itemUri;
+    }
+
+    //Check that the values of a new item are valid, throws IllegalArgumentException if not
+    private static void validateNewItem(ContentValues values) {
+        ItemValidator.validateNewItem(values.getAsString(ItemEntry.COLUMN_ITEM_NAME),
+                values.getAsFloat(ItemEntry.COLUMN_ITEM_COST),
+                values.getAsInteger(ItemEntry.COLUMN_ITEM_QUANTITY));
+        ItemValidator.validateSku(values.getAsString(ItemEntry.COLUMN_ITEM_SKU));
+    }
+
+    //Update the item with the given SKU to the values, for an insert that upserts on SKU. The
+    //update finds the item through the unique index, so nothing is looked up before writing.
+    //Returns the _ID of the item, or -1 if no item has the SKU and the values are to be inserted.
+    private static long updateBySku(SQLiteDatabase database, ContentValues values, String[] skuArgs) {
+        if (database.update(ItemEntry.TABLE_NAME, values, SKU_SELECTION, skuArgs) == 0) {
+            return -1;
+        }
+        return DatabaseUtils.longForQuery(database, SQL_ID_FOR_SKU, skuArgs);
+    }
+
+    //The _ID of the item with the given SKU, or -1 if there is none
+    private static long queryIdForSku(SQLiteDatabase database, String sku) {
+        try {
+            return DatabaseUtils.longForQuery(database, SQL_ID_FOR_SKU, new String[]{sku});
+        } catch (SQLiteDoneException e) {
+            return -1;
+        }
+    }
+
+    //Insert many items in one transaction. Every row is validated before anything is written, and
+    //rows with the same columns share one compiled INSERT statement. A row with the SKU of an
+    //existing item updates that item instead, as insert() does. Observers are notified once,
+    //after the transaction commits.
+    @Override
+    public int bulkInsert(Uri uri, ContentValues[] values) {
+        final int match = sUriMatcher.match(uri);
+        TraceCompat.beginSection("ItemProvider.bulkInsert");
+        long start = System.nanoTime();
+        int rows = -1;
+        BatchState write = startWrite();
+        try {
+            rows = bulkInsertItems(match, uri, values);
+            return rows;
+        } finally {
+            finishWrite(write);
+            mMetrics.record(ProviderMetrics.BULK_INSERT, getUriPattern(match), start, rows);
+            TraceCompat.endSection();
+        }
+    }
+
+    private int bulkInsertItems(int match, Uri uri, ContentValues[] values) {
+        if (match != ITEMS) {
+            throw new IllegalArgumentException("Insertion is not supported for " + uri);
+        }
+
+        for (ContentValues itemValues : values) {
+            validateNewItem(itemValues);
         }
 
-        //Get a writable database
         SQLiteDatabase database = mDbHelper.getWritableDatabase();
+        Set<String> replacedImages = new HashSet<>();
+        for (ContentValues itemValues : values) {
+            String sku = itemValues.getAsString(ItemEntry.COLUMN_ITEM_SKU);
+            if (sku != null && itemValues.containsKey(ItemEntry.COLUMN_ITEM_IMAGE)) {
+                replacedImages.addAll(queryImageReferences(database, SKU_SELECTION, new String[]{sku}));
+            }
+            moveImageToStore(itemValues);
+        }
 
-        //Insert the new item with the given values
-        long id = database.insert(ItemEntry.TABLE_NAME, null, values);
+        Map<String, SQLiteStatement> statements = new HashMap<>();
+        SQLiteStatement movementStatement = null;
+        int rowsInserted = 0;
+        List<Long> updatedIds = new ArrayList<>();
+        int movementsAppended = 0;
+        long now = System.currentTimeMillis();
 
-        //If the ID is -1, then the insertion failed. Log an error and return null.
+        database.beginTransaction();
+        try {
+            movementStatement = database.compileStatement(InventorySchema.SQL_APPEND_MOVEMENT);
+            for (ContentValues itemValues : values) {
+                //Rows with a SKU update the item that has it, if any
+                String sku = itemValues.getAsString(ItemEntry.COLUMN_ITEM_SKU);
+                if (sku != null) {
+                    String[] skuArgs = {sku};
+                    Integer quantity = itemValues.getAsInteger(ItemEntry.COLUMN_ITEM_QUANTITY);
+                    if (quantity != null) {
+                        movementsAppended += appendCountMovements(database, quantity, SKU_SELECTION, skuArgs);
+                    }
+                    long updatedId = updateBySku(database, itemValues, skuArgs);
+                    if (updatedId != -1) {
+                        updatedIds.add(updatedId);
+                        continue;
+                    }
+                }
+
+                //Sort the columns so the same set of columns always maps to the same statement
+                List<String> columns = new ArrayList<>(itemValues.keySet());
+                Collections.sort(columns);
+                String key = TextUtils.join(",", columns);
+
+                SQLiteStatement statement = statements.get(key);
+                if (statement == null) {
+                    statement = database.compileStatement(buildInsertSql(columns));
+                    statements.put(key, statement);
+                }
+
+                statement.clearBindings();
+                for (int i = 0; i < columns.size(); i++) {
+                    bindValue(statement, i + 1, itemValues.get(columns.get(i)));
+                }
+                long id = statement.executeInsert();
+                rowsInserted++;
+
+                //Record the starting quantity in the ledger
+                Integer quantity = itemValues.getAsInteger(ItemEntry.COLUMN_ITEM_QUANTITY);
+                if (quantity != null && quantity != 0) {
+                    SqliteStockStore.bindMovement(movementStatement, id, quantity, MovementEntry.REASON_COUNT, now);
+                    movementStatement.executeInsert();
+                    movementsAppended++;
+                }
+            }
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+            for (SQLiteStatement statement : statements.values()) {
+                statement.close();
+            }
+            if (movementStatement != null) {
+                movementStatement.close();
+            }
+        }
+
+        releaseImages(database, replacedImages);
+
+        //Notify all listeners once for the new rows. Updated items are notified one by one, so
+        //only they are dropped from the cache; the ChangeNotifier still sends many of them as one
+        //change to the table.
+        if (rowsInserted != 0) {
+            notifyChange(uri, ItemContract.CHANGE_INSERT);
+        }
+        for (long id : updatedIds) {
+            notifyChange(ContentUris.withAppendedId(ItemEntry.CONTENT_URI, id), ItemContract.CHANGE_UPDATE);
+        }
+        movementsAppended(movementsAppended);
+        return rowsInserted + updatedIds.size();
+    }
+
+    //Builds "INSERT INTO items (a, b) VALUES (?, ?)" for the given columns
+    private static String buildInsertSql(List<String> columns) {
+        StringBuilder sql = new StringBuilder("INSERT INTO ").append(ItemEntry.TABLE_NAME).append(" (");
+        StringBuilder placeholders = new StringBuilder();
+        for (int i = 0; i < columns.size(); i++) {
+            if (i > 0) {
+                sql.append(", ");
+                placeholders.append(", ");
+            }
+            sql.append(columns.get(i));
+            placeholders.append('?');
+        }
+        return sql.append(") VALUES (").append(placeholders).append(')').toString();
+    }
+
+    //Bind a ContentValues value to a statement the same way SQLiteDatabase.insert() would
+    private static void bindValue(SQLiteStatement statement, int index, Object value) {
+        if (value == null) {
+            statement.bindNull(index);
+        } else if (value instanceof byte[]) {
+            statement.bindBlob(index, (byte[]) value);
+        } else if (value instanceof Float || value instanceof Double) {
+            statement.bindDouble(index, ((Number) value).doubleValue());
+        } else if (value instanceof Number) {
+            statement.bindLong(index, ((Number) value).longValue());
+        } else if (value instanceof Boolean) {
+            statement.bindLong(index, (Boolean) value ? 1 : 0);
+        } else {
+            statement.bindString(index, value.toString());
+        }
+    }
+
+    //Apply all the operations in one transaction, so a batch is written completely or not at all.
+    //Each operation is validated by insert/update like any other call and an invalid one rolls back
+    //the whole batch. SQLite keeps the statements the operations compile cached on its connection,
+    //so repeated operations reuse them. Observers are notified once, after the batch commits.
+    @Override
+    public ContentProviderResult[] applyBatch(ArrayList<ContentProviderOperation> operations)
+            throws OperationApplicationException {
+        SQLiteDatabase database = mDbHelper.getWritableDatabase();
+        BatchState batch = new BatchState();
+        mBatch.set(batch);
+
+        //Images the operations store are only referenced once the batch commits
+        ItemImageStore.getPutLock().lock();
+        ContentProviderResult[] results;
+        database.beginTransaction();
+        try {
+            results = super.applyBatch(operations);
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+            mBatch.remove();
+            ItemImageStore.getPutLock().unlock();
+        }
+
+        finishBatch(database, batch);
+        return results;
+    }
+
+    //Start a single insert or update, which may store images. Until finishWrite() the images it
+    //stores can't be deleted as unreferenced, and the images it releases and the changes it makes
+    //are held back like those of a batch. Returns what is held back, or null inside applyBatch(),
+    //which finishes it with the batch.
+    private BatchState startWrite() {
+        ItemImageStore.getPutLock().lock();
+        if (mBatch.get() != null) {
+            return null;
+        }
+        BatchState write = new BatchState();
+        mBatch.set(write);
+        return write;
+    }
+
+    //Finish a write begun with startWrite(), once it has committed or failed
+    private void finishWrite(BatchState write) {
+        if (write != null) {
+            mBatch.remove();
+        }
+        ItemImageStore.getPutLock().unlock();
+        if (write != null) {
+            finishBatch(mDbHelper.getWritableDatabase(), write);
+        }
+    }
+
+    //Do the work a batch held back. Only now that it has committed can image files it stopped
+    //using be removed.
+    private void finishBatch(SQLiteDatabase database, BatchState batch) {
+        deleteUnreferencedImages(database, batch.mReleasedImages);
+        for (int i = 0; i < batch.mChangedUris.size(); i++) {
+            dispatchChange(batch.mChangedUris.get(i), batch.mChanges.get(i));
+        }
+    }
+
+    //Notify all listeners that the data at the URI has had a change of the given kind. The
+    //ChangeNotifier sends it together with other changes made around the same time. Inside
+    //applyBatch() or an insert or update it is held back until that has finished.
+    private void notifyChange(Uri uri, String change) {
+        BatchState batch = mBatch.get();
+        if (batch != null) {
+            batch.mChangedUris.add(uri);
+            batch.mChanges.add(change);
+            return;
+        }
+        dispatchChange(uri, change);
+    }
+
+    //Pass a committed change on to the ChangeNotifier, and drop the cached items it may have
+    //changed: the item of an item URI, or every item for a change to rows chosen by a selection.
+    //Only items that existed before can be cached, so inserts into the table drop nothing, and
+    //changes to other tables leave the cache alone.
+    private void dispatchChange(Uri uri, String change) {
+        int match = sUriMatcher.match(uri);
+        if (match == ITEM_ID) {
+            mRowCache.invalidate(ContentUris.parseId(uri));
+        } else if (match == ITEMS && !ItemContract.CHANGE_INSERT.equals(change)) {
+            mRowCache.invalidateAll();
+        }
+        mChangeNotifier.add(uri, change);
+    }
+
+    //Remove image files the given references no longer need. Inside applyBatch() this waits until
+    //the batch commits, since a rollback would bring the references back, and inside an insert or
+    //update until it no longer holds the image store's put lock.
+    private void releaseImages(SQLiteDatabase database, Set<String> references) {
+        BatchState batch = mBatch.get();
+        if (batch != null) {
+            batch.mReleasedImages.addAll(references);
+            return;
+        }
+        deleteUnreferencedImages(database, references);
+    }
+
+    @Override
+    public Bundle call(String method, String arg, Bundle extras) {
+        if (ItemContract.METHOD_ADJUST_QUANTITY.equals(method)) {
+            if (arg == null || extras == null || !extras.containsKey(ItemContract.EXTRA_DELTA)) {
+                throw new IllegalArgumentException("Adjusting a quantity requires an item id and a delta");
+            }
+            long id;
+            try {
+                id = Long.parseLong(arg);
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Invalid item id " + arg);
+            }
+            return adjustQuantity(id, extras.getInt(ItemContract.EXTRA_DELTA));
+        }
+        if (ItemContract.METHOD_SYNC.equals(method)) {
+            if (TextUtils.isEmpty(arg)) {
+                throw new IllegalArgumentException("Syncing requires the URL of the sync server");
+            }
+            return sync(arg);
+        }
+        return super.call(method, arg, extras);
+    }
+
+    //Exchange changes with the sync server, and notify observers of what it changed here, also
+    //when the sync stops part way
+    private Bundle sync(String baseUrl) {
+        SQLiteDatabase database = mDbHelper.getWritableDatabase();
+        SyncEngine engine = new SyncEngine(database, baseUrl);
+        Bundle result = new Bundle();
+        if (!engine.isReady()) {
+            result.putString(ItemContract.EXTRA_ERROR, "Items are still being prepared for sync");
+            return result;
+        }
+
+        SyncEngine.Result sync = new SyncEngine.Result();
+        mRowCache.beginWrite();
+        try {
+            engine.sync(sync);
+        } catch (IOException e) {
+            Log.w(LOG_TAG, "Sync with " + baseUrl + " stopped", e);
+            result.putString(ItemContract.EXTRA_ERROR, e.getMessage());
+        } finally {
+            mRowCache.endWrite();
+            releaseImages(database, sync.mReleasedImages);
+            if (sync.mInserted) {
+                notifyChange(ItemEntry.CONTENT_URI, ItemContract.CHANGE_INSERT);
+            }
+            if (sync.mUpdated) {
+                notifyChange(ItemEntry.CONTENT_URI, ItemContract.CHANGE_UPDATE);
+            }
+            if (sync.mDeleted) {
+                notifyChange(ItemEntry.CONTENT_URI, ItemContract.CHANGE_DELETE);
+            }
+            movementsAppended(sync.mMovementsAppended);
+        }
+
+        result.putInt(ItemContract.EXTRA_PUSHED, sync.mPushed);
+        result.putInt(ItemContract.EXTRA_PULLED, sync.mPulled);
+        return result;
+    }
+
+    //Add delta to the quantity of an item, refusing to take it below 0, and record the change in
+    //the ledger. Returns whether the quantity changed and what it is now.
+    private Bundle adjustQuantity(long id, int delta) {
+        SqliteStockStore store = new SqliteStockStore(mDbHelper.getWritableDatabase());
+        QuantityAdjustment adjustment = store.adjustQuantity(id, delta, StockKeeper.reasonFor(delta));
+
+        Bundle result = new Bundle();
+        result.putBoolean(ItemContract.EXTRA_ADJUSTED, adjustment.isAdjusted());
+        if (adjustment.getQuantity() >= 0) {
+            result.putInt(ItemContract.EXTRA_QUANTITY, adjustment.getQuantity());
+        }
+
+        //Notify all listeners that the item has changed
+        if (adjustment.isAdjusted()) {
+            notifyChange(ContentUris.withAppendedId(ItemEntry.CONTENT_URI, id), ItemContract.CHANGE_UPDATE);
+            if (delta != 0) {
+                movementsAppended(1);
+            }
+        }
+
+        return result;
+    }
+
+    //Notify observers of the ledger that movements were appended, and count them towards the
+    //next compaction
+    private void movementsAppended(int count) {
+        if (count == 0) {
+            return;
+        }
+        notifyChange(MovementEntry.CONTENT_URI, ItemContract.CHANGE_INSERT);
+        mLedgerCompactor.movementsAppended(count);
+    }
+
+    //Start tracking an import. Returns the content URI of its progress row.
+    private Uri insertImport(Uri uri, ContentValues values) {
+        if (TextUtils.isEmpty(values.getAsString(ImportEntry.COLUMN_IMPORT_SOURCE))) {
+            throw new IllegalArgumentException("Import requires a source");
+        }
+
+        SQLiteDatabase database = mDbHelper.getWritableDatabase();
+        long id = database.insert(ImportEntry.TABLE_NAME, null, values);
         if (id == -1) {
             Log.e(LOG_TAG, "Failed to insert row for " + uri);
             return null;
         }
 
-        //Notify all listeners that the data has changed for the pet content URI
-        getContext().getContentResolver().notifyChange(uri, null);
+        Uri importUri = ContentUris.withAppendedId(uri, id);
+        notifyChange(importUri, ItemContract.CHANGE_INSERT);
+        return importUri;
+    }
+
+    //Record the progress of an import
+    private int updateImports(Uri uri, ContentValues values, String selection, String[] selectionArgs) {
+        if (values.containsKey(ImportEntry.COLUMN_IMPORT_BYTE_OFFSET)) {
+            Long offset = values.getAsLong(ImportEntry.COLUMN_IMPORT_BYTE_OFFSET);
+            if (offset == null || offset < 0) {
+                throw new IllegalArgumentException("Import offset must be 0 or greater");
+            }
+        }
+        if (values.size() == 0) {
+            return 0;
+        }
+
+        SQLiteDatabase database = mDbHelper.getWritableDatabase();
+        int rowsUpdated = database.update(ImportEntry.TABLE_NAME, values, selection, selectionArgs);
+        if (rowsUpdated != 0) {
+            notifyChange(uri, ItemContract.CHANGE_UPDATE);
+        }
+        return rowsUpdated;
+    }
 
-        //Return the new URI with the ID (of the newly inserted row) appended at the end
-        return ContentUris.withAppendedId(uri, id);
+    //Stop tracking imports, once they have finished or been given up
+    private int deleteImports(Uri uri, String selection, String[] selectionArgs) {
+        SQLiteDatabase database = mDbHelper.getWritableDatabase();
+        int rowsDeleted = database.delete(ImportEntry.TABLE_NAME, selection, selectionArgs);
+        if (rowsDeleted != 0) {
+            notifyChange(uri, ItemContract.CHANGE_DELETE);
+        }
+        return rowsDeleted;
     }
 
     @Override
     public int delete(Uri uri, String selection, String[] selectionArgs) {
+        final int match = sUriMatcher.match(uri);
+        TraceCompat.beginSection("ItemProvider.delete");
+        long start = System.nanoTime();
+        int rows = -1;
+        try {
+            rows = delete(match, uri, selection, selectionArgs);
+            return rows;
+        } finally {
+            mMetrics.record(ProviderMetrics.DELETE, getUriPattern(match), start, rows);
+            TraceCompat.endSection();
+        }
+    }
+
+    private int delete(int match, Uri uri, String selection, String[] selectionArgs) {
         //Get writable database
         SQLiteDatabase database = mDbHelper.getWritableDatabase();
 
         //Track the number of rows deleted
         int rowsDeleted;
 
-        final int match = sUriMatcher.match(uri);
         switch (match) {
             case ITEMS:
                 //Delete all rows that match the selections and selection args
-                rowsDeleted = database.delete(ItemEntry.TABLE_NAME, selection, selectionArgs);
                 break;
             case ITEM_ID:
                 //Delete a single row given by the ID in the URI
                 selection = ItemEntry._ID + "=?";
                 selectionArgs = new String[]{String.valueOf(ContentUris.parseId(uri))};
-                rowsDeleted = database.delete(ItemEntry.TABLE_NAME, selection, selectionArgs);
                 break;
+            case ITEM_SKU:
+                //Delete the item with the SKU through its _ID, so it is notified and uncached as
+                //that item
+                String sku = uri.getLastPathSegment();
+                long skuItemId = queryIdForSku(database, sku);
+                if (skuItemId == -1) {
+                    return 0;
+                }
+                uri = ContentUris.withAppendedId(ItemEntry.CONTENT_URI, skuItemId);
+                selection = ItemEntry._ID + "=? AND " + SKU_SELECTION;
+                selectionArgs = new String[]{String.valueOf(skuItemId), sku};
+                break;
+            case IMPORTS:
+                return deleteImports(uri, selection, selectionArgs);
+            case IMPORT_ID:
+                selection = ImportEntry._ID + "=?";
+                selectionArgs = new String[]{String.valueOf(ContentUris.parseId(uri))};
+                return deleteImports(uri, selection, selectionArgs);
             default:
                 throw new IllegalArgumentException("Deletion is not supported for " + uri);
         }
 
+        //Remember which images the deleted rows used, so their files can be removed as well
+        Set<String> images = queryImageReferences(database, selection, selectionArgs);
+        rowsDeleted = database.delete(ItemEntry.TABLE_NAME, selection, selectionArgs);
+        releaseImages(database, images);
+
         //If 1 or more rows were deleted, then notify all listeners that the data at the
         //given URI has changed
         if (rowsDeleted != 0) {
-            getContext().getContentResolver().notifyChange(uri, null);
+            notifyChange(uri, ItemContract.CHANGE_DELETE);
         }
 
         //Return the number of rows deleted
@@ -197,6 +1239,21 @@ public class ItemProvider extends ContentProvider {
     @Override
     public int update(Uri uri, ContentValues contentValues, String selection, String[] selectionArgs) {
         final int match = sUriMatcher.match(uri);
+        TraceCompat.beginSection("ItemProvider.update");
+        long start = System.nanoTime();
+        int rows = -1;
+        BatchState write = startWrite();
+        try {
+            rows = update(match, uri, contentValues, selection, selectionArgs);
+            return rows;
+        } finally {
+            finishWrite(write);
+            mMetrics.record(ProviderMetrics.UPDATE, getUriPattern(match), start, rows);
+            TraceCompat.endSection();
+        }
+    }
+
+    private int update(int match, Uri uri, ContentValues contentValues, String selection, String[] selectionArgs) {
         switch (match) {
             case ITEMS:
                 return updateItem(uri, contentValues, selection, selectionArgs);
@@ -205,6 +1262,22 @@ public class ItemProvider extends ContentProvider {
                 selection = ItemEntry._ID + "=?";
                 selectionArgs = new String[]{String.valueOf(ContentUris.parseId(uri))};
                 return updateItem(uri, contentValues, selection, selectionArgs);
+            case ITEM_SKU:
+                //Update the item with the SKU through its _ID, so it is notified and uncached as
+                //that item
+                String sku = uri.getLastPathSegment();
+                long skuItemId = queryIdForSku(mDbHelper.getReadableDatabase(), sku);
+                if (skuItemId == -1) {
+                    return 0;
+                }
+                selection = ItemEntry._ID + "=? AND " + SKU_SELECTION;
+                selectionArgs = new String[]{String.valueOf(skuItemId), sku};
+                return updateItem(ContentUris.withAppendedId(ItemEntry.CONTENT_URI, skuItemId), contentValues,
+                        selection, selectionArgs);
+            case IMPORT_ID:
+                selection = ImportEntry._ID + "=?";
+                selectionArgs = new String[]{String.valueOf(ContentUris.parseId(uri))};
+                return updateImports(uri, contentValues, selection, selectionArgs);
             default:
                 throw new IllegalArgumentException("Update is not supported for " + uri);
         }
@@ -216,36 +1289,26 @@ public class ItemProvider extends ContentProvider {
     //Return the number of rows that were successfully updated
     private int updateItem(Uri uri, ContentValues values, String selection, String[] selectionArgs) {
 
-        //If the COLUMN_ITEM_NAME is present, ensure that it is valid
+        //Check the values that are present
         if (values.containsKey(ItemEntry.COLUMN_ITEM_NAME)) {
-            String name = values.getAsString(ItemEntry.COLUMN_ITEM_NAME);
-            if (name == null) {
-                throw new IllegalArgumentException("Item requires a name");
-            }
+            ItemValidator.validateName(values.getAsString(ItemEntry.COLUMN_ITEM_NAME));
         }
-
-        //If the COLUMN_ITEM_COST is present, ensure that it is valid
         if (values.containsKey(ItemEntry.COLUMN_ITEM_COST)) {
-            Float cost = values.getAsFloat(ItemEntry.COLUMN_ITEM_COST);
-            if (cost != null && cost < 0) {
-                throw new IllegalArgumentException("Item cost must be greater than 0");
-            }
-            if (cost == null) {
-                throw new IllegalArgumentException("Item must have a cost");
-            }
+            ItemValidator.validateCost(values.getAsFloat(ItemEntry.COLUMN_ITEM_COST));
         }
-
-        //If the COLUMN_ITEM_QUANTITY is present, ensure that it is valid
+        if (values.containsKey(ItemEntry.COLUMN_ITEM_SKU)) {
+            ItemValidator.validateSku(values.getAsString(ItemEntry.COLUMN_ITEM_SKU));
+        }
+        Integer quantity = null;
         if (values.containsKey(ItemEntry.COLUMN_ITEM_QUANTITY)) {
-            Integer quantity = values.getAsInteger(ItemEntry.COLUMN_ITEM_QUANTITY);
-            if (quantity == null) {
-                throw new IllegalArgumentException("Quantity must have a value");
-            }
-            if (quantity < 0) {
-                throw new IllegalArgumentException("Quantity must be greater than 0.");
-            }
+            quantity = values.getAsInteger(ItemEntry.COLUMN_ITEM_QUANTITY);
+            ItemValidator.validateQuantity(quantity);
         }
 
+        //Keep a new image as a file and only store its reference in the row
+        boolean replacesImage = values.containsKey(ItemEntry.COLUMN_ITEM_IMAGE);
+        moveImageToStore(values);
+
         //If there are no values to update, don't try to update the database
         if (values.size() == 0) {
             return 0;
@@ -254,15 +1317,65 @@ public class ItemProvider extends ContentProvider {
         //Otherwise, get writable database
         SQLiteDatabase database = mDbHelper.getWritableDatabase();
 
-        //Perform the update on the database and get the number of rows affected
-        int rowsUpdated = database.update(ItemEntry.TABLE_NAME, values, selection, selectionArgs);
+        //Remember the images the rows used before, in case nothing uses them after the update
+        Set<String> replacedImages = null;
+        if (replacesImage) {
+            replacedImages = queryImageReferences(database, selection, selectionArgs);
+        }
+
+        //Perform the update on the database and get the number of rows affected. A new quantity is
+        //a counted value, recorded in the ledger as the difference to the old one in the same transaction.
+        int rowsUpdated;
+        int movementsAppended = 0;
+        database.beginTransaction();
+        try {
+            if (quantity != null) {
+                movementsAppended = appendCountMovements(database, quantity, selection, selectionArgs);
+            }
+            rowsUpdated = database.update(ItemEntry.TABLE_NAME, values, selection, selectionArgs);
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+        }
+
+        if (replacedImages != null) {
+            releaseImages(database, replacedImages);
+        }
 
         //If 1 or more rows were updated, then notify all listeners that the data at the given URI has changed
         if (rowsUpdated != 0) {
-            getContext().getContentResolver().notifyChange(uri, null);
+            notifyChange(uri, ItemContract.CHANGE_UPDATE);
         }
+        movementsAppended(movementsAppended);
 
         //Return the number of rows updated
         return rowsUpdated;
     }
+
+    //Append a counted movement for each selected item whose quantity isn't the given one yet.
+    //Returns the number of movements appended.
+    private static int appendCountMovements(SQLiteDatabase database, int quantity, String selection,
+                                            String[] selectionArgs) {
+        List<Object> args = new ArrayList<>();
+        args.add(quantity);
+        args.add(System.currentTimeMillis());
+        args.add(quantity);
+        String sql = SQL_APPEND_COUNT_MOVEMENTS;
+        if (!TextUtils.isEmpty(selection)) {
+            sql += " AND (" + selection + ")";
+            if (selectionArgs != null) {
+                Collections.addAll(args, (Object[]) selectionArgs);
+            }
+        }
+
+        SQLiteStatement statement = database.compileStatement(sql);
+        try {
+            for (int i = 0; i < args.size(); i++) {
+                bindValue(statement, i + 1, args.get(i));
+            }
+            return statement.executeUpdateDelete();
+        } finally {
+            statement.close();
+        }
+    }
 }
\ No newline at end of file
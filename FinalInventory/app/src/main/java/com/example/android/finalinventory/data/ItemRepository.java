@@ -0,0 +1,261 @@
+package com.example.android.finalinventory.data;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.content.Context;
+import android.net.Uri;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import com.example.android.finalinventory.core.QuantityAdjustment;
+import com.example.android.finalinventory.data.ItemContract.ItemEntry;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Process wide access point for writes made from the UI. Every write runs on one background
+ * thread and goes through ItemProvider, which keeps its database connection open for the life
+ * of the process and notifies observers of the change. Results are delivered on the main thread.
+ * Quantity changes to the same item that are still waiting for the writer are merged into one
+ * write, so tapping Sell ten times quickly costs one transaction rather than ten. Until the result
+ * of their write reaches the main thread, the changes are reported by getUnconfirmedDelta() so
+ * screens can show them at once.
+ */
+public class ItemRepository {
+
+    //Tag for log messages
+    private static final String LOG_TAG = ItemRepository.class.getSimpleName();
+
+    private static ItemRepository sInstance;
+
+    private final ContentResolver mContentResolver;
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+    //One thread for all writes, so they reach the database in the order they were made
+    private final ExecutorService mWriteExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable runnable) {
+            return new Thread(runnable, "ItemRepository");
+        }
+    });
+
+    //Guards mPending and mUnconfirmed
+    private final Object mLock = new Object();
+
+    //Quantity changes waiting for the writer, by item. An item is in here from its first change
+    //until the writer picks its changes up, and a write is queued for it once when it is added.
+    private final Map<Long, PendingAdjustment> mPending = new HashMap<>();
+
+    //Sum of the changes to each item whose result hasn't reached the main thread yet, including
+    //a running write
+    private final Map<Long, Integer> mUnconfirmed = new HashMap<>();
+
+    //Changes to one item merged into one write, with the callback of each
+    private static class PendingAdjustment {
+        int mDelta;
+        final List<Integer> mDeltas = new ArrayList<>();
+        final List<QuantityCallback> mCallbacks = new ArrayList<>();
+
+        void add(int delta, QuantityCallback callback) {
+            mDelta += delta;
+            mDeltas.add(delta);
+            mCallbacks.add(callback);
+        }
+    }
+
+    //Callback for adjustQuantity, called on the main thread
+    public interface QuantityCallback {
+        //adjusted is false when the change would have taken the quantity below 0.
+        //quantity is the item's quantity after the write, or -1 if the item doesn't exist.
+        void onQuantityAdjusted(long id, boolean adjusted, int quantity);
+    }
+
+    //Callback for insertItem, called on the main thread with the URI of the new item, or null if
+    //it couldn't be inserted
+    public interface InsertCallback {
+        void onItemInserted(Uri uri);
+    }
+
+    //Callback for updateItem, called on the main thread with the number of rows updated
+    public interface UpdateCallback {
+        void onItemUpdated(int rowsUpdated);
+    }
+
+    //Returns the repository shared by the whole app
+    public static synchronized ItemRepository getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new ItemRepository(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    private ItemRepository(Context context) {
+        mContentResolver = context.getContentResolver();
+    }
+
+    //Add delta to the quantity of an item in the background. If changes to the item are already
+    //waiting for the writer, this one is written together with them. callback may be null.
+    public void adjustQuantity(final long id, int delta, QuantityCallback callback) {
+        synchronized (mLock) {
+            Integer unconfirmed = mUnconfirmed.get(id);
+            mUnconfirmed.put(id, unconfirmed == null ? delta : unconfirmed + delta);
+
+            PendingAdjustment pending = mPending.get(id);
+            if (pending != null) {
+                pending.add(delta, callback);
+                return;
+            }
+            pending = new PendingAdjustment();
+            pending.add(delta, callback);
+            mPending.put(id, pending);
+        }
+
+        mWriteExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                writeAdjustment(id);
+            }
+        });
+    }
+
+    //Insert an item in the background. Storing its image hashes, decodes and encodes it, which is
+    //far too slow for the main thread. callback may be null.
+    public void insertItem(final ContentValues values, final InsertCallback callback) {
+        mWriteExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                Uri uri = null;
+                try {
+                    uri = mContentResolver.insert(ItemEntry.CONTENT_URI, values);
+                } catch (RuntimeException e) {
+                    Log.e(LOG_TAG, "Failed to insert item", e);
+                }
+                final Uri inserted = uri;
+                if (callback != null) {
+                    mMainHandler.post(new Runnable() {
+                        @Override
+                        public void run() {
+                            callback.onItemInserted(inserted);
+                        }
+                    });
+                }
+            }
+        });
+    }
+
+    //Update the item at uri in the background, after any quantity changes made before it.
+    //callback may be null.
+    public void updateItem(final Uri uri, final ContentValues values, final UpdateCallback callback) {
+        mWriteExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                int rows = 0;
+                try {
+                    rows = mContentResolver.update(uri, values, null, null);
+                } catch (RuntimeException e) {
+                    Log.e(LOG_TAG, "Failed to update item " + uri, e);
+                }
+                final int rowsUpdated = rows;
+                if (callback != null) {
+                    mMainHandler.post(new Runnable() {
+                        @Override
+                        public void run() {
+                            callback.onItemUpdated(rowsUpdated);
+                        }
+                    });
+                }
+            }
+        });
+    }
+
+    //The changes to an item's quantity that haven't been written yet, to show on top of the
+    //quantity last read so the screen doesn't wait for the writer
+    public int getUnconfirmedDelta(long id) {
+        synchronized (mLock) {
+            Integer unconfirmed = mUnconfirmed.get(id);
+            return unconfirmed == null ? 0 : unconfirmed;
+        }
+    }
+
+    //Write every change waiting for an item, on the writer thread
+    private void writeAdjustment(long id) {
+        PendingAdjustment pending;
+        synchronized (mLock) {
+            pending = mPending.remove(id);
+        }
+
+        QuantityAdjustment merged = callAdjustQuantity(id, pending.mDelta);
+        if (merged.isAdjusted() || pending.mDeltas.size() == 1 || merged.getQuantity() < 0) {
+            deliver(pending.mCallbacks, id, pending.mDelta, merged);
+            return;
+        }
+
+        //The provider refuses a merged sale of more than is in stock as a whole, though some of
+        //the taps would have fit on their own, so each change is written separately instead
+        for (int i = 0; i < pending.mDeltas.size(); i++) {
+            int delta = pending.mDeltas.get(i);
+            QuantityAdjustment adjustment = callAdjustQuantity(id, delta);
+            deliver(Collections.singletonList(pending.mCallbacks.get(i)), id, delta, adjustment);
+        }
+    }
+
+    //Add delta to the quantity of an item through the provider
+    private QuantityAdjustment callAdjustQuantity(long id, int delta) {
+        Bundle extras = new Bundle();
+        extras.putInt(ItemContract.EXTRA_DELTA, delta);
+
+        boolean adjusted = false;
+        int quantity = -1;
+        try {
+            Bundle result = mContentResolver.call(ItemEntry.CONTENT_URI,
+                    ItemContract.METHOD_ADJUST_QUANTITY, String.valueOf(id), extras);
+            if (result != null) {
+                adjusted = result.getBoolean(ItemContract.EXTRA_ADJUSTED);
+                quantity = result.getInt(ItemContract.EXTRA_QUANTITY, -1);
+            }
+        } catch (RuntimeException e) {
+            Log.e(LOG_TAG, "Failed to adjust quantity of item " + id, e);
+        }
+        return new QuantityAdjustment(adjusted, quantity);
+    }
+
+    //Stop counting a change as unconfirmed once its result is delivered, whether it was applied or not
+    private void confirm(long id, int delta) {
+        synchronized (mLock) {
+            Integer unconfirmed = mUnconfirmed.get(id);
+            int remaining = unconfirmed == null ? 0 : unconfirmed - delta;
+            if (remaining == 0) {
+                mUnconfirmed.remove(id);
+            } else {
+                mUnconfirmed.put(id, remaining);
+            }
+        }
+    }
+
+    //Stop counting a written change as unconfirmed and hand its result to the callbacks, in one
+    //step on the main thread. Screens show the quantity they were given plus the unconfirmed
+    //changes, so the two have to change together or the change would be shown twice or not at all.
+    private void deliver(final List<QuantityCallback> callbacks, final long id, final int delta,
+                         final QuantityAdjustment adjustment) {
+        mMainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                confirm(id, delta);
+                for (QuantityCallback callback : callbacks) {
+                    if (callback != null) {
+                        callback.onQuantityAdjusted(id, adjustment.isAdjusted(), adjustment.getQuantity());
+                    }
+                }
+            }
+        });
+    }
+}
@@ -0,0 +1,167 @@
+package com.example.android.finalinventory.data;
+
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.support.v4.util.LruCache;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Recently read rows of the items table, keyed by _ID, so ItemProvider can answer the query of a
+ * single item without reading it from SQLite again. Whole rows are kept, and any projection of
+ * their plain columns is served from them.
+ *
+ * ItemProvider invalidates the rows a write changed once it has committed: the item it wrote, or
+ * every item for a write that selected its rows some other way. Sync and background migrations
+ * write for longer, and bypass the cache between beginWrite() and endWrite(). Every invalidation
+ * moves the cache to a new version, and a row is only stored if its item hasn't been invalidated
+ * since the version current before it was read, so a read that raced a commit is never served.
+ */
+class ItemRowCache {
+
+    //Most rows kept. Rows hold image references rather than images, so they are small.
+    private static final int MAX_ROWS = 64;
+
+    //Most invalidated _IDs remembered for put(). Older ones count as invalidated at the version
+    //of the latest one forgotten.
+    private static final int MAX_INVALIDATIONS = 256;
+
+    private final LruCache<Long, Row> mRows = new LruCache<>(MAX_ROWS);
+
+    //Incremented by every invalidation
+    private long mVersion;
+
+    //Version of the latest invalidation of every row
+    private long mClearedAt;
+
+    //Version of the latest invalidation of each _ID, oldest first, and the newest of those that
+    //were dropped to keep the map small
+    private final Map<Long, Long> mInvalidatedAt = new LinkedHashMap<Long, Long>() {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Long, Long> eldest) {
+            if (size() <= MAX_INVALIDATIONS) {
+                return false;
+            }
+            mForgottenAt = eldest.getValue();
+            return true;
+        }
+    };
+    private long mForgottenAt;
+
+    //Long writes that have begun and not ended yet
+    private int mWrites;
+
+    //The columns and values of one row, as read
+    static class Row {
+        final String[] mColumns;
+        final Object[] mValues;
+
+        //Copy the row the cursor is on
+        Row(Cursor cursor) {
+            mColumns = cursor.getColumnNames();
+            mValues = new Object[mColumns.length];
+            for (int i = 0; i < mValues.length; i++) {
+                switch (cursor.getType(i)) {
+                    case Cursor.FIELD_TYPE_INTEGER:
+                        mValues[i] = cursor.getLong(i);
+                        break;
+                    case Cursor.FIELD_TYPE_FLOAT:
+                        mValues[i] = cursor.getDouble(i);
+                        break;
+                    case Cursor.FIELD_TYPE_STRING:
+                        mValues[i] = cursor.getString(i);
+                        break;
+                    case Cursor.FIELD_TYPE_BLOB:
+                        mValues[i] = cursor.getBlob(i);
+                        break;
+                    default:
+                        mValues[i] = null;
+                }
+            }
+        }
+
+        //A cursor over the row with the given columns, or every column for a null projection.
+        //Returns null if the projection asks for anything that isn't one of the row's columns.
+        Cursor toCursor(String[] projection) {
+            if (projection == null) {
+                projection = mColumns;
+            }
+            Object[] values = new Object[projection.length];
+            for (int i = 0; i < projection.length; i++) {
+                int index = indexOf(projection[i]);
+                if (index == -1) {
+                    return null;
+                }
+                values[i] = mValues[index];
+            }
+            MatrixCursor cursor = new MatrixCursor(projection, 1);
+            cursor.addRow(values);
+            return cursor;
+        }
+
+        private int indexOf(String column) {
+            for (int i = 0; i < mColumns.length; i++) {
+                if (mColumns[i].equals(column)) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+    }
+
+    //The current version, to pass to put() for a row read after this call. Returns -1 while a
+    //long write is running, which put() never accepts.
+    synchronized long getVersion() {
+        return mWrites > 0 ? -1 : mVersion;
+    }
+
+    //A cursor over the given columns of the cached item, or null if it has to be read from the
+    //database
+    synchronized Cursor query(long id, String[] projection) {
+        Row row = mWrites > 0 ? null : mRows.get(id);
+        return row == null ? null : row.toCursor(projection);
+    }
+
+    //Cache the row of an item, read after getVersion() returned version. Ignored if the item has
+    //been invalidated since, as the row may be out of date already.
+    synchronized void put(long id, Row row, long version) {
+        if (version == -1 || mWrites > 0 || version < mClearedAt) {
+            return;
+        }
+        Long invalidatedAt = mInvalidatedAt.get(id);
+        if ((invalidatedAt == null ? mForgottenAt : invalidatedAt) > version) {
+            return;
+        }
+        mRows.put(id, row);
+    }
+
+    //Drop the item with the given _ID, after a write to it has committed
+    synchronized void invalidate(long id) {
+        mVersion++;
+        mRows.remove(id);
+        //Moved to the end, so the map stays ordered by version
+        mInvalidatedAt.remove(id);
+        mInvalidatedAt.put(id, mVersion);
+    }
+
+    //Drop every item, after a write that may have changed any of them has committed
+    synchronized void invalidateAll() {
+        mVersion++;
+        mClearedAt = mVersion;
+        mInvalidatedAt.clear();
+        mRows.evictAll();
+    }
+
+    //Called before a write that commits several times, like a sync. Until it ends the cache is
+    //bypassed, as any of its commits may have changed any item.
+    synchronized void beginWrite() {
+        mWrites++;
+    }
+
+    //Called once a write that began with beginWrite() has committed or failed
+    synchronized void endWrite() {
+        mWrites--;
+        invalidateAll();
+    }
+}
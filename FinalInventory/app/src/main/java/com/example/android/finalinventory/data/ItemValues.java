@@ -0,0 +1,47 @@
+package com.example.android.finalinventory.data;
+
+import android.content.ContentValues;
+
+import com.example.android.finalinventory.data.ItemContract.ItemEntry;
+
+/**
+ * Builds the values of an item to insert or update, each put with the type of its column, so
+ * costs and quantities reach the provider as numbers rather than as the text they were typed in.
+ * Only the fields that are put are written.
+ */
+public final class ItemValues {
+
+    private final ContentValues mValues = new ContentValues();
+
+    public ItemValues putName(String name) {
+        mValues.put(ItemEntry.COLUMN_ITEM_NAME, name);
+        return this;
+    }
+
+    public ItemValues putCost(float cost) {
+        mValues.put(ItemEntry.COLUMN_ITEM_COST, cost);
+        return this;
+    }
+
+    public ItemValues putQuantity(int quantity) {
+        mValues.put(ItemEntry.COLUMN_ITEM_QUANTITY, quantity);
+        return this;
+    }
+
+    public ItemValues putSku(String sku) {
+        mValues.put(ItemEntry.COLUMN_ITEM_SKU, sku);
+        return this;
+    }
+
+    //Encoded image bytes, see ImageEncoding. The provider stores them along with their smaller
+    //versions. null removes the image.
+    public ItemValues putImage(byte[] image) {
+        mValues.put(ItemEntry.COLUMN_ITEM_IMAGE, image);
+        return this;
+    }
+
+    //A copy of the values put so far
+    public ContentValues toContentValues() {
+        return new ContentValues(mValues);
+    }
+}
@@ -0,0 +1,113 @@
+package com.example.android.finalinventory.data;
+
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
+import android.util.Log;
+
+import com.example.android.finalinventory.data.ItemContract.MovementEntry;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Keeps the stock movement ledger bounded. For each item, the movements older than the retention
+ * period are folded into one snapshot movement holding their summed delta, so the movements of
+ * an item still add up to its quantity. Compaction runs on its own thread when the provider
+ * starts and again after every so many appended movements.
+ */
+class LedgerCompactor {
+
+    //Tag for log messages
+    private static final String LOG_TAG = LedgerCompactor.class.getSimpleName();
+
+    //Movements are kept one by one for this long
+    private static final long RETENTION_MS = TimeUnit.DAYS.toMillis(30);
+
+    //Appended movements between two compactions
+    private static final int COMPACT_EVERY = 1000;
+
+    //One snapshot per item with more than one movement to fold, from the movements up to a given
+    //_ID older than a given time
+    private static final String SQL_INSERT_SNAPSHOTS = "INSERT INTO " + MovementEntry.TABLE_NAME + " ("
+            + MovementEntry.COLUMN_MOVEMENT_ITEM_ID + ", " + MovementEntry.COLUMN_MOVEMENT_DELTA + ", "
+            + MovementEntry.COLUMN_MOVEMENT_REASON + ", " + MovementEntry.COLUMN_MOVEMENT_TIMESTAMP + ")"
+            + " SELECT " + MovementEntry.COLUMN_MOVEMENT_ITEM_ID + ", SUM(" + MovementEntry.COLUMN_MOVEMENT_DELTA + "), '"
+            + MovementEntry.REASON_SNAPSHOT + "', MAX(" + MovementEntry.COLUMN_MOVEMENT_TIMESTAMP + ")"
+            + " FROM " + MovementEntry.TABLE_NAME
+            + " WHERE " + MovementEntry.COLUMN_MOVEMENT_TIMESTAMP + " < ? AND " + MovementEntry._ID + " <= ?"
+            + " GROUP BY " + MovementEntry.COLUMN_MOVEMENT_ITEM_ID + " HAVING COUNT(*) > 1";
+
+    //The movements the snapshots inserted after the given _ID have folded in
+    private static final String SQL_DELETE_FOLDED = "DELETE FROM " + MovementEntry.TABLE_NAME
+            + " WHERE " + MovementEntry.COLUMN_MOVEMENT_TIMESTAMP + " < ? AND " + MovementEntry._ID + " <= ?"
+            + " AND " + MovementEntry.COLUMN_MOVEMENT_ITEM_ID + " IN (SELECT " + MovementEntry.COLUMN_MOVEMENT_ITEM_ID
+            + " FROM " + MovementEntry.TABLE_NAME + " WHERE " + MovementEntry._ID + " > ?)";
+
+    private final ItemDbHelper mDbHelper;
+    private final Handler mHandler;
+
+    //Movements appended since the last compaction was scheduled
+    private final AtomicInteger mAppended = new AtomicInteger();
+
+    private final Runnable mCompact = new Runnable() {
+        @Override
+        public void run() {
+            int folded = compact(mDbHelper.getWritableDatabase(), System.currentTimeMillis() - RETENTION_MS);
+            if (folded != 0) {
+                Log.i(LOG_TAG, "Folded " + folded + " stock movements into snapshots");
+            }
+        }
+    };
+
+    LedgerCompactor(ItemDbHelper dbHelper) {
+        mDbHelper = dbHelper;
+        HandlerThread thread = new HandlerThread("LedgerCompactor", Process.THREAD_PRIORITY_BACKGROUND);
+        thread.start();
+        mHandler = new Handler(thread.getLooper());
+    }
+
+    //Compact once now
+    void start() {
+        mHandler.post(mCompact);
+    }
+
+    //Count appended movements, and compact once enough of them have been appended
+    void movementsAppended(int count) {
+        if (mAppended.addAndGet(count) >= COMPACT_EVERY) {
+            mAppended.set(0);
+            mHandler.removeCallbacks(mCompact);
+            mHandler.post(mCompact);
+        }
+    }
+
+    //Fold the movements older than the given time into one snapshot per item, in one transaction.
+    //Returns the number of movements folded.
+    static int compact(SQLiteDatabase db, long before) {
+        db.beginTransaction();
+        try {
+            //The snapshots are the only movements after lastId, since nothing else writes in between
+            long lastId = DatabaseUtils.longForQuery(db,
+                    "SELECT IFNULL(MAX(" + MovementEntry._ID + "), 0) FROM " + MovementEntry.TABLE_NAME, null);
+            db.execSQL(SQL_INSERT_SNAPSHOTS, new Object[]{before, lastId});
+
+            int folded;
+            SQLiteStatement delete = db.compileStatement(SQL_DELETE_FOLDED);
+            try {
+                delete.bindLong(1, before);
+                delete.bindLong(2, lastId);
+                delete.bindLong(3, lastId);
+                folded = delete.executeUpdateDelete();
+            } finally {
+                delete.close();
+            }
+            db.setTransactionSuccessful();
+            return folded;
+        } finally {
+            db.endTransaction();
+        }
+    }
+}
@@ -0,0 +1,22 @@
+package com.example.android.finalinventory.data;
+
+import android.database.sqlite.SQLiteDatabase;
+
+/**
+ * One step of the database schema, upgrading it from the version before to its own version.
+ * ItemDbHelper runs the steps in order inside the upgrade transaction, while everything that
+ * opens the database waits, so a step should only change the schema. Work on every row of a
+ * large table goes into a BackgroundMigration queued by the step instead.
+ */
+abstract class Migration {
+
+    //Version of the database after this step
+    final int version;
+
+    Migration(int version) {
+        this.version = version;
+    }
+
+    //Upgrade the database from version - 1 to version
+    abstract void migrate(SQLiteDatabase db);
+}
@@ -0,0 +1,142 @@
+package com.example.android.finalinventory.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Runs the background migrations queued in ItemDbHelper's background_migrations table, one chunk
+ * at a time on a low priority thread. Each chunk is a short transaction of its own, and the thread
+ * pauses between chunks, so the app's own writes get the database in between. The thread ends once
+ * every migration has finished.
+ */
+class MigrationRunner {
+
+    //Tag for log messages
+    private static final String LOG_TAG = MigrationRunner.class.getSimpleName();
+
+    //Rows migrated per transaction
+    private static final int CHUNK_SIZE = 500;
+
+    //Pause between two chunks
+    private static final long PAUSE_MS = 20;
+
+    private final ItemDbHelper mDbHelper;
+    private final ChangeNotifier mChangeNotifier;
+    private final ItemRowCache mRowCache;
+    private HandlerThread mThread;
+    private Handler mHandler;
+
+    private final Runnable mRunChunk = new Runnable() {
+        @Override
+        public void run() {
+            if (migrateNextChunk(mDbHelper.getWritableDatabase())) {
+                mHandler.postDelayed(mRunChunk, PAUSE_MS);
+            } else {
+                mThread.quit();
+            }
+        }
+    };
+
+    MigrationRunner(ItemDbHelper dbHelper, ChangeNotifier changeNotifier, ItemRowCache rowCache) {
+        mDbHelper = dbHelper;
+        mChangeNotifier = changeNotifier;
+        mRowCache = rowCache;
+    }
+
+    //Start migrating on a new thread. Opening the database there, off the main thread, also runs
+    //any upgrade.
+    void start() {
+        mThread = new HandlerThread("MigrationRunner", Process.THREAD_PRIORITY_BACKGROUND);
+        mThread.start();
+        mHandler = new Handler(mThread.getLooper());
+        mHandler.post(mRunChunk);
+    }
+
+    //Migrate one chunk of the first queued migration. Returns false if there was nothing left to
+    //migrate.
+    boolean migrateNextChunk(SQLiteDatabase database) {
+        List<String> names = new ArrayList<>();
+        Cursor cursor = database.query(ItemDbHelper.BACKGROUND_MIGRATIONS_TABLE_NAME,
+                new String[]{ItemDbHelper.COLUMN_MIGRATION_NAME}, null, null, null, null, null);
+        try {
+            while (cursor.moveToNext()) {
+                names.add(cursor.getString(0));
+            }
+        } finally {
+            cursor.close();
+        }
+
+        //Take the migrations one after the other
+        for (String name : names) {
+            BackgroundMigration migration = mDbHelper.findBackgroundMigration(name);
+            if (migration == null) {
+                //Queued by a newer version of the app that was since downgraded
+                Log.w(LOG_TAG, "Skipping unknown background migration " + name);
+                continue;
+            }
+            if (!migrateChunk(database, migration)) {
+                //Table-level change, so every observer of the table reloads once with the migrated data
+                mChangeNotifier.add(Uri.withAppendedPath(ItemContract.BASE_CONTENT_URI, migration.table),
+                        ItemContract.CHANGE_UPDATE);
+                Log.i(LOG_TAG, "Finished background migration " + name);
+            }
+            return true;
+        }
+        return false;
+    }
+
+    //Migrate the next chunk of rows and store how far the migration got, in one transaction.
+    //Returns false once the migration has finished and was removed from the queue.
+    private boolean migrateChunk(SQLiteDatabase database, BackgroundMigration migration) {
+        String[] nameArgs = {migration.name};
+        //Observers only hear of the migration once it has finished, but cached rows go stale
+        //with every chunk
+        mRowCache.beginWrite();
+        //Smaller versions of images stored by a chunk are only referenced once it commits
+        ItemImageStore.getPutLock().lock();
+        database.beginTransaction();
+        try {
+            long afterId;
+            long endId;
+            Cursor cursor = database.query(ItemDbHelper.BACKGROUND_MIGRATIONS_TABLE_NAME,
+                    new String[]{ItemDbHelper.COLUMN_MIGRATION_AFTER_ID, ItemDbHelper.COLUMN_MIGRATION_END_ID},
+                    ItemDbHelper.COLUMN_MIGRATION_NAME + "=?", nameArgs, null, null, null);
+            try {
+                if (!cursor.moveToFirst()) {
+                    return false;
+                }
+                afterId = cursor.getLong(0);
+                endId = cursor.getLong(1);
+            } finally {
+                cursor.close();
+            }
+
+            long lastId = migration.migrateChunk(database, afterId, endId, CHUNK_SIZE);
+            boolean running = lastId != -1 && lastId < endId;
+            if (running) {
+                ContentValues values = new ContentValues();
+                values.put(ItemDbHelper.COLUMN_MIGRATION_AFTER_ID, lastId);
+                database.update(ItemDbHelper.BACKGROUND_MIGRATIONS_TABLE_NAME, values,
+                        ItemDbHelper.COLUMN_MIGRATION_NAME + "=?", nameArgs);
+            } else {
+                database.delete(ItemDbHelper.BACKGROUND_MIGRATIONS_TABLE_NAME,
+                        ItemDbHelper.COLUMN_MIGRATION_NAME + "=?", nameArgs);
+            }
+            database.setTransactionSuccessful();
+            return running;
+        } finally {
+            database.endTransaction();
+            ItemImageStore.getPutLock().unlock();
+            mRowCache.endWrite();
+        }
+    }
+}
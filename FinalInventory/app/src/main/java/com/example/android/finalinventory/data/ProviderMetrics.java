@@ -0,0 +1,144 @@
+package com.example.android.finalinventory.data;
+
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.os.SystemClock;
+
+import com.example.android.finalinventory.core.LatencyHistogram;
+import com.example.android.finalinventory.data.ItemContract.DiagnosticsEntry;
+
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counts the calls ItemProvider serves, by operation and URI pattern: how many there were, how
+ * many rows they returned or changed, how many failed, and the percentiles of their latency.
+ * Calls from any thread are recorded without locking. Read through the diagnostics URI or dump().
+ */
+class ProviderMetrics {
+
+    //Operations that are recorded
+    static final String QUERY = "query";
+    static final String INSERT = "insert";
+    static final String BULK_INSERT = "bulk_insert";
+    static final String UPDATE = "update";
+    static final String DELETE = "delete";
+
+    //Queries of a single item, by whether ItemRowCache answered them. Each is also counted as a
+    //query.
+    static final String CACHE_HIT = "cache_hit";
+    static final String CACHE_MISS = "cache_miss";
+
+    //Columns of the snapshot, in order
+    private static final String[] COLUMNS = {
+            DiagnosticsEntry._ID,
+            DiagnosticsEntry.COLUMN_OPERATION,
+            DiagnosticsEntry.COLUMN_URI,
+            DiagnosticsEntry.COLUMN_COUNT,
+            DiagnosticsEntry.COLUMN_ERRORS,
+            DiagnosticsEntry.COLUMN_ROWS,
+            DiagnosticsEntry.COLUMN_PER_SECOND,
+            DiagnosticsEntry.COLUMN_P50_US,
+            DiagnosticsEntry.COLUMN_P95_US,
+            DiagnosticsEntry.COLUMN_P99_US,
+            DiagnosticsEntry.COLUMN_MAX_US};
+
+    //Metrics of each operation on each URI pattern, keyed by "operation uri"
+    private final ConcurrentMap<String, OperationMetrics> mOperations = new ConcurrentHashMap<>();
+
+    //When counting started, for the rate of calls
+    private final long mStartedAt = SystemClock.elapsedRealtime();
+
+    //The metrics of one operation on one URI pattern
+    private static class OperationMetrics {
+        final String mOperation;
+        final String mUri;
+        final LatencyHistogram mLatency = new LatencyHistogram();
+        final AtomicLong mRows = new AtomicLong();
+        final AtomicLong mErrors = new AtomicLong();
+
+        OperationMetrics(String operation, String uri) {
+            mOperation = operation;
+            mUri = uri;
+        }
+    }
+
+    //Record a call that started at startNanos, from System.nanoTime(), and returned or changed
+    //the given number of rows. rows is -1 for a call that threw.
+    void record(String operation, String uri, long startNanos, int rows) {
+        long micros = TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - startNanos);
+
+        String key = operation + " " + uri;
+        OperationMetrics metrics = mOperations.get(key);
+        if (metrics == null) {
+            OperationMetrics created = new OperationMetrics(operation, uri);
+            metrics = mOperations.putIfAbsent(key, created);
+            if (metrics == null) {
+                metrics = created;
+            }
+        }
+
+        metrics.mLatency.record(micros);
+        if (rows < 0) {
+            metrics.mErrors.incrementAndGet();
+        } else {
+            metrics.mRows.addAndGet(rows);
+        }
+    }
+
+    //One row per operation and URI pattern, with the DiagnosticsEntry columns
+    Cursor snapshot() {
+        MatrixCursor cursor = new MatrixCursor(COLUMNS);
+        double seconds = Math.max(1, SystemClock.elapsedRealtime() - mStartedAt) / 1000.0;
+        int id = 0;
+        for (OperationMetrics metrics : sortedOperations()) {
+            LatencyHistogram latency = metrics.mLatency;
+            cursor.addRow(new Object[]{
+                    ++id,
+                    metrics.mOperation,
+                    metrics.mUri,
+                    latency.getCount(),
+                    metrics.mErrors.get(),
+                    metrics.mRows.get(),
+                    latency.getCount() / seconds,
+                    latency.getPercentile(0.5),
+                    latency.getPercentile(0.95),
+                    latency.getPercentile(0.99),
+                    latency.getMax()});
+        }
+        return cursor;
+    }
+
+    //Write the snapshot as a table, for dumpsys and bug reports
+    void dump(PrintWriter writer) {
+        writer.println("ItemProvider metrics over " + (SystemClock.elapsedRealtime() - mStartedAt) / 1000 + "s,"
+                + " latencies in microseconds");
+        writer.println(String.format(Locale.US, "%-12s %-24s %8s %6s %8s %8s %8s %8s %8s",
+                "operation", "uri", "count", "errors", "rows", "p50", "p95", "p99", "max"));
+        for (OperationMetrics metrics : sortedOperations()) {
+            LatencyHistogram latency = metrics.mLatency;
+            writer.println(String.format(Locale.US, "%-12s %-24s %8d %6d %8d %8d %8d %8d %8d",
+                    metrics.mOperation, metrics.mUri, latency.getCount(), metrics.mErrors.get(),
+                    metrics.mRows.get(), latency.getPercentile(0.5), latency.getPercentile(0.95),
+                    latency.getPercentile(0.99), latency.getMax()));
+        }
+    }
+
+    //Operations in a stable order, so snapshots are easy to compare
+    private List<OperationMetrics> sortedOperations() {
+        List<String> keys = new ArrayList<>(mOperations.keySet());
+        Collections.sort(keys);
+        List<OperationMetrics> operations = new ArrayList<>(keys.size());
+        for (String key : keys) {
+            operations.add(mOperations.get(key));
+        }
+        return operations;
+    }
+}
@@ -0,0 +1,80 @@
+package com.example.android.finalinventory.data;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+
+import com.example.android.finalinventory.core.InventorySchema;
+import com.example.android.finalinventory.core.QuantityAdjustment;
+import com.example.android.finalinventory.core.StockStore;
+
+/**
+ * StockStore over the app's database: the quantity snapshot in the items table and the stock
+ * movement ledger next to it. Used by ItemProvider, which notifies observers of the changes. The
+ * statements are InventorySchema's, which the benchmarks run as well.
+ */
+class SqliteStockStore implements StockStore {
+
+    private final SQLiteDatabase mDatabase;
+
+    SqliteStockStore(SQLiteDatabase database) {
+        mDatabase = database;
+    }
+
+    //One conditional update, so concurrent sales and receipts can't overwrite each other, and the
+    //movement recording it, in one transaction so the two can't disagree. The new quantity is
+    //read back in the same transaction, so it is the value this update produced.
+    @Override
+    public QuantityAdjustment adjustQuantity(long itemId, int delta, String reason) {
+        boolean adjusted;
+        int quantity = -1;
+        mDatabase.beginTransaction();
+        try {
+            SQLiteStatement statement = mDatabase.compileStatement(InventorySchema.SQL_ADJUST_QUANTITY);
+            try {
+                statement.bindLong(1, delta);
+                statement.bindLong(2, itemId);
+                statement.bindLong(3, delta);
+                adjusted = statement.executeUpdateDelete() == 1;
+            } finally {
+                statement.close();
+            }
+
+            if (adjusted && delta != 0) {
+                appendMovement(mDatabase, itemId, delta, reason);
+            }
+
+            Cursor cursor = mDatabase.rawQuery(InventorySchema.SQL_QUERY_QUANTITY, new String[]{String.valueOf(itemId)});
+            try {
+                if (cursor.moveToFirst()) {
+                    quantity = cursor.getInt(0);
+                }
+            } finally {
+                cursor.close();
+            }
+            mDatabase.setTransactionSuccessful();
+        } finally {
+            mDatabase.endTransaction();
+        }
+        return new QuantityAdjustment(adjusted, quantity);
+    }
+
+    //Append one movement to the ledger
+    static void appendMovement(SQLiteDatabase database, long itemId, int delta, String reason) {
+        SQLiteStatement statement = database.compileStatement(InventorySchema.SQL_APPEND_MOVEMENT);
+        try {
+            bindMovement(statement, itemId, delta, reason, System.currentTimeMillis());
+            statement.executeInsert();
+        } finally {
+            statement.close();
+        }
+    }
+
+    //Bind a movement to a statement compiled from InventorySchema.SQL_APPEND_MOVEMENT
+    static void bindMovement(SQLiteStatement statement, long itemId, int delta, String reason, long timestamp) {
+        statement.bindLong(1, itemId);
+        statement.bindLong(2, delta);
+        statement.bindString(3, reason);
+        statement.bindLong(4, timestamp);
+    }
+}
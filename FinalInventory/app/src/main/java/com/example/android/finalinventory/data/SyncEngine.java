@@ -0,0 +1,447 @@
+package com.example.android.finalinventory.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.net.Uri;
+import android.util.Log;
+
+import com.example.android.finalinventory.core.ItemValidator;
+import com.example.android.finalinventory.data.ItemContract.ItemEntry;
+import com.example.android.finalinventory.data.ItemContract.MovementEntry;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Exchanges the changes to the items with a sync server, in batches of gzip compressed JSON.
+ * Local changes are found by the versions the change tracking triggers give them, see
+ * ItemDbHelper, so only the items and tombstones with a higher version than the last one sent
+ * are pushed. Changes are then pulled with the token the server returned for the last batch
+ * applied, and applied without being tracked as local changes, so they aren't sent back.
+ *
+ * The server has one resource, {base URL}/changes. POST sends it a batch of local changes,
+ * GET ?since={token}&limit={n} returns the changes after the token. Both carry
+ * {"changes": [...]}, the GET response also "token", to pass as since next time, and "more",
+ * true if there are more changes to get. Each change is an object with "id", the sync ID,
+ * "version", "modified_at" and "deleted", and unless deleted "name", "cost", "quantity" and
+ * "sku", null for an item without one. A change without "sku" leaves the item's SKU as it is.
+ * Images stay on the device, they aren't synced.
+ */
+class SyncEngine {
+
+    //Tag for log messages
+    private static final String LOG_TAG = SyncEngine.class.getSimpleName();
+
+    //Changes in each request
+    static final int BATCH_SIZE = 500;
+
+    private static final int CONNECT_TIMEOUT_MS = 15000;
+    private static final int READ_TIMEOUT_MS = 30000;
+
+    //Keys of the JSON documents
+    static final String KEY_CHANGES = "changes";
+    static final String KEY_TOKEN = "token";
+    static final String KEY_MORE = "more";
+    static final String KEY_ID = "id";
+    static final String KEY_VERSION = "version";
+    static final String KEY_MODIFIED_AT = "modified_at";
+    static final String KEY_DELETED = "deleted";
+    static final String KEY_NAME = "name";
+    static final String KEY_COST = "cost";
+    static final String KEY_QUANTITY = "quantity";
+    static final String KEY_SKU = "sku";
+
+    //The changes after a version, items and tombstones together in the order they were made
+    private static final String SQL_LOCAL_CHANGES = "SELECT " + ItemEntry.COLUMN_ITEM_SYNC_ID + ", "
+            + ItemEntry.COLUMN_ITEM_VERSION + ", " + ItemEntry.COLUMN_ITEM_MODIFIED_AT + ", 0, "
+            + ItemEntry.COLUMN_ITEM_NAME + ", " + ItemEntry.COLUMN_ITEM_COST + ", " + ItemEntry.COLUMN_ITEM_QUANTITY
+            + ", " + ItemEntry.COLUMN_ITEM_SKU + " FROM " + ItemEntry.TABLE_NAME + " WHERE " + ItemEntry.COLUMN_ITEM_VERSION + " > ?"
+            + " AND " + ItemEntry.COLUMN_ITEM_SYNC_ID + " IS NOT NULL"
+            + " UNION ALL SELECT " + ItemEntry.COLUMN_ITEM_SYNC_ID + ", " + ItemEntry.COLUMN_ITEM_VERSION + ", "
+            + ItemDbHelper.COLUMN_TOMBSTONE_DELETED_AT + ", 1, NULL, NULL, NULL, NULL"
+            + " FROM " + ItemDbHelper.TOMBSTONES_TABLE_NAME + " WHERE " + ItemEntry.COLUMN_ITEM_VERSION + " > ?"
+            + " ORDER BY " + ItemEntry.COLUMN_ITEM_VERSION + " LIMIT ?";
+
+    private final SQLiteDatabase mDatabase;
+    private final Uri mChangesUri;
+
+    //What a sync did, filled in as it goes so it is known up to where a failed sync got
+    static class Result {
+        int mPushed;
+        int mPulled;
+        boolean mInserted;
+        boolean mUpdated;
+        boolean mDeleted;
+        int mMovementsAppended;
+
+        //Images of the items deleted by the server, to remove once nothing uses them
+        final Set<String> mReleasedImages = new HashSet<>();
+    }
+
+    SyncEngine(SQLiteDatabase database, String baseUrl) {
+        mDatabase = database;
+        Uri base = Uri.parse(baseUrl);
+        if (!"http".equals(base.getScheme()) && !"https".equals(base.getScheme())) {
+            throw new IllegalArgumentException("Sync server must be an http or https URL: " + baseUrl);
+        }
+        mChangesUri = base.buildUpon().appendPath("changes").build();
+    }
+
+    //Whether every item has been stamped by change tracking. Until the upgrade's backfill has
+    //finished, some items have no sync ID and would be missed.
+    boolean isReady() {
+        return DatabaseUtils.queryNumEntries(mDatabase, ItemDbHelper.BACKGROUND_MIGRATIONS_TABLE_NAME,
+                ItemDbHelper.COLUMN_MIGRATION_NAME + "=?", new String[]{ItemDbHelper.SYNC_BACKFILL.name}) == 0;
+    }
+
+    //Push the local changes, then pull and apply the server's. Progress is committed batch by
+    //batch, so a sync that fails continues where it stopped the next time.
+    void sync(Result result) throws IOException {
+        push(result);
+        pull(result);
+    }
+
+    private void push(Result result) throws IOException {
+        while (true) {
+            long pushedSeq = readPushedSeq();
+            JSONArray changes = new JSONArray();
+            long lastVersion = readLocalChanges(pushedSeq, changes);
+            if (changes.length() == 0) {
+                return;
+            }
+
+            JSONObject body = new JSONObject();
+            try {
+                body.put(KEY_CHANGES, changes);
+            } catch (JSONException e) {
+                throw new IllegalStateException(e);
+            }
+            post(body);
+
+            //The server has the changes now, and needs no tombstone up to them any more
+            mDatabase.beginTransaction();
+            try {
+                ContentValues values = new ContentValues();
+                values.put(ItemDbHelper.COLUMN_SYNC_PUSHED_SEQ, lastVersion);
+                mDatabase.update(ItemDbHelper.SYNC_STATE_TABLE_NAME, values, null, null);
+                mDatabase.delete(ItemDbHelper.TOMBSTONES_TABLE_NAME, ItemEntry.COLUMN_ITEM_VERSION + " <= ?",
+                        new String[]{String.valueOf(lastVersion)});
+                mDatabase.setTransactionSuccessful();
+            } finally {
+                mDatabase.endTransaction();
+            }
+
+            result.mPushed += changes.length();
+            if (changes.length() < BATCH_SIZE) {
+                return;
+            }
+        }
+    }
+
+    //Read the next batch of changes after pushedSeq into changes. Returns the version of the last one.
+    private long readLocalChanges(long pushedSeq, JSONArray changes) {
+        String after = String.valueOf(pushedSeq);
+        Cursor cursor = mDatabase.rawQuery(SQL_LOCAL_CHANGES, new String[]{after, after, String.valueOf(BATCH_SIZE)});
+        long lastVersion = pushedSeq;
+        try {
+            while (cursor.moveToNext()) {
+                JSONObject change = new JSONObject();
+                change.put(KEY_ID, cursor.getString(0));
+                change.put(KEY_VERSION, cursor.getLong(1));
+                change.put(KEY_MODIFIED_AT, cursor.getLong(2));
+                boolean deleted = cursor.getInt(3) != 0;
+                change.put(KEY_DELETED, deleted);
+                if (!deleted) {
+                    change.put(KEY_NAME, cursor.getString(4));
+                    change.put(KEY_COST, cursor.getDouble(5));
+                    change.put(KEY_QUANTITY, cursor.getInt(6));
+                    change.put(KEY_SKU, cursor.isNull(7) ? JSONObject.NULL : cursor.getString(7));
+                }
+                changes.put(change);
+                lastVersion = cursor.getLong(1);
+            }
+        } catch (JSONException e) {
+            //Only thrown for numbers that aren't finite, which the columns can't hold
+            throw new IllegalStateException(e);
+        } finally {
+            cursor.close();
+        }
+        return lastVersion;
+    }
+
+    private void pull(Result result) throws IOException {
+        while (true) {
+            String token = readPullToken();
+            Uri.Builder uri = mChangesUri.buildUpon();
+            if (token != null) {
+                uri.appendQueryParameter("since", token);
+            }
+            uri.appendQueryParameter("limit", String.valueOf(BATCH_SIZE));
+
+            JSONObject response = get(uri.build());
+            boolean more;
+            try {
+                applyRemoteChanges(response.getJSONArray(KEY_CHANGES), response.getString(KEY_TOKEN), result);
+                more = response.optBoolean(KEY_MORE);
+            } catch (JSONException e) {
+                throw new IOException("Invalid changes from the sync server", e);
+            }
+            if (!more) {
+                return;
+            }
+        }
+    }
+
+    //Apply a batch of the server's changes and store the token after them, in one transaction.
+    //The change tracking triggers are off meanwhile, so the changes aren't sent back.
+    private void applyRemoteChanges(JSONArray changes, String token, Result result) throws JSONException {
+        Result batch = new Result();
+        mDatabase.beginTransaction();
+        try {
+            setApplyingRemote(true);
+            long pushedSeq = readPushedSeq();
+            for (int i = 0; i < changes.length(); i++) {
+                applyRemoteChange(changes.getJSONObject(i), pushedSeq, batch);
+            }
+            setApplyingRemote(false);
+
+            ContentValues values = new ContentValues();
+            values.put(ItemDbHelper.COLUMN_SYNC_PULL_TOKEN, token);
+            mDatabase.update(ItemDbHelper.SYNC_STATE_TABLE_NAME, values, null, null);
+            mDatabase.setTransactionSuccessful();
+        } finally {
+            mDatabase.endTransaction();
+        }
+
+        //Only count what was committed
+        result.mPulled += batch.mPulled;
+        result.mInserted |= batch.mInserted;
+        result.mUpdated |= batch.mUpdated;
+        result.mDeleted |= batch.mDeleted;
+        result.mMovementsAppended += batch.mMovementsAppended;
+        result.mReleasedImages.addAll(batch.mReleasedImages);
+    }
+
+    private void applyRemoteChange(JSONObject change, long pushedSeq, Result result) throws JSONException {
+        String syncId = change.getString(KEY_ID);
+        String[] syncIdArgs = {syncId};
+
+        long id = -1;
+        int quantity = 0;
+        Set<String> images = new HashSet<>();
+        Cursor cursor = mDatabase.query(ItemEntry.TABLE_NAME, new String[]{ItemEntry._ID, ItemEntry.COLUMN_ITEM_VERSION,
+                        ItemEntry.COLUMN_ITEM_QUANTITY, ItemEntry.COLUMN_ITEM_IMAGE, ItemEntry.COLUMN_ITEM_THUMBNAIL,
+                        ItemEntry.COLUMN_ITEM_MEDIUM_IMAGE},
+                ItemEntry.COLUMN_ITEM_SYNC_ID + "=?", syncIdArgs, null, null, null);
+        try {
+            if (cursor.moveToFirst()) {
+                //A local change the server hasn't seen wins until it has, the server settles it then
+                if (cursor.getLong(1) > pushedSeq) {
+                    return;
+                }
+                id = cursor.getLong(0);
+                quantity = cursor.getInt(2);
+                for (int i = 3; i < 6; i++) {
+                    if (!cursor.isNull(i)) {
+                        images.add(cursor.getString(i));
+                    }
+                }
+            }
+        } finally {
+            cursor.close();
+        }
+
+        //Likewise for an item deleted here since the last push
+        if (id == -1 && DatabaseUtils.queryNumEntries(mDatabase, ItemDbHelper.TOMBSTONES_TABLE_NAME,
+                ItemEntry.COLUMN_ITEM_SYNC_ID + "=?", syncIdArgs) != 0) {
+            return;
+        }
+
+        if (change.optBoolean(KEY_DELETED)) {
+            if (id != -1) {
+                mDatabase.delete(ItemEntry.TABLE_NAME, ItemEntry._ID + "=" + id, null);
+                result.mReleasedImages.addAll(images);
+                result.mDeleted = true;
+                result.mPulled++;
+            }
+            return;
+        }
+
+        String name = change.getString(KEY_NAME);
+        float cost = (float) change.getDouble(KEY_COST);
+        int newQuantity = change.getInt(KEY_QUANTITY);
+        boolean hasSku = change.has(KEY_SKU);
+        String sku = hasSku && !change.isNull(KEY_SKU) ? change.getString(KEY_SKU) : null;
+        try {
+            ItemValidator.validateNewItem(name, cost, newQuantity);
+            ItemValidator.validateSku(sku);
+        } catch (IllegalArgumentException e) {
+            Log.w(LOG_TAG, "Skipped invalid item " + syncId + " from the sync server", e);
+            return;
+        }
+
+        ContentValues values = new ContentValues();
+        values.put(ItemEntry.COLUMN_ITEM_NAME, name);
+        values.put(ItemEntry.COLUMN_ITEM_COST, cost);
+        values.put(ItemEntry.COLUMN_ITEM_QUANTITY, newQuantity);
+        values.put(ItemEntry.COLUMN_ITEM_MODIFIED_AT, change.optLong(KEY_MODIFIED_AT, System.currentTimeMillis()));
+        if (hasSku && takeSku(sku, id, pushedSeq, result)) {
+            values.put(ItemEntry.COLUMN_ITEM_SKU, sku);
+        }
+        if (id == -1) {
+            values.put(ItemEntry.COLUMN_ITEM_SYNC_ID, syncId);
+            id = mDatabase.insertOrThrow(ItemEntry.TABLE_NAME, null, values);
+            result.mInserted = true;
+        } else {
+            mDatabase.update(ItemEntry.TABLE_NAME, values, ItemEntry._ID + "=" + id, null);
+            result.mUpdated = true;
+        }
+
+        //The server's quantity is a counted value, recorded in the ledger like an edited quantity
+        if (newQuantity != quantity) {
+            SqliteStockStore.appendMovement(mDatabase, id, newQuantity - quantity, MovementEntry.REASON_COUNT);
+            result.mMovementsAppended++;
+        }
+        result.mPulled++;
+    }
+
+    //Whether the item with the given _ID, -1 for a new one, can be given the SKU from the server
+    //without breaking the unique SKU index. Another item holding it that the server knows as it is
+    //had it moved away by the server, so it loses the SKU here too, and its own change brings its
+    //new SKU. One with a local change the server hasn't seen keeps the SKU, as a local change wins
+    //until the server settles it, and the pulled item keeps its SKU until then.
+    private boolean takeSku(String sku, long id, long pushedSeq, Result result) {
+        if (sku == null) {
+            return true;
+        }
+        long holderId = -1;
+        Cursor cursor = mDatabase.query(ItemEntry.TABLE_NAME, new String[]{ItemEntry._ID, ItemEntry.COLUMN_ITEM_VERSION},
+                ItemEntry.COLUMN_ITEM_SKU + "=?", new String[]{sku}, null, null, null);
+        try {
+            if (cursor.moveToFirst()) {
+                if (cursor.getLong(0) == id) {
+                    return true;
+                }
+                if (cursor.getLong(1) > pushedSeq) {
+                    Log.w(LOG_TAG, "Kept SKU " + sku + " on item " + cursor.getLong(0) + " changed since the last push");
+                    return false;
+                }
+                holderId = cursor.getLong(0);
+            }
+        } finally {
+            cursor.close();
+        }
+
+        if (holderId != -1) {
+            ContentValues values = new ContentValues();
+            values.putNull(ItemEntry.COLUMN_ITEM_SKU);
+            mDatabase.update(ItemEntry.TABLE_NAME, values, ItemEntry._ID + "=" + holderId, null);
+            result.mUpdated = true;
+        }
+        return true;
+    }
+
+    private void setApplyingRemote(boolean applyingRemote) {
+        ContentValues values = new ContentValues();
+        values.put(ItemDbHelper.COLUMN_SYNC_APPLYING_REMOTE, applyingRemote ? 1 : 0);
+        mDatabase.update(ItemDbHelper.SYNC_STATE_TABLE_NAME, values, null, null);
+    }
+
+    private long readPushedSeq() {
+        return DatabaseUtils.longForQuery(mDatabase, "SELECT " + ItemDbHelper.COLUMN_SYNC_PUSHED_SEQ
+                + " FROM " + ItemDbHelper.SYNC_STATE_TABLE_NAME, null);
+    }
+
+    private String readPullToken() {
+        return DatabaseUtils.stringForQuery(mDatabase, "SELECT " + ItemDbHelper.COLUMN_SYNC_PULL_TOKEN
+                + " FROM " + ItemDbHelper.SYNC_STATE_TABLE_NAME, null);
+    }
+
+    //Send a JSON document compressed with gzip
+    private void post(JSONObject body) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        GZIPOutputStream gzip = new GZIPOutputStream(bytes);
+        try {
+            gzip.write(body.toString().getBytes("UTF-8"));
+        } finally {
+            gzip.close();
+        }
+
+        HttpURLConnection connection = open(mChangesUri);
+        try {
+            connection.setRequestMethod("POST");
+            connection.setDoOutput(true);
+            connection.setRequestProperty("Content-Type", "application/json; charset=utf-8");
+            connection.setRequestProperty("Content-Encoding", "gzip");
+            connection.setFixedLengthStreamingMode(bytes.size());
+            OutputStream out = connection.getOutputStream();
+            try {
+                bytes.writeTo(out);
+            } finally {
+                out.close();
+            }
+            checkResponse(connection);
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    //Get a JSON document, asking for it compressed with gzip
+    private JSONObject get(Uri uri) throws IOException {
+        HttpURLConnection connection = open(uri);
+        try {
+            connection.setRequestProperty("Accept", "application/json");
+            connection.setRequestProperty("Accept-Encoding", "gzip");
+            checkResponse(connection);
+
+            //Asking for gzip explicitly means decompressing it too
+            InputStream in = connection.getInputStream();
+            if ("gzip".equalsIgnoreCase(connection.getContentEncoding())) {
+                in = new GZIPInputStream(in);
+            }
+            ByteArrayOutputStream body = new ByteArrayOutputStream();
+            try {
+                byte[] buffer = new byte[8192];
+                int count;
+                while ((count = in.read(buffer)) != -1) {
+                    body.write(buffer, 0, count);
+                }
+            } finally {
+                in.close();
+            }
+            return new JSONObject(body.toString("UTF-8"));
+        } catch (JSONException e) {
+            throw new IOException("Invalid response from the sync server", e);
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    private static HttpURLConnection open(Uri uri) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(uri.toString()).openConnection();
+        connection.setConnectTimeout(CONNECT_TIMEOUT_MS);
+        connection.setReadTimeout(READ_TIMEOUT_MS);
+        return connection;
+    }
+
+    private static void checkResponse(HttpURLConnection connection) throws IOException {
+        int code = connection.getResponseCode();
+        if (code < 200 || code >= 300) {
+            throw new IOException("Sync server answered " + code + " " + connection.getResponseMessage());
+        }
+    }
+}
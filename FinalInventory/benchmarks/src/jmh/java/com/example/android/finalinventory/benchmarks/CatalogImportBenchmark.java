@@ -0,0 +1,97 @@
+package com.example.android.finalinventory.benchmarks;
+
+import com.example.android.finalinventory.core.CatalogItem;
+import com.example.android.finalinventory.core.CatalogParser;
+import com.example.android.finalinventory.core.CsvReader;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Importing a catalog CSV file: parsing the records into items on their own, and parsing them and
+ * inserting them in one transaction like CatalogImportService does for each chunk.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class CatalogImportBenchmark {
+
+    @Param({"1000", "10000"})
+    public int rows;
+
+    private byte[] mCsv;
+    private File mFile;
+    private JdbcStockStore mStore;
+
+    @Setup(Level.Trial)
+    public void createCsv() {
+        StringBuilder csv = new StringBuilder("name,price,quantity\n");
+        for (int i = 0; i < rows; i++) {
+            //Every tenth name is quoted with a comma in it, which takes the slower path of the reader
+            if (i % 10 == 0) {
+                csv.append("\"Bolt, M").append(i % 20).append("\",");
+            } else {
+                csv.append("Item ").append(i).append(',');
+            }
+            csv.append(i % 100).append('.').append(i % 100).append(',').append(i % 50).append('\n');
+        }
+        mCsv = csv.toString().getBytes(Charset.forName("UTF-8"));
+    }
+
+    //A new database for every import, so each one inserts into the same table size
+    @Setup(Level.Invocation)
+    public void openStore() throws Exception {
+        mFile = File.createTempFile("import", ".db");
+        mStore = new JdbcStockStore(mFile);
+    }
+
+    @TearDown(Level.Invocation)
+    public void closeStore() throws Exception {
+        mStore.close();
+        mFile.delete();
+    }
+
+    @Benchmark
+    public List<CatalogItem> parse() throws IOException {
+        return parse(mCsv);
+    }
+
+    @Benchmark
+    public int parseAndInsert() throws IOException {
+        return mStore.insertItems(parse(mCsv));
+    }
+
+    private static List<CatalogItem> parse(byte[] csv) throws IOException {
+        CsvReader reader = new CsvReader(new ByteArrayInputStream(csv));
+        try {
+            CatalogParser parser = CatalogParser.forHeader(reader.readRecord());
+            List<CatalogItem> items = new ArrayList<>();
+            List<String> record;
+            while ((record = reader.readRecord()) != null) {
+                CatalogItem item = parser.parse(record);
+                if (item != null) {
+                    items.add(item);
+                }
+            }
+            return items;
+        } finally {
+            reader.close();
+        }
+    }
+}
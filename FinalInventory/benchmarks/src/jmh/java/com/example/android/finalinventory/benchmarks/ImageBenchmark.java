@@ -0,0 +1,88 @@
+package com.example.android.finalinventory.benchmarks;
+
+import com.example.android.finalinventory.core.ImageReferences;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import javax.imageio.ImageIO;
+
+/**
+ * The image paths of saving an item: encoding the photo, hashing it into its image store
+ * reference, and decoding it back. Bitmap and its codecs only exist on Android, so ImageIO stands
+ * in for them here; these numbers compare formats and sizes on the JVM, and ImageEncodingBenchmark
+ * gives the numbers on a device.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class ImageBenchmark {
+
+    @Param({"jpg", "png"})
+    public String format;
+
+    private BufferedImage mImage;
+    private byte[] mEncoded;
+
+    @Setup
+    public void setUp() throws IOException {
+        //The size ImageEncoding.DEFAULT scales camera photos down to
+        mImage = createPhotoLikeImage(1024, 768);
+        mEncoded = encode();
+    }
+
+    @Benchmark
+    public byte[] encode() throws IOException {
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        ImageIO.write(mImage, format, stream);
+        return stream.toByteArray();
+    }
+
+    @Benchmark
+    public BufferedImage decode() throws IOException {
+        return ImageIO.read(new ByteArrayInputStream(mEncoded));
+    }
+
+    @Benchmark
+    public String hash() {
+        return ImageReferences.hash(mEncoded);
+    }
+
+    @Benchmark
+    public int sampleSize() {
+        return ImageReferences.calculateInSampleSize(4032, 3024, 320, 240);
+    }
+
+    //Smooth gradients with a little noise, like ImageEncodingBenchmark's photo-like bitmap
+    private static BufferedImage createPhotoLikeImage(int width, int height) {
+        Random random = new Random(42);
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int noise = random.nextInt(16) - 8;
+                int red = clamp(x * 255 / width + noise);
+                int green = clamp(y * 255 / height + noise);
+                int blue = clamp((x + y) * 128 / (width + height) + 64 + noise);
+                image.setRGB(x, y, (red << 16) | (green << 8) | blue);
+            }
+        }
+        return image;
+    }
+
+    private static int clamp(int value) {
+        return Math.max(0, Math.min(255, value));
+    }
+}
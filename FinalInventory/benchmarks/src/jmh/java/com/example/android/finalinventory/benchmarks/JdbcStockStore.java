@@ -0,0 +1,141 @@
+package com.example.android.finalinventory.benchmarks;
+
+import com.example.android.finalinventory.core.CatalogItem;
+import com.example.android.finalinventory.core.InventorySchema;
+import com.example.android.finalinventory.core.QuantityAdjustment;
+import com.example.android.finalinventory.core.StockStore;
+
+import java.io.File;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.List;
+
+/**
+ * StockStore over SQLite through JDBC, standing in for the app's SqliteStockStore. The database is
+ * created from InventorySchema like the app's, with the same indexes and triggers, configured
+ * with the same pragmas, and adjustQuantity() runs the same statements in one transaction. What
+ * it leaves out is the provider call around them: the binder, the cache and the notifications.
+ */
+class JdbcStockStore implements StockStore, AutoCloseable {
+
+    //Inserts an item with a starting quantity, as the provider's bulkInsert() does for a new item
+    private static final String SQL_INSERT_ITEM = "INSERT INTO " + InventorySchema.TABLE_ITEMS + " ("
+            + InventorySchema.COLUMN_ITEM_COST + ", " + InventorySchema.COLUMN_ITEM_NAME + ", "
+            + InventorySchema.COLUMN_ITEM_QUANTITY + ") VALUES (?, ?, ?)";
+
+    private final Connection mConnection;
+    private final PreparedStatement mAdjustQuantity;
+    private final PreparedStatement mAppendMovement;
+    private final PreparedStatement mQueryQuantity;
+    private final PreparedStatement mInsertItem;
+
+    //Opens a new, empty database in the given file
+    JdbcStockStore(File file) throws SQLException {
+        file.delete();
+        mConnection = DriverManager.getConnection("jdbc:sqlite:" + file.getPath());
+        Statement statement = mConnection.createStatement();
+        try {
+            statement.execute("PRAGMA journal_mode = WAL");
+            for (String pragma : InventorySchema.pragmaStatements()) {
+                statement.execute(pragma);
+            }
+            for (String create : InventorySchema.createStatements()) {
+                statement.execute(create);
+            }
+        } finally {
+            statement.close();
+        }
+        mConnection.setAutoCommit(false);
+
+        mAdjustQuantity = mConnection.prepareStatement(InventorySchema.SQL_ADJUST_QUANTITY);
+        mAppendMovement = mConnection.prepareStatement(InventorySchema.SQL_APPEND_MOVEMENT);
+        mQueryQuantity = mConnection.prepareStatement(InventorySchema.SQL_QUERY_QUANTITY);
+        mInsertItem = mConnection.prepareStatement(SQL_INSERT_ITEM, Statement.RETURN_GENERATED_KEYS);
+    }
+
+    @Override
+    public QuantityAdjustment adjustQuantity(long itemId, int delta, String reason) {
+        try {
+            mAdjustQuantity.setInt(1, delta);
+            mAdjustQuantity.setLong(2, itemId);
+            mAdjustQuantity.setInt(3, delta);
+            boolean adjusted = mAdjustQuantity.executeUpdate() == 1;
+            if (adjusted && delta != 0) {
+                appendMovement(itemId, delta, reason);
+            }
+
+            int quantity = -1;
+            mQueryQuantity.setLong(1, itemId);
+            ResultSet result = mQueryQuantity.executeQuery();
+            try {
+                if (result.next()) {
+                    quantity = result.getInt(1);
+                }
+            } finally {
+                result.close();
+            }
+            mConnection.commit();
+            return new QuantityAdjustment(adjusted, quantity);
+        } catch (SQLException e) {
+            rollback();
+            throw new IllegalStateException("Could not adjust quantity of item " + itemId, e);
+        }
+    }
+
+    //Insert the items and their starting quantities in one transaction, like the provider's
+    //bulkInsert(). Returns the number of items inserted.
+    int insertItems(List<CatalogItem> items) {
+        try {
+            long now = System.currentTimeMillis();
+            for (CatalogItem item : items) {
+                mInsertItem.setFloat(1, item.getCost());
+                mInsertItem.setString(2, item.getName());
+                mInsertItem.setInt(3, item.getQuantity());
+                mInsertItem.executeUpdate();
+                if (item.getQuantity() != 0) {
+                    ResultSet keys = mInsertItem.getGeneratedKeys();
+                    try {
+                        keys.next();
+                        mAppendMovement.setLong(1, keys.getLong(1));
+                    } finally {
+                        keys.close();
+                    }
+                    mAppendMovement.setInt(2, item.getQuantity());
+                    mAppendMovement.setString(3, REASON_COUNT);
+                    mAppendMovement.setLong(4, now);
+                    mAppendMovement.executeUpdate();
+                }
+            }
+            mConnection.commit();
+            return items.size();
+        } catch (SQLException e) {
+            rollback();
+            throw new IllegalStateException("Could not insert items", e);
+        }
+    }
+
+    private void appendMovement(long itemId, int delta, String reason) throws SQLException {
+        mAppendMovement.setLong(1, itemId);
+        mAppendMovement.setInt(2, delta);
+        mAppendMovement.setString(3, reason);
+        mAppendMovement.setLong(4, System.currentTimeMillis());
+        mAppendMovement.executeUpdate();
+    }
+
+    private void rollback() {
+        try {
+            mConnection.rollback();
+        } catch (SQLException e) {
+            //The original failure is the one worth reporting
+        }
+    }
+
+    @Override
+    public void close() throws SQLException {
+        mConnection.close();
+    }
+}
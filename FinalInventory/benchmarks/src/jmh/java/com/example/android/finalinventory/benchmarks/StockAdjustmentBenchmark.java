@@ -0,0 +1,78 @@
+package com.example.android.finalinventory.benchmarks;
+
+import com.example.android.finalinventory.core.CatalogItem;
+import com.example.android.finalinventory.core.QuantityAdjustment;
+import com.example.android.finalinventory.core.StockKeeper;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Selling and receiving stock the way ItemProvider's adjust_quantity call does: adjustQuantity()
+ * with the delta entered and the reason StockKeeper gives it, each a conditional update and a
+ * ledger insert in one SQLite transaction, with the app's indexes and triggers. The provider call
+ * around it isn't included.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class StockAdjustmentBenchmark {
+
+    private static final int ITEM_COUNT = 10000;
+
+    private File mFile;
+    private JdbcStockStore mStore;
+    private Random mRandom;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        mFile = File.createTempFile("stock", ".db");
+        mStore = new JdbcStockStore(mFile);
+        List<CatalogItem> items = new ArrayList<>(ITEM_COUNT);
+        for (int i = 0; i < ITEM_COUNT; i++) {
+            items.add(new CatalogItem("Item " + i, 1.5f, 1000));
+        }
+        mStore.insertItems(items);
+        mRandom = new Random(42);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        mStore.close();
+        mFile.delete();
+    }
+
+    //The list's sale button takes one unit
+    @Benchmark
+    public QuantityAdjustment sell() {
+        return adjust(-1);
+    }
+
+    @Benchmark
+    public QuantityAdjustment receive() {
+        return adjust(1);
+    }
+
+    //A sale of more than is in stock changes nothing, but still runs the update
+    @Benchmark
+    public QuantityAdjustment refusedSale() {
+        return adjust(-Integer.MAX_VALUE);
+    }
+
+    private QuantityAdjustment adjust(int delta) {
+        return mStore.adjustQuantity(1 + mRandom.nextInt(ITEM_COUNT), delta, StockKeeper.reasonFor(delta));
+    }
+}
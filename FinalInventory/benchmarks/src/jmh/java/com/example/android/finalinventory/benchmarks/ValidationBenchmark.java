@@ -0,0 +1,42 @@
+package com.example.android.finalinventory.benchmarks;
+
+import com.example.android.finalinventory.core.ItemValidator;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Validation of the values of a new item, as done by the provider for every insert and by the
+ * catalog import for every record.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class ValidationBenchmark {
+
+    private String mName = "Hex nut M6";
+    private Float mCost = 0.15f;
+    private Integer mQuantity = 250;
+
+    @Benchmark
+    public void validItem() {
+        ItemValidator.validateNewItem(mName, mCost, mQuantity);
+    }
+
+    //Rejected items cost an exception, which is what an import of a bad file pays per record
+    @Benchmark
+    public boolean invalidItem() {
+        try {
+            ItemValidator.validateNewItem(mName, -mCost, mQuantity);
+            return true;
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,40 @@
+package com.example.android.finalinventory.core;
+
+/**
+ * An item read from a catalog file, ready to be inserted
+ */
+public final class CatalogItem {
+
+    private final String mName;
+    private final float mCost;
+    private final int mQuantity;
+    private final String mSku;
+
+    public CatalogItem(String name, float cost, int quantity) {
+        this(name, cost, quantity, null);
+    }
+
+    public CatalogItem(String name, float cost, int quantity, String sku) {
+        mName = name;
+        mCost = cost;
+        mQuantity = quantity;
+        mSku = sku;
+    }
+
+    public String getName() {
+        return mName;
+    }
+
+    public float getCost() {
+        return mCost;
+    }
+
+    public int getQuantity() {
+        return mQuantity;
+    }
+
+    //The SKU of the item, or null if the catalog has none for it
+    public String getSku() {
+        return mSku;
+    }
+}
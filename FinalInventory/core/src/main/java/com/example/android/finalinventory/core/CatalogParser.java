@@ -0,0 +1,85 @@
+package com.example.android.finalinventory.core;
+
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Turns the records of a catalog CSV file into items. The header record names the columns:
+ * name and cost (or price) are required, quantity and sku (or barcode) are optional. Column names
+ * ignore case.
+ */
+public class CatalogParser {
+
+    private final int mNameIndex;
+    private final int mCostIndex;
+    private final int mQuantityIndex;
+    private final int mSkuIndex;
+
+    private CatalogParser(int nameIndex, int costIndex, int quantityIndex, int skuIndex) {
+        mNameIndex = nameIndex;
+        mCostIndex = costIndex;
+        mQuantityIndex = quantityIndex;
+        mSkuIndex = skuIndex;
+    }
+
+    //Parser for the records following the given header, or null if it lacks a name or a cost column
+    public static CatalogParser forHeader(List<String> header) {
+        int nameIndex = indexOf(header, "name");
+        int costIndex = indexOf(header, "cost");
+        if (costIndex == -1) {
+            costIndex = indexOf(header, "price");
+        }
+        if (nameIndex == -1 || costIndex == -1) {
+            return null;
+        }
+        int skuIndex = indexOf(header, "sku");
+        if (skuIndex == -1) {
+            skuIndex = indexOf(header, "barcode");
+        }
+        return new CatalogParser(nameIndex, costIndex, indexOf(header, "quantity"), skuIndex);
+    }
+
+    //Turn a record into an item, or null if it isn't a valid item.
+    //Invalid records are skipped rather than failing, since one would roll back the rest of its chunk.
+    public CatalogItem parse(List<String> record) {
+        String name = field(record, mNameIndex);
+        if (name.isEmpty()) {
+            return null;
+        }
+
+        float cost;
+        int quantity = 0;
+        try {
+            cost = Float.parseFloat(field(record, mCostIndex));
+            String quantityField = field(record, mQuantityIndex);
+            if (!quantityField.isEmpty()) {
+                quantity = Integer.parseInt(quantityField);
+            }
+            ItemValidator.validateNewItem(name, cost, quantity);
+        } catch (IllegalArgumentException e) {
+            //NumberFormatException included
+            return null;
+        }
+        //An empty SKU field leaves the item without one
+        String sku = field(record, mSkuIndex);
+        return new CatalogItem(name, cost, quantity, sku.isEmpty() ? null : sku);
+    }
+
+    //The trimmed field at index, or an empty string if the record is too short
+    private static String field(List<String> record, int index) {
+        if (index < 0 || index >= record.size()) {
+            return "";
+        }
+        return record.get(index).trim();
+    }
+
+    //Index of the header column with the given name, ignoring case, or -1 if there is none
+    private static int indexOf(List<String> header, String column) {
+        for (int i = 0; i < header.size(); i++) {
+            if (header.get(i).trim().toLowerCase(Locale.US).equals(column)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,195 @@
+package com.example.android.finalinventory.core;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reads comma separated values from a UTF-8 stream one record at a time, without holding more
+ * than the current record in memory. Quoted fields may contain commas, newlines and doubled
+ * quotes. The reader counts the bytes it has consumed, so an import can remember where a record
+ * ended and continue from there later with skipTo().
+ */
+public class CsvReader implements Closeable {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    //Longest field accepted, so a missing closing quote can't pull the rest of the file into memory
+    private static final int MAX_FIELD_BYTES = 64 * 1024;
+
+    private final InputStream mIn;
+    private final byte[] mBuffer = new byte[8192];
+    private int mBufferPosition;
+    private int mBufferLength;
+
+    //Bytes consumed from the start of the stream
+    private long mPosition;
+
+    //Bytes of the field being read, reused between fields
+    private byte[] mField = new byte[256];
+    private int mFieldLength;
+
+    //Constructs a CsvReader reading from the start of the stream
+    public CsvReader(InputStream in) {
+        mIn = in;
+    }
+
+    //Number of bytes consumed from the stream, which is the end of the last record read
+    public long getPosition() {
+        return mPosition;
+    }
+
+    //Skip forward to a position returned by getPosition() in an earlier read of the same stream
+    public void skipTo(long position) throws IOException {
+        if (position < mPosition) {
+            throw new IllegalArgumentException("Cannot skip back to " + position + " from " + mPosition);
+        }
+        while (mPosition < position) {
+            if (mBufferPosition < mBufferLength) {
+                int skipped = (int) Math.min(mBufferLength - mBufferPosition, position - mPosition);
+                mBufferPosition += skipped;
+                mPosition += skipped;
+            } else {
+                long skipped = mIn.skip(position - mPosition);
+                if (skipped <= 0) {
+                    //skip() may refuse to move, fall back to reading
+                    if (read() == -1) {
+                        throw new IOException("Stream ended before position " + position);
+                    }
+                } else {
+                    mPosition += skipped;
+                }
+            }
+        }
+    }
+
+    //Read the next record. Returns null once the stream has ended. Blank lines are skipped.
+    public List<String> readRecord() throws IOException {
+        List<String> record = new ArrayList<>();
+        boolean quoted = false;
+        boolean quoteInQuoted = false;
+        boolean fieldStarted = false;
+        mFieldLength = 0;
+
+        while (true) {
+            //A UTF-8 byte order mark at the very start is not part of the data
+            if (mPosition == 0 && skipByteOrderMark()) {
+                continue;
+            }
+
+            int b = read();
+            if (b == -1) {
+                if (quoted && !quoteInQuoted) {
+                    throw new IOException("Stream ended inside a quoted field");
+                }
+                if (!fieldStarted && record.isEmpty()) {
+                    return null;
+                }
+                record.add(takeField());
+                return record;
+            }
+
+            if (quoted) {
+                if (quoteInQuoted) {
+                    quoteInQuoted = false;
+                    if (b == '"') {
+                        //A doubled quote stands for one quote
+                        appendToField(b);
+                        continue;
+                    }
+                    //The closing quote, the byte is handled as outside quotes below
+                    quoted = false;
+                } else {
+                    if (b == '"') {
+                        quoteInQuoted = true;
+                    } else {
+                        appendToField(b);
+                    }
+                    continue;
+                }
+            }
+
+            if (b == ',') {
+                record.add(takeField());
+                fieldStarted = true;
+            } else if (b == '\n') {
+                if (!fieldStarted && record.isEmpty()) {
+                    //Blank line
+                    continue;
+                }
+                record.add(takeField());
+                return record;
+            } else if (b == '\r') {
+                //Part of a Windows line ending
+                continue;
+            } else if (b == '"' && mFieldLength == 0) {
+                quoted = true;
+                fieldStarted = true;
+            } else {
+                appendToField(b);
+                fieldStarted = true;
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        mIn.close();
+    }
+
+    //Read one byte, refilling the buffer from the stream when needed. Returns -1 at the end.
+    private int read() throws IOException {
+        if (mBufferPosition == mBufferLength) {
+            mBufferLength = mIn.read(mBuffer, 0, mBuffer.length);
+            mBufferPosition = 0;
+            if (mBufferLength <= 0) {
+                mBufferLength = 0;
+                return -1;
+            }
+        }
+        mPosition++;
+        return mBuffer[mBufferPosition++] & 0xff;
+    }
+
+    //Consume the byte order mark EF BB BF if the stream starts with it
+    private boolean skipByteOrderMark() throws IOException {
+        if (mBufferLength - mBufferPosition < 3) {
+            //Fill the buffer far enough to look at the first three bytes
+            while (mBufferLength < 3) {
+                int n = mIn.read(mBuffer, mBufferLength, mBuffer.length - mBufferLength);
+                if (n <= 0) {
+                    break;
+                }
+                mBufferLength += n;
+            }
+        }
+        if (mBufferLength >= 3 && (mBuffer[0] & 0xff) == 0xef && (mBuffer[1] & 0xff) == 0xbb
+                && (mBuffer[2] & 0xff) == 0xbf) {
+            mBufferPosition = 3;
+            mPosition = 3;
+            return true;
+        }
+        return false;
+    }
+
+    private void appendToField(int b) throws IOException {
+        if (mFieldLength == mField.length) {
+            if (mField.length >= MAX_FIELD_BYTES) {
+                throw new IOException("Field longer than " + MAX_FIELD_BYTES + " bytes at " + mPosition);
+            }
+            byte[] larger = new byte[Math.min(mField.length * 2, MAX_FIELD_BYTES)];
+            System.arraycopy(mField, 0, larger, 0, mFieldLength);
+            mField = larger;
+        }
+        mField[mFieldLength++] = (byte) b;
+    }
+
+    private String takeField() {
+        String field = new String(mField, 0, mFieldLength, UTF_8);
+        mFieldLength = 0;
+        return field;
+    }
+}
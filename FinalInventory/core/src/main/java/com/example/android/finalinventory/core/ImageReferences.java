@@ -0,0 +1,78 @@
+package com.example.android.finalinventory.core;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Names of stored item images. An image is named after the SHA-1 of its bytes, in lowercase hex,
+ * so the same image always gets the same name.
+ */
+public final class ImageReferences {
+
+    //Length of a reference, a SHA-1 in hexadecimal
+    private static final int REFERENCE_LENGTH = 40;
+
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    private ImageReferences() {
+    }
+
+    //Hash the image bytes into a reference
+    public static String hash(byte[] image) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-1 is not available", e);
+        }
+        byte[] bytes = digest.digest(image);
+        char[] chars = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            chars[i * 2] = HEX_DIGITS[(bytes[i] >> 4) & 0xf];
+            chars[i * 2 + 1] = HEX_DIGITS[bytes[i] & 0xf];
+        }
+        return new String(chars);
+    }
+
+    //References are only ever lowercase SHA-1 hex, which also keeps them from escaping a directory
+    public static boolean isValidReference(String reference) {
+        if (reference == null || reference.length() != REFERENCE_LENGTH) {
+            return false;
+        }
+        for (int i = 0; i < REFERENCE_LENGTH; i++) {
+            char c = reference.charAt(i);
+            if ((c < '0' || c > '9') && (c < 'a' || c > 'f')) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    //MIME type of an encoded image, worked out from its first length bytes (12 are enough)
+    public static String getType(byte[] header, int length) {
+        if (length >= 8 && (header[0] & 0xff) == 0x89 && header[1] == 'P' && header[2] == 'N' && header[3] == 'G') {
+            return "image/png";
+        }
+        if (length >= 3 && (header[0] & 0xff) == 0xff && (header[1] & 0xff) == 0xd8 && (header[2] & 0xff) == 0xff) {
+            return "image/jpeg";
+        }
+        if (length >= 12 && header[0] == 'R' && header[1] == 'I' && header[2] == 'F' && header[3] == 'F'
+                && header[8] == 'W' && header[9] == 'E' && header[10] == 'B' && header[11] == 'P') {
+            return "image/webp";
+        }
+        return "application/octet-stream";
+    }
+
+    //Largest power of two sample size that keeps an image of the given size at least as big as
+    //the requested size when it is decoded
+    public static int calculateInSampleSize(int width, int height, int reqWidth, int reqHeight) {
+        int inSampleSize = 1;
+        if (reqWidth <= 0 || reqHeight <= 0) {
+            return inSampleSize;
+        }
+        while (width / (inSampleSize * 2) >= reqWidth && height / (inSampleSize * 2) >= reqHeight) {
+            inSampleSize *= 2;
+        }
+        return inSampleSize;
+    }
+}
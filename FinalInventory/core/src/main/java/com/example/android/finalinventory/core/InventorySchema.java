@@ -0,0 +1,339 @@
+package com.example.android.finalinventory.core;
+
+/**
+ * The tables of the inventory database that items and their stock live in, with their indexes
+ * and triggers, and the statements that adjust stock. The app creates its database from these and
+ * runs them through SqliteStockStore. The benchmarks create and run the same ones over JDBC, so
+ * they pay for every index and trigger the app's writes pay for.
+ *
+ * These are the current schema, for creating a new database. The app's upgrade steps keep the
+ * statements they were released with, so a change here needs a new step doing the same.
+ */
+public final class InventorySchema {
+
+    //Every table's primary key, named like Android's BaseColumns._ID
+    public static final String COLUMN_ID = "_id";
+
+    //The items table and its columns, see ItemContract.ItemEntry
+    public static final String TABLE_ITEMS = "items";
+    public static final String COLUMN_ITEM_NAME = "name";
+    public static final String COLUMN_ITEM_COST = "cost";
+    public static final String COLUMN_ITEM_QUANTITY = "quantity";
+    public static final String COLUMN_ITEM_IMAGE = "image";
+    public static final String COLUMN_ITEM_THUMBNAIL = "thumbnail";
+    public static final String COLUMN_ITEM_MEDIUM_IMAGE = "medium_image";
+    public static final String COLUMN_ITEM_VERSION = "version";
+    public static final String COLUMN_ITEM_MODIFIED_AT = "modified_at";
+    public static final String COLUMN_ITEM_SYNC_ID = "sync_id";
+    public static final String COLUMN_ITEM_SKU = "sku";
+
+    //The stock movement ledger and its columns, see ItemContract.MovementEntry
+    public static final String TABLE_MOVEMENTS = "stock_movements";
+    public static final String COLUMN_MOVEMENT_ITEM_ID = "item_id";
+    public static final String COLUMN_MOVEMENT_DELTA = "delta";
+    public static final String COLUMN_MOVEMENT_REASON = "reason";
+    public static final String COLUMN_MOVEMENT_TIMESTAMP = "timestamp";
+
+    //Full-text index of item names. The docid of each row is the _ID of its item.
+    public static final String TABLE_ITEMS_FTS = "items_fts";
+
+    //Totals of the whole inventory in its only row, kept up to date by triggers on the items
+    //table so reading them never depends on the number of items. The stock value is kept in whole
+    //cents, which add up exactly however many changes are applied to them.
+    public static final String TABLE_TOTALS = "inventory_totals";
+    public static final String COLUMN_TOTALS_ITEM_COUNT = "item_count";
+    public static final String COLUMN_TOTALS_UNITS = "total_units";
+    public static final String COLUMN_TOTALS_VALUE_CENTS = "total_value_cents";
+
+    //Change tracking for sync. The only row of sync_state holds the number of the latest change,
+    //the number of the latest change sent to the sync server, the server's token for the changes
+    //received from it, and whether changes received from it are being applied. Those aren't
+    //local changes, so the triggers leave them alone while the flag is set.
+    public static final String TABLE_SYNC_STATE = "sync_state";
+    public static final String COLUMN_SYNC_CHANGE_SEQ = "change_seq";
+    public static final String COLUMN_SYNC_PUSHED_SEQ = "pushed_seq";
+    public static final String COLUMN_SYNC_PULL_TOKEN = "pull_token";
+    public static final String COLUMN_SYNC_APPLYING_REMOTE = "applying_remote";
+
+    //Items deleted since they were synced, by sync ID, with the number of the deleting change
+    public static final String TABLE_TOMBSTONES = "item_tombstones";
+    public static final String COLUMN_TOMBSTONE_DELETED_AT = "deleted_at";
+
+    //The current time in milliseconds since the epoch
+    public static final String SQL_NOW_MS = "CAST((julianday('now') - 2440587.5) * 86400000 AS INTEGER)";
+
+    //A new random sync ID, 32 hex digits
+    public static final String SQL_NEW_SYNC_ID = "lower(hex(randomblob(16)))";
+
+    //Adds a delta to one item's quantity, unless that would take it below 0. Binds the delta, the
+    //_ID and the delta again.
+    public static final String SQL_ADJUST_QUANTITY = "UPDATE " + TABLE_ITEMS
+            + " SET " + COLUMN_ITEM_QUANTITY + " = " + COLUMN_ITEM_QUANTITY + " + ?"
+            + " WHERE " + COLUMN_ID + " = ?"
+            + " AND " + COLUMN_ITEM_QUANTITY + " + ? >= 0";
+
+    //Appends a movement to the stock movement ledger. Binds the item _ID, the delta, the reason
+    //and the time.
+    public static final String SQL_APPEND_MOVEMENT = "INSERT INTO " + TABLE_MOVEMENTS + " ("
+            + COLUMN_MOVEMENT_ITEM_ID + ", " + COLUMN_MOVEMENT_DELTA + ", "
+            + COLUMN_MOVEMENT_REASON + ", " + COLUMN_MOVEMENT_TIMESTAMP + ")"
+            + " VALUES (?, ?, ?, ?)";
+
+    //Reads the quantity of the item with the bound _ID
+    public static final String SQL_QUERY_QUANTITY = "SELECT " + COLUMN_ITEM_QUANTITY + " FROM " + TABLE_ITEMS
+            + " WHERE " + COLUMN_ID + " = ?";
+
+    //Statement to create the items table
+    private static final String SQL_CREATE_ITEMS_TABLE = "CREATE TABLE " + TABLE_ITEMS
+            + " ("
+            + COLUMN_ID + " INTEGER PRIMARY KEY AUTOINCREMENT, "
+            + COLUMN_ITEM_NAME + " TEXT NOT NULL, "
+            + COLUMN_ITEM_COST + " REAL NOT NULL, "
+            + COLUMN_ITEM_QUANTITY + " INTEGER NOT NULL DEFAULT 0, "
+            + COLUMN_ITEM_IMAGE + " TEXT, "
+            + COLUMN_ITEM_VERSION + " INTEGER NOT NULL DEFAULT 0, "
+            + COLUMN_ITEM_MODIFIED_AT + " INTEGER NOT NULL DEFAULT 0, "
+            + COLUMN_ITEM_SYNC_ID + " TEXT, "
+            + COLUMN_ITEM_SKU + " TEXT, "
+            + COLUMN_ITEM_THUMBNAIL + " TEXT, "
+            + COLUMN_ITEM_MEDIUM_IMAGE + " TEXT);";
+
+    //Index used to find out whether an image file is still referenced by any item
+    private static final String SQL_CREATE_IMAGE_INDEX = "CREATE INDEX items_image_idx ON "
+            + TABLE_ITEMS + " (" + COLUMN_ITEM_IMAGE + ");";
+
+    //Indexes used to find out whether a file is still referenced as the smaller version of an image
+    private static final String SQL_CREATE_THUMBNAIL_INDEX = "CREATE INDEX items_thumbnail_idx ON "
+            + TABLE_ITEMS + " (" + COLUMN_ITEM_THUMBNAIL + ");";
+
+    private static final String SQL_CREATE_MEDIUM_IMAGE_INDEX = "CREATE INDEX items_medium_image_idx ON "
+            + TABLE_ITEMS + " (" + COLUMN_ITEM_MEDIUM_IMAGE + ");";
+
+    //Items are looked up and upserted by SKU. Items without one are NULL, which the unique
+    //index allows any number of.
+    private static final String SQL_CREATE_SKU_INDEX = "CREATE UNIQUE INDEX items_sku_idx ON "
+            + TABLE_ITEMS + " (" + COLUMN_ITEM_SKU + ");";
+
+    //Statement to create the full-text index, and the triggers keeping it in step with the items.
+    //FTS4 without an external content table, which needs a newer SQLite than API 15 ships.
+    private static final String SQL_CREATE_FTS_TABLE = "CREATE VIRTUAL TABLE " + TABLE_ITEMS_FTS
+            + " USING fts4(" + COLUMN_ITEM_NAME + ");";
+
+    private static final String SQL_CREATE_FTS_INSERT_TRIGGER = "CREATE TRIGGER items_fts_insert AFTER INSERT ON "
+            + TABLE_ITEMS + " BEGIN "
+            + "INSERT INTO " + TABLE_ITEMS_FTS + " (docid, " + COLUMN_ITEM_NAME + ")"
+            + " VALUES (new." + COLUMN_ID + ", new." + COLUMN_ITEM_NAME + "); END;";
+
+    private static final String SQL_CREATE_FTS_UPDATE_TRIGGER = "CREATE TRIGGER items_fts_update AFTER UPDATE OF "
+            + COLUMN_ITEM_NAME + " ON " + TABLE_ITEMS + " BEGIN "
+            + "UPDATE " + TABLE_ITEMS_FTS + " SET " + COLUMN_ITEM_NAME + " = new." + COLUMN_ITEM_NAME
+            + " WHERE docid = old." + COLUMN_ID + "; END;";
+
+    private static final String SQL_CREATE_FTS_DELETE_TRIGGER = "CREATE TRIGGER items_fts_delete AFTER DELETE ON "
+            + TABLE_ITEMS + " BEGIN "
+            + "DELETE FROM " + TABLE_ITEMS_FTS + " WHERE docid = old." + COLUMN_ID + "; END;";
+
+    //Statement to create the stock movement ledger, and its indexes: by item for the history of
+    //an item and removing the movements of deleted items, by time for compaction
+    private static final String SQL_CREATE_MOVEMENTS_TABLE = "CREATE TABLE " + TABLE_MOVEMENTS
+            + " ("
+            + COLUMN_ID + " INTEGER PRIMARY KEY AUTOINCREMENT, "
+            + COLUMN_MOVEMENT_ITEM_ID + " INTEGER NOT NULL, "
+            + COLUMN_MOVEMENT_DELTA + " INTEGER NOT NULL, "
+            + COLUMN_MOVEMENT_REASON + " TEXT NOT NULL, "
+            + COLUMN_MOVEMENT_TIMESTAMP + " INTEGER NOT NULL);";
+
+    private static final String SQL_CREATE_MOVEMENTS_ITEM_INDEX = "CREATE INDEX stock_movements_item_idx ON "
+            + TABLE_MOVEMENTS + " (" + COLUMN_MOVEMENT_ITEM_ID + ");";
+
+    private static final String SQL_CREATE_MOVEMENTS_TIMESTAMP_INDEX = "CREATE INDEX stock_movements_timestamp_idx ON "
+            + TABLE_MOVEMENTS + " (" + COLUMN_MOVEMENT_TIMESTAMP + ");";
+
+    //The movements of a deleted item go with it
+    private static final String SQL_CREATE_MOVEMENTS_DELETE_TRIGGER = "CREATE TRIGGER stock_movements_delete AFTER DELETE ON "
+            + TABLE_ITEMS + " BEGIN "
+            + "DELETE FROM " + TABLE_MOVEMENTS + " WHERE " + COLUMN_MOVEMENT_ITEM_ID
+            + " = old." + COLUMN_ID + "; END;";
+
+    private static final String SQL_CREATE_TOTALS_TABLE = "CREATE TABLE " + TABLE_TOTALS
+            + " ("
+            + COLUMN_ID + " INTEGER PRIMARY KEY CHECK (" + COLUMN_ID + " = 1), "
+            + COLUMN_TOTALS_ITEM_COUNT + " INTEGER NOT NULL, "
+            + COLUMN_TOTALS_UNITS + " INTEGER NOT NULL, "
+            + COLUMN_TOTALS_VALUE_CENTS + " INTEGER NOT NULL);";
+
+    //Fills the totals row from the items there are
+    private static final String SQL_INSERT_TOTALS = "INSERT INTO " + TABLE_TOTALS + " ("
+            + COLUMN_ID + ", " + COLUMN_TOTALS_ITEM_COUNT + ", " + COLUMN_TOTALS_UNITS
+            + ", " + COLUMN_TOTALS_VALUE_CENTS + ")"
+            + " SELECT 1, COUNT(*), IFNULL(SUM(" + COLUMN_ITEM_QUANTITY + "), 0), IFNULL(SUM("
+            + valueCents(TABLE_ITEMS) + "), 0) FROM " + TABLE_ITEMS;
+
+    private static final String SQL_CREATE_TOTALS_INSERT_TRIGGER = "CREATE TRIGGER inventory_totals_insert AFTER INSERT ON "
+            + TABLE_ITEMS + " BEGIN "
+            + "UPDATE " + TABLE_TOTALS + " SET "
+            + COLUMN_TOTALS_ITEM_COUNT + " = " + COLUMN_TOTALS_ITEM_COUNT + " + 1, "
+            + COLUMN_TOTALS_UNITS + " = " + COLUMN_TOTALS_UNITS + " + new." + COLUMN_ITEM_QUANTITY + ", "
+            + COLUMN_TOTALS_VALUE_CENTS + " = " + COLUMN_TOTALS_VALUE_CENTS + " + " + valueCents("new") + "; END;";
+
+    private static final String SQL_CREATE_TOTALS_UPDATE_TRIGGER = "CREATE TRIGGER inventory_totals_update AFTER UPDATE OF "
+            + COLUMN_ITEM_COST + ", " + COLUMN_ITEM_QUANTITY + " ON " + TABLE_ITEMS + " BEGIN "
+            + "UPDATE " + TABLE_TOTALS + " SET "
+            + COLUMN_TOTALS_UNITS + " = " + COLUMN_TOTALS_UNITS
+            + " + new." + COLUMN_ITEM_QUANTITY + " - old." + COLUMN_ITEM_QUANTITY + ", "
+            + COLUMN_TOTALS_VALUE_CENTS + " = " + COLUMN_TOTALS_VALUE_CENTS
+            + " + " + valueCents("new") + " - " + valueCents("old") + "; END;";
+
+    private static final String SQL_CREATE_TOTALS_DELETE_TRIGGER = "CREATE TRIGGER inventory_totals_delete AFTER DELETE ON "
+            + TABLE_ITEMS + " BEGIN "
+            + "UPDATE " + TABLE_TOTALS + " SET "
+            + COLUMN_TOTALS_ITEM_COUNT + " = " + COLUMN_TOTALS_ITEM_COUNT + " - 1, "
+            + COLUMN_TOTALS_UNITS + " = " + COLUMN_TOTALS_UNITS + " - old." + COLUMN_ITEM_QUANTITY + ", "
+            + COLUMN_TOTALS_VALUE_CENTS + " = " + COLUMN_TOTALS_VALUE_CENTS + " - " + valueCents("old") + "; END;";
+
+    private static final String SQL_CREATE_SYNC_STATE_TABLE = "CREATE TABLE " + TABLE_SYNC_STATE
+            + " ("
+            + COLUMN_ID + " INTEGER PRIMARY KEY CHECK (" + COLUMN_ID + " = 1), "
+            + COLUMN_SYNC_CHANGE_SEQ + " INTEGER NOT NULL, "
+            + COLUMN_SYNC_PUSHED_SEQ + " INTEGER NOT NULL DEFAULT 0, "
+            + COLUMN_SYNC_PULL_TOKEN + " TEXT, "
+            + COLUMN_SYNC_APPLYING_REMOTE + " INTEGER NOT NULL DEFAULT 0);";
+
+    private static final String SQL_CREATE_TOMBSTONES_TABLE = "CREATE TABLE " + TABLE_TOMBSTONES
+            + " ("
+            + COLUMN_ITEM_SYNC_ID + " TEXT PRIMARY KEY, "
+            + COLUMN_ITEM_VERSION + " INTEGER NOT NULL, "
+            + COLUMN_TOMBSTONE_DELETED_AT + " INTEGER NOT NULL);";
+
+    //The changes since a sync are read by version
+    private static final String SQL_CREATE_VERSION_INDEX = "CREATE INDEX items_version_idx ON "
+            + TABLE_ITEMS + " (" + COLUMN_ITEM_VERSION + ");";
+
+    private static final String SQL_CREATE_TOMBSTONES_VERSION_INDEX = "CREATE INDEX item_tombstones_version_idx ON "
+            + TABLE_TOMBSTONES + " (" + COLUMN_ITEM_VERSION + ");";
+
+    //Changes received from the server are matched to items by sync ID
+    private static final String SQL_CREATE_SYNC_ID_INDEX = "CREATE UNIQUE INDEX items_sync_id_idx ON "
+            + TABLE_ITEMS + " (" + COLUMN_ITEM_SYNC_ID + ");";
+
+    //Condition of the change tracking triggers: the change was made on this device
+    private static final String WHEN_LOCAL_CHANGE = " WHEN (SELECT " + COLUMN_SYNC_APPLYING_REMOTE + " FROM "
+            + TABLE_SYNC_STATE + ") = 0";
+
+    //Statements of a trigger counting a new change, and the number it was given
+    private static final String SQL_NEXT_CHANGE = "UPDATE " + TABLE_SYNC_STATE + " SET "
+            + COLUMN_SYNC_CHANGE_SEQ + " = " + COLUMN_SYNC_CHANGE_SEQ + " + 1; ";
+    private static final String SQL_CHANGE_SEQ = "(SELECT " + COLUMN_SYNC_CHANGE_SEQ + " FROM " + TABLE_SYNC_STATE + ")";
+
+    //Stamps an item written on this device with the number of the change, the time, and a sync ID
+    //if it has none yet. Only the tracking columns are written, so no other trigger runs again.
+    private static final String SQL_STAMP_ITEM = SQL_NEXT_CHANGE
+            + "UPDATE " + TABLE_ITEMS + " SET "
+            + COLUMN_ITEM_VERSION + " = " + SQL_CHANGE_SEQ + ", "
+            + COLUMN_ITEM_MODIFIED_AT + " = " + SQL_NOW_MS + ", "
+            + COLUMN_ITEM_SYNC_ID + " = IFNULL(new." + COLUMN_ITEM_SYNC_ID + ", " + SQL_NEW_SYNC_ID + ")"
+            + " WHERE " + COLUMN_ID + " = new." + COLUMN_ID + "; ";
+
+    private static final String SQL_CREATE_SYNC_INSERT_TRIGGER = "CREATE TRIGGER items_sync_insert AFTER INSERT ON "
+            + TABLE_ITEMS + WHEN_LOCAL_CHANGE + " BEGIN " + SQL_STAMP_ITEM + "END;";
+
+    //An item changes for sync when a column the sync carries does, or its image
+    private static final String SQL_CREATE_SYNC_UPDATE_TRIGGER = "CREATE TRIGGER items_sync_update AFTER UPDATE OF "
+            + COLUMN_ITEM_NAME + ", " + COLUMN_ITEM_COST + ", " + COLUMN_ITEM_QUANTITY + ", "
+            + COLUMN_ITEM_IMAGE + ", " + COLUMN_ITEM_SKU + " ON " + TABLE_ITEMS + WHEN_LOCAL_CHANGE + " BEGIN " + SQL_STAMP_ITEM + "END;";
+
+    //An item deleted on this device leaves a tombstone, unless it never had a sync ID to be known by
+    private static final String SQL_CREATE_SYNC_DELETE_TRIGGER = "CREATE TRIGGER items_sync_delete AFTER DELETE ON "
+            + TABLE_ITEMS + WHEN_LOCAL_CHANGE + " AND old." + COLUMN_ITEM_SYNC_ID + " IS NOT NULL"
+            + " BEGIN " + SQL_NEXT_CHANGE
+            + "INSERT OR REPLACE INTO " + TABLE_TOMBSTONES + " (" + COLUMN_ITEM_SYNC_ID + ", "
+            + COLUMN_ITEM_VERSION + ", " + COLUMN_TOMBSTONE_DELETED_AT + ")"
+            + " VALUES (old." + COLUMN_ITEM_SYNC_ID + ", " + SQL_CHANGE_SEQ + ", " + SQL_NOW_MS + "); END;";
+
+    private InventorySchema() {
+    }
+
+    //Stock value of one item in cents, for the row called new or old in a trigger
+    private static String valueCents(String row) {
+        return "CAST(ROUND(" + row + "." + COLUMN_ITEM_COST + " * 100) AS INTEGER) * " + row + "." + COLUMN_ITEM_QUANTITY;
+    }
+
+    //Pragmas every connection that writes is configured with, after turning on write-ahead
+    //logging. In WAL mode synchronous=NORMAL only syncs at checkpoints and still can't corrupt the
+    //database. The cache is 2000 pages, about 8MB with 4KB pages.
+    public static String[] pragmaStatements() {
+        return new String[]{"PRAGMA synchronous = NORMAL", "PRAGMA cache_size = 2000"};
+    }
+
+    //Statements creating an empty database with every table, index and trigger above, in order
+    public static String[] createStatements() {
+        return concat(new String[]{SQL_CREATE_ITEMS_TABLE, SQL_CREATE_IMAGE_INDEX, SQL_CREATE_SKU_INDEX,
+                        SQL_CREATE_THUMBNAIL_INDEX, SQL_CREATE_MEDIUM_IMAGE_INDEX},
+                searchIndexStatements(),
+                sortIndexStatements(),
+                movementsStatements(),
+                totalsStatements(),
+                changeTrackingStatements(0));
+    }
+
+    //Statements creating the full-text index of item names and the triggers keeping it up to date
+    private static String[] searchIndexStatements() {
+        return new String[]{SQL_CREATE_FTS_TABLE, SQL_CREATE_FTS_INSERT_TRIGGER, SQL_CREATE_FTS_UPDATE_TRIGGER,
+                SQL_CREATE_FTS_DELETE_TRIGGER};
+    }
+
+    //Indexes for the sort orders of the list. Each starts with its sort key followed by _ID, the
+    //order the list is read in, and holds the rest of the columns the list shows, with the
+    //thumbnail for its picture, so pages and range filters are read from the index alone.
+    private static String[] sortIndexStatements() {
+        return new String[]{
+                "CREATE INDEX items_name_idx ON " + TABLE_ITEMS
+                        + " (" + COLUMN_ITEM_NAME + " COLLATE NOCASE, " + COLUMN_ID + ", "
+                        + COLUMN_ITEM_COST + ", " + COLUMN_ITEM_QUANTITY + ", " + COLUMN_ITEM_THUMBNAIL + ");",
+                "CREATE INDEX items_quantity_idx ON " + TABLE_ITEMS
+                        + " (" + COLUMN_ITEM_QUANTITY + ", " + COLUMN_ID + ", "
+                        + COLUMN_ITEM_NAME + ", " + COLUMN_ITEM_COST + ", " + COLUMN_ITEM_THUMBNAIL + ");",
+                "CREATE INDEX items_cost_idx ON " + TABLE_ITEMS
+                        + " (" + COLUMN_ITEM_COST + ", " + COLUMN_ID + ", "
+                        + COLUMN_ITEM_NAME + ", " + COLUMN_ITEM_QUANTITY + ", " + COLUMN_ITEM_THUMBNAIL + ");"};
+    }
+
+    //Statements creating the stock movement ledger, its indexes and the trigger removing the
+    //movements of deleted items
+    private static String[] movementsStatements() {
+        return new String[]{SQL_CREATE_MOVEMENTS_TABLE, SQL_CREATE_MOVEMENTS_ITEM_INDEX,
+                SQL_CREATE_MOVEMENTS_TIMESTAMP_INDEX, SQL_CREATE_MOVEMENTS_DELETE_TRIGGER};
+    }
+
+    //Statements creating the totals, filled from the items there are, and the triggers keeping
+    //them up to date
+    private static String[] totalsStatements() {
+        return new String[]{SQL_CREATE_TOTALS_TABLE, SQL_INSERT_TOTALS, SQL_CREATE_TOTALS_INSERT_TRIGGER,
+                SQL_CREATE_TOTALS_UPDATE_TRIGGER, SQL_CREATE_TOTALS_DELETE_TRIGGER};
+    }
+
+    //Statements creating the sync state, starting the change count at changeSeq, the tombstones
+    //and the triggers tracking changes to the items
+    private static String[] changeTrackingStatements(long changeSeq) {
+        return new String[]{SQL_CREATE_SYNC_STATE_TABLE,
+                "INSERT INTO " + TABLE_SYNC_STATE + " (" + COLUMN_ID + ", " + COLUMN_SYNC_CHANGE_SEQ + ")"
+                        + " VALUES (1, " + changeSeq + ");",
+                SQL_CREATE_TOMBSTONES_TABLE, SQL_CREATE_TOMBSTONES_VERSION_INDEX, SQL_CREATE_VERSION_INDEX,
+                SQL_CREATE_SYNC_ID_INDEX, SQL_CREATE_SYNC_INSERT_TRIGGER, SQL_CREATE_SYNC_UPDATE_TRIGGER,
+                SQL_CREATE_SYNC_DELETE_TRIGGER};
+    }
+
+    private static String[] concat(String[]... parts) {
+        int length = 0;
+        for (String[] part : parts) {
+            length += part.length;
+        }
+        String[] statements = new String[length];
+        int index = 0;
+        for (String[] part : parts) {
+            System.arraycopy(part, 0, statements, index, part.length);
+            index += part.length;
+        }
+        return statements;
+    }
+}
@@ -0,0 +1,54 @@
+package com.example.android.finalinventory.core;
+
+/**
+ * The rules every item must follow, checked before an item is written. Each check throws an
+ * IllegalArgumentException saying what is wrong.
+ */
+public final class ItemValidator {
+
+    private ItemValidator() {
+    }
+
+    //Check the fields of a new item. quantity may be null, the item then starts with none.
+    public static void validateNewItem(String name, Float cost, Integer quantity) {
+        validateName(name);
+        validateCost(cost);
+        if (quantity != null) {
+            validateQuantity(quantity);
+        }
+    }
+
+    //Check a name given for an item
+    public static void validateName(String name) {
+        if (name == null) {
+            throw new IllegalArgumentException("Item requires a name");
+        }
+    }
+
+    //Check a cost given for an item
+    public static void validateCost(Float cost) {
+        if (cost == null) {
+            throw new IllegalArgumentException("Item requires a price");
+        }
+        if (cost < 0 || cost.isNaN() || cost.isInfinite()) {
+            throw new IllegalArgumentException("Item requires a price of $0.00 or more");
+        }
+    }
+
+    //Check a SKU given for an item. null leaves the item without one.
+    public static void validateSku(String sku) {
+        if (sku != null && sku.trim().isEmpty()) {
+            throw new IllegalArgumentException("SKU cannot be blank");
+        }
+    }
+
+    //Check a quantity given for an item
+    public static void validateQuantity(Integer quantity) {
+        if (quantity == null) {
+            throw new IllegalArgumentException("Quantity must have a value");
+        }
+        if (quantity < 0) {
+            throw new IllegalArgumentException("Quantity cannot be less than 0");
+        }
+    }
+}
@@ -0,0 +1,92 @@
+package com.example.android.finalinventory.core;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counts latencies in microseconds into logarithmic buckets, so percentiles can be read without
+ * keeping every value. Values below 16 have a bucket each, larger ones share a bucket with the
+ * values within 1/8 of them, so a percentile is off by at most 12.5%. Recording only increments
+ * atomic counters, so any number of threads can record without taking a lock.
+ */
+public final class LatencyHistogram {
+
+    //Values below this have a bucket each
+    private static final int LINEAR_BUCKETS = 16;
+
+    //Buckets for each power of 2 above that
+    private static final int SUB_BUCKET_BITS = 3;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+    //Powers of 2 up to 2^63, of which the first 4 are covered by the linear buckets
+    private static final int BUCKET_COUNT = LINEAR_BUCKETS + (64 - 4) * SUB_BUCKETS;
+
+    private final AtomicLongArray mBuckets = new AtomicLongArray(BUCKET_COUNT);
+    private final AtomicLong mCount = new AtomicLong();
+    private final AtomicLong mMax = new AtomicLong();
+
+    //Record one latency. Negative values count as 0.
+    public void record(long micros) {
+        if (micros < 0) {
+            micros = 0;
+        }
+        mBuckets.incrementAndGet(bucketOf(micros));
+        mCount.incrementAndGet();
+
+        long max = mMax.get();
+        while (micros > max && !mMax.compareAndSet(max, micros)) {
+            max = mMax.get();
+        }
+    }
+
+    public long getCount() {
+        return mCount.get();
+    }
+
+    public long getMax() {
+        return mMax.get();
+    }
+
+    //The latency that the given fraction of the recorded latencies are at or below, for example
+    //0.95 for the 95th percentile. Returns the upper end of the bucket it falls into, but never
+    //more than the largest latency recorded, and 0 if nothing was recorded.
+    public long getPercentile(double fraction) {
+        if (fraction < 0 || fraction > 1) {
+            throw new IllegalArgumentException("Fraction must be between 0 and 1: " + fraction);
+        }
+        long count = mCount.get();
+        if (count == 0) {
+            return 0;
+        }
+
+        //Counts recorded while this runs may be seen or not, which doesn't matter for a percentile
+        long rank = Math.max(1, (long) Math.ceil(fraction * count));
+        long seen = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            seen += mBuckets.get(i);
+            if (seen >= rank) {
+                return Math.min(upperBoundOf(i), mMax.get());
+            }
+        }
+        return mMax.get();
+    }
+
+    static int bucketOf(long value) {
+        if (value < LINEAR_BUCKETS) {
+            return (int) value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return LINEAR_BUCKETS + (exponent - 4) * SUB_BUCKETS + subBucket;
+    }
+
+    static long upperBoundOf(int bucket) {
+        if (bucket < LINEAR_BUCKETS) {
+            return bucket;
+        }
+        int exponent = (bucket - LINEAR_BUCKETS) / SUB_BUCKETS + 4;
+        int subBucket = (bucket - LINEAR_BUCKETS) % SUB_BUCKETS;
+        long width = 1L << (exponent - SUB_BUCKET_BITS);
+        return (SUB_BUCKETS + subBucket) * width + width - 1;
+    }
+}
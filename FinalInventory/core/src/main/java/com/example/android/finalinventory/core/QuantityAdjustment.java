@@ -0,0 +1,25 @@
+package com.example.android.finalinventory.core;
+
+/**
+ * Outcome of adding a delta to an item's quantity
+ */
+public final class QuantityAdjustment {
+
+    private final boolean mAdjusted;
+    private final int mQuantity;
+
+    //adjusted is false when the change would have taken the quantity below 0.
+    //quantity is the item's quantity after the change, or -1 if the item doesn't exist.
+    public QuantityAdjustment(boolean adjusted, int quantity) {
+        mAdjusted = adjusted;
+        mQuantity = quantity;
+    }
+
+    public boolean isAdjusted() {
+        return mAdjusted;
+    }
+
+    public int getQuantity() {
+        return mQuantity;
+    }
+}
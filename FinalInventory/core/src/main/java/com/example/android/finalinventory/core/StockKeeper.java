@@ -0,0 +1,47 @@
+package com.example.android.finalinventory.core;
+
+/**
+ * Sells and receives stock through a StockStore, turning the amounts entered into the deltas
+ * and reasons the store records
+ */
+public class StockKeeper {
+
+    private final StockStore mStore;
+
+    public StockKeeper(StockStore store) {
+        mStore = store;
+    }
+
+    //Take amount units of an item out of stock, unless there are fewer than that
+    public QuantityAdjustment sell(long itemId, int amount) {
+        checkAmount(amount);
+        return mStore.adjustQuantity(itemId, -amount, StockStore.REASON_SALE);
+    }
+
+    //Add amount units of an item to the stock
+    public QuantityAdjustment receive(long itemId, int amount) {
+        checkAmount(amount);
+        return mStore.adjustQuantity(itemId, amount, StockStore.REASON_RECEIPT);
+    }
+
+    //Parse an amount entered to sell or receive. Throws NumberFormatException unless it is a
+    //whole number of at least 1.
+    public static int parseAmount(String text) {
+        int amount = Integer.parseInt(text.trim());
+        if (amount < 1) {
+            throw new NumberFormatException("Amount must be at least 1: " + text);
+        }
+        return amount;
+    }
+
+    //Reason to record for a change of the given delta: a sale for stock going out, else a receipt
+    public static String reasonFor(int delta) {
+        return delta < 0 ? StockStore.REASON_SALE : StockStore.REASON_RECEIPT;
+    }
+
+    private static void checkAmount(int amount) {
+        if (amount < 1) {
+            throw new IllegalArgumentException("Amount must be at least 1");
+        }
+    }
+}
@@ -0,0 +1,19 @@
+package com.example.android.finalinventory.core;
+
+/**
+ * Where item quantities are kept. The app implements it over its SQLite database, the benchmarks
+ * over SQLite through JDBC.
+ */
+public interface StockStore {
+
+    //Reasons a quantity changes: items sold, items received, the quantity set to a counted value,
+    //and older changes folded together
+    String REASON_SALE = "sale";
+    String REASON_RECEIPT = "receipt";
+    String REASON_COUNT = "count";
+    String REASON_SNAPSHOT = "snapshot";
+
+    //Add delta to the quantity of an item and record the change with the given reason, in one
+    //step that concurrent changes can't interleave with. Refuses to take the quantity below 0.
+    QuantityAdjustment adjustQuantity(long itemId, int delta, String reason);
+}
@@ -0,0 +1,54 @@
+package com.example.android.finalinventory.core;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for turning catalog records into items
+ */
+public class CatalogParserTest {
+
+    @Test
+    public void findsColumnsByName() {
+        CatalogParser parser = CatalogParser.forHeader(Arrays.asList("Quantity", " PRICE ", "name"));
+        CatalogItem item = parser.parse(Arrays.asList("4", "9.99", " Hammer "));
+        assertEquals("Hammer", item.getName());
+        assertEquals(9.99f, item.getCost(), 0f);
+        assertEquals(4, item.getQuantity());
+    }
+
+    @Test
+    public void requiresNameAndCostColumns() {
+        assertNull(CatalogParser.forHeader(Arrays.asList("name", "quantity")));
+        assertNull(CatalogParser.forHeader(Arrays.asList("cost", "quantity")));
+    }
+
+    @Test
+    public void quantityDefaultsToZero() {
+        CatalogParser parser = CatalogParser.forHeader(Arrays.asList("name", "cost", "quantity"));
+        assertEquals(0, parser.parse(Arrays.asList("Saw", "12")).getQuantity());
+        assertEquals(0, parser.parse(Arrays.asList("Saw", "12", "")).getQuantity());
+    }
+
+    @Test
+    public void readsOptionalSku() {
+        CatalogParser parser = CatalogParser.forHeader(Arrays.asList("name", "cost", "Barcode"));
+        assertEquals("0123456789012", parser.parse(Arrays.asList("Saw", "12", " 0123456789012 ")).getSku());
+        assertNull(parser.parse(Arrays.asList("Saw", "12", "")).getSku());
+        assertNull(CatalogParser.forHeader(Arrays.asList("name", "cost")).parse(Arrays.asList("Saw", "12")).getSku());
+    }
+
+    @Test
+    public void skipsInvalidRecords() {
+        CatalogParser parser = CatalogParser.forHeader(Arrays.asList("name", "cost", "quantity"));
+        assertNull(parser.parse(Arrays.asList("", "1", "1")));
+        assertNull(parser.parse(Arrays.asList("Saw", "cheap", "1")));
+        assertNull(parser.parse(Arrays.asList("Saw", "-1", "1")));
+        assertNull(parser.parse(Arrays.asList("Saw", "NaN", "1")));
+        assertNull(parser.parse(Arrays.asList("Saw", "1", "-2")));
+        assertNull(parser.parse(Arrays.asList("Saw", "1", "2.5")));
+    }
+}
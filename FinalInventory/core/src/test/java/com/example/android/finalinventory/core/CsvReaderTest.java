@@ -0,0 +1,72 @@
+package com.example.android.finalinventory.core;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for the streaming CSV reader used by the catalog import
+ */
+public class CsvReaderTest {
+
+    private static CsvReader reader(String csv) throws Exception {
+        return new CsvReader(new ByteArrayInputStream(csv.getBytes("UTF-8")));
+    }
+
+    @Test
+    public void readsPlainRecords() throws Exception {
+        CsvReader reader = reader("name,cost,quantity\nHammer,9.99,4\n");
+        assertEquals(Arrays.asList("name", "cost", "quantity"), reader.readRecord());
+        assertEquals(Arrays.asList("Hammer", "9.99", "4"), reader.readRecord());
+        assertNull(reader.readRecord());
+    }
+
+    @Test
+    public void readsQuotedFields() throws Exception {
+        CsvReader reader = reader("\"Nails, 2\"\"\",\"multi\nline\",\"\"\r\nlast,,");
+        assertEquals(Arrays.asList("Nails, 2\"", "multi\nline", ""), reader.readRecord());
+        assertEquals(Arrays.asList("last", "", ""), reader.readRecord());
+        assertNull(reader.readRecord());
+    }
+
+    @Test
+    public void skipsByteOrderMarkAndBlankLines() throws Exception {
+        CsvReader reader = reader("\uFEFFname\n\n\r\nSaw\n");
+        assertEquals(Arrays.asList("name"), reader.readRecord());
+        assertEquals(Arrays.asList("Saw"), reader.readRecord());
+        assertNull(reader.readRecord());
+    }
+
+    @Test
+    public void decodesUtf8() throws Exception {
+        CsvReader reader = reader("Schraubendreher f\u00fcr \u00d83mm,1\n");
+        assertEquals(Arrays.asList("Schraubendreher f\u00fcr \u00d83mm", "1"), reader.readRecord());
+    }
+
+    @Test
+    public void resumesFromPosition() throws Exception {
+        String csv = "name,cost\nA,1\nB,2\nC,3\n";
+        CsvReader first = reader(csv);
+        first.readRecord();
+        first.readRecord();
+        long position = first.getPosition();
+        assertEquals("name,cost\nA,1\n".length(), position);
+
+        //A new reader reads the header again and then continues after record A
+        CsvReader second = reader(csv);
+        second.readRecord();
+        second.skipTo(position);
+        List<String> record = second.readRecord();
+        assertEquals(Arrays.asList("B", "2"), record);
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsUnterminatedQuote() throws Exception {
+        reader("\"never closed,1\n").readRecord();
+    }
+}
@@ -0,0 +1,57 @@
+package com.example.android.finalinventory.core;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for reading percentiles out of a latency histogram
+ */
+public class LatencyHistogramTest {
+
+    @Test
+    public void emptyHistogramReadsZero() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getPercentile(0.99));
+    }
+
+    @Test
+    public void smallValuesAreExact() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 1; i <= 10; i++) {
+            histogram.record(i);
+        }
+        assertEquals(5, histogram.getPercentile(0.5));
+        assertEquals(10, histogram.getPercentile(0.95));
+        assertEquals(10, histogram.getMax());
+    }
+
+    @Test
+    public void percentilesStayWithinBucketPrecision() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 1; i <= 100000; i++) {
+            histogram.record(i);
+        }
+        assertWithin(50000, histogram.getPercentile(0.5));
+        assertWithin(95000, histogram.getPercentile(0.95));
+        assertWithin(99000, histogram.getPercentile(0.99));
+        assertEquals(100000, histogram.getPercentile(1));
+    }
+
+    @Test
+    public void bucketsCoverEveryValue() {
+        long[] values = {0, 15, 16, 17, 1000, 1L << 40, Long.MAX_VALUE};
+        for (long value : values) {
+            int bucket = LatencyHistogram.bucketOf(value);
+            assertTrue(value <= LatencyHistogram.upperBoundOf(bucket));
+            assertTrue(bucket == 0 || value > LatencyHistogram.upperBoundOf(bucket - 1));
+        }
+    }
+
+    //A percentile is the upper end of its bucket, at most 1/8 above the exact value
+    private static void assertWithin(long expected, long actual) {
+        assertTrue("Expected about " + expected + " but was " + actual,
+                actual >= expected && actual <= expected + expected / 8);
+    }
+}